@@ -3,6 +3,7 @@ package de.gtarc.opaca.sample
 import de.dailab.jiacvi.behaviour.act
 import de.gtarc.opaca.api.AgentContainerApi
 import de.gtarc.opaca.container.*
+import de.gtarc.opaca.model.Action
 import de.gtarc.opaca.model.Message
 import de.gtarc.opaca.model.Parameter
 import de.gtarc.opaca.model.Event
@@ -39,6 +40,15 @@ class SampleAgent(name: String, val loginHandler: LoginHandler<String>): Abstrac
         ), Parameter("integer")) {
             actionAdd(it.parameters["x"]!!.asInt(), it.parameters["y"]!!.asInt())
         }
+        addAction(Action("GetCachedTime", "Get current time; result may be cached by the platform for 60 seconds",
+            mapOf("key" to Parameter("string")), Parameter("integer"), 60, 10, null)) {
+            System.nanoTime()
+        }
+        addAction(Action("GetSlowTime", "Get current time after waiting for one second; concurrent calls may be coalesced",
+            mapOf(), Parameter("integer"), null, null, true)) {
+            Thread.sleep(1000)
+            System.nanoTime()
+        }
         addAction("Fail", mapOf(), null) {
             actionFail()
         }
@@ -1,11 +1,13 @@
 package de.gtarc.opaca.testing
 
+import de.gtarc.opaca.testing.encoding.runEncodingBenchmark
 import de.gtarc.opaca.testing.manyonone.runManyOnOneTest
 import kotlin.system.exitProcess
 
 
 val TEST_CASES = mapOf(
-    "many-on-one" to ::runManyOnOneTest
+    "many-on-one" to ::runManyOnOneTest,
+    "encoding" to ::runEncodingBenchmark
 )
 
 fun main(args: Array<String>) {
@@ -0,0 +1,72 @@
+package de.gtarc.opaca.testing.encoding
+
+import com.fasterxml.jackson.core.type.TypeReference
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+import de.gtarc.opaca.model.Invocation
+import de.gtarc.opaca.util.RestHelper
+import java.io.ByteArrayOutputStream
+import kotlin.random.Random
+
+/*
+ * BACKGROUND: All traffic between Runtime Platform and Agent Containers used to be JSON text. For large
+ * action parameters and results, e.g. lists of sensor readings, this costs a lot of CPU and bandwidth,
+ * so the binary CBOR encoding was added as an alternative (see CONTAINER_ENCODING).
+ *
+ * WHAT THIS DOES: This creates some typical invoke payloads (small parameters, medium-sized object, large
+ * array of numbers, batch of invocations) and serializes and deserializes them many times with both the
+ * JSON and the CBOR mapper, writing directly to a stream (as RestHelper and the container do).
+ *
+ * WHAT TO LOOK OUT FOR: The output shows the size in bytes and the average time for writing and reading
+ * each payload. CBOR should be notably smaller and faster for payloads with many numbers, and about the
+ * same for payloads consisting mostly of strings.
+ */
+
+const val WARMUP_ROUNDS = 1000
+const val ROUNDS = 5000
+
+fun runEncodingBenchmark() {
+    val payloads = mapOf(
+        "small" to params("x" to 23, "y" to 42),
+        "object" to params("car" to mapOf("model" to "testModel", "doors" to listOf("1", "b", "test"),
+            "electric" to true, "weight" to 1444), "desk" to mapOf("legs" to 4, "height" to 0.75)),
+        "numbers" to params("readings" to List(10_000) { Random.nextDouble() },
+            "timestamps" to List(10_000) { 1_700_000_000_000L + it * 1000 }),
+        "batch" to List(100) { Invocation("Add", params("x" to it, "y" to it * 2), "sample1", null) },
+    )
+    for ((name, payload) in payloads) {
+        for ((encoding, mapper) in listOf("json" to RestHelper.mapper, "cbor" to RestHelper.cborMapper)) {
+            val (size, writeNanos, readNanos) = measure(mapper, payload)
+            println("%-8s %-5s %10d bytes  write %8.1f µs  read %8.1f µs".format(
+                name, encoding, size, writeNanos / 1000.0, readNanos / 1000.0))
+        }
+    }
+}
+
+private fun params(vararg pairs: Pair<String, Any>): Map<String, JsonNode> =
+    pairs.associate { Pair(it.first, RestHelper.mapper.valueToTree(it.second)) }
+
+/**
+ * Measure average time for writing and reading the payload, returning size, write time and read time in ns
+ */
+private fun measure(mapper: ObjectMapper, payload: Any): Triple<Int, Long, Long> {
+    val type = object: TypeReference<JsonNode>() {}
+    var bytes = ByteArray(0)
+    repeat(WARMUP_ROUNDS) {
+        bytes = write(mapper, payload)
+        mapper.readValue(bytes, type)
+    }
+    val startWrite = System.nanoTime()
+    repeat(ROUNDS) { bytes = write(mapper, payload) }
+    val writeNanos = (System.nanoTime() - startWrite) / ROUNDS
+    val startRead = System.nanoTime()
+    repeat(ROUNDS) { mapper.readValue(bytes.inputStream(), type) }
+    val readNanos = (System.nanoTime() - startRead) / ROUNDS
+    return Triple(bytes.size, writeNanos, readNanos)
+}
+
+private fun write(mapper: ObjectMapper, payload: Any): ByteArray {
+    val stream = ByteArrayOutputStream()
+    mapper.writeValue(stream, payload)
+    return stream.toByteArray()
+}
@@ -7,6 +7,7 @@ import de.dailab.jiacvi.behaviour.act
 import de.gtarc.opaca.model.*
 import de.gtarc.opaca.util.ApiProxy
 import de.gtarc.opaca.util.RestHelper
+import de.gtarc.opaca.util.TraceContext
 import java.io.InputStream
 
 /**
@@ -105,7 +106,10 @@ abstract class AbstractContainerizedAgent(name: String, val description: String?
         respond<Invoke, Any?> {
             log.info("INVOKE RESPOND $it")
             when (it.name) {
-                in actionCallbacks -> actionCallbacks[it.name]?.let { cb -> cb(it) }
+                in actionCallbacks -> actionCallbacks[it.name]?.let { cb ->
+                    // continue the caller's trace, e.g. in outbound invokes sent by the action
+                    TraceContext.callWith(TraceContext.parse(it.traceparent)) { cb(it) }
+                }
                 else -> Unit
             }
         }
@@ -140,10 +144,16 @@ abstract class AbstractContainerizedAgent(name: String, val description: String?
     fun <T> sendOutboundInvoke(action: String, agentId: String?, parameters: Map<String, Any?>, type: Class<T>,
                                timeout: Int = -1, containerId: String? = null, forward: Boolean = true): T {
         log.info("Outbound Invoke: $action @ $agentId ($containerId, $forward) with $parameters")
-        val jsonParameters = parameters.entries
-            .associate { Pair<String, JsonNode>(it.key, RestHelper.mapper.valueToTree(it.value)) }
-        val res = parentProxy.invoke(action, jsonParameters, agentId, timeout, containerId, forward)
-        return RestHelper.mapper.treeToValue(res, type)
+        return parentProxy.invoke(action, parameters, agentId, timeout, containerId, forward, type)
+    }
+
+    /**
+     * Send a batch of invokes to other agents via the parent RuntimePlatform, e.g. for calling many small actions
+     * at once. The results are returned in the same order as the invocations, each holding either result or error.
+     */
+    fun sendOutboundInvokeBatch(invocations: List<Invocation>, timeout: Int = -1, forward: Boolean = true): List<InvocationResult> {
+        log.info("Outbound Invoke Batch: ${invocations.size} invocations ($forward)")
+        return parentProxy.invokeBatch(invocations, timeout, forward)
     }
 
     /**
@@ -8,6 +8,9 @@ import de.gtarc.opaca.api.AgentContainerApi
 import de.gtarc.opaca.model.*
 import de.gtarc.opaca.util.ApiProxy
 import de.gtarc.opaca.util.RestHelper
+import de.gtarc.opaca.util.Span
+import de.gtarc.opaca.util.TraceContext
+import de.gtarc.opaca.util.Tracer
 import de.gtarc.opaca.util.WebSocketConnector
 import java.io.InputStream
 import java.time.Duration
@@ -64,6 +67,13 @@ class ContainerAgent(
      */
     override fun preStart() {
         super.preStart()
+        val traceExporter = System.getenv(AgentContainerApi.ENV_TRACE_EXPORTER)
+        if (! traceExporter.isNullOrEmpty()) {
+            val exporterType = Tracer.ExporterType.values().find { it.name == traceExporter.uppercase() }
+                ?: Tracer.ExporterType.NONE.also { log.warn("Unknown trace exporter {}, not exporting spans", traceExporter) }
+            Tracer.getInstance().configure(containerId ?: image.imageName, exporterType,
+                System.getenv(AgentContainerApi.ENV_TRACE_EXPORTER_TARGET))
+        }
         Thread {
             Thread.sleep(1000)
             log.info("Starting Container Agent...")
@@ -144,6 +154,21 @@ class ContainerAgent(
             broker.publish(channel, message)
         }
 
+        override fun sendBatch(messages: List<AddressedMessage>) {
+            log.debug("SEND BATCH OF {} MESSAGES", messages.size)
+            for (msg in messages) {
+                try {
+                    when {
+                        msg.agentId != null -> system.resolve(findRegisteredAgent(msg.agentId, null, null)) tell msg.message
+                        msg.channel != null -> broker.publish(msg.channel, msg.message)
+                        else -> log.warn("Message without recipient: {}", msg.message)
+                    }
+                } catch (e: NoSuchElementException) {
+                    log.warn("Could not deliver message: {}", e.message)
+                }
+            }
+        }
+
         override fun invoke(action: String, parameters: Map<String, JsonNode>, agentId: String?, timeout: Int, containerId: String, forward: Boolean): JsonNode? {
             log.debug("INVOKE ACTION OF AGENT: {} {} {}", agentId, action, parameters)
             val agent = findRegisteredAgent(agentId, action, null)
@@ -151,6 +176,25 @@ class ContainerAgent(
             return RestHelper.mapper.valueToTree(res)
         }
 
+        override fun invokeBatch(invocations: List<Invocation>, timeout: Int, forward: Boolean): List<InvocationResult> {
+            log.debug("INVOKE BATCH OF {} ACTIONS", invocations.size)
+            // first dispatch all invocations so they are executed concurrently, then wait for the results in order
+            val pending = invocations.map {
+                runCatching {
+                    val agent = findRegisteredAgent(it.agentId, it.action, null)
+                    dispatchInvoke(agent, Invoke(it.action, it.parameters, loginToken), timeout)
+                }
+            }
+            return pending.map {
+                try {
+                    val res: Any = awaitInvoke(it.getOrThrow())
+                    InvocationResult.success(RestHelper.mapper.valueToTree(res))
+                } catch (e: Exception) {
+                    InvocationResult.failure(ErrorResponse(ExceptionMapping.getErrorCode(e), e.message, null))
+                }
+            }
+        }
+
         override fun postStream(stream: String, data: ByteArray, agentId: String?, containerId: String, forward: Boolean) {
             log.debug("POST STREAM TO AGENT: $agentId $stream")
             val agent = findRegisteredAgent(agentId, null, stream)
@@ -165,9 +209,17 @@ class ContainerAgent(
         }
 
         private fun waitForInvoke(agentId: String, request: Any, timeout: Int): Any {
-            // send pending invoke to ContainerAgent to execute asynchronously
-            val pendInv = PendingInvoke(agentId, request, timeout, Semaphore(0), null, null)
+            return awaitInvoke(dispatchInvoke(agentId, request, timeout))
+        }
+
+        private fun dispatchInvoke(agentId: String, request: Any, timeout: Int): PendingInvoke {
+            // send pending invoke to ContainerAgent to execute asynchronously, in the current trace
+            val pendInv = PendingInvoke(agentId, request, timeout, TraceContext.current(), Semaphore(0), null, null)
             self tell pendInv
+            return pendInv
+        }
+
+        private fun awaitInvoke(pendInv: PendingInvoke): Any {
             pendInv.lock.acquireUninterruptibly()
             // wait for lock to be released by ContainerAgent, then...
             return when {
@@ -209,12 +261,21 @@ class ContainerAgent(
         // get pending incoming invoke from HTTP handler and execute it, notify HTTP handler via semaphore
         on<PendingInvoke> {
             val ref = system.resolve(it.agentId)
-            ref invoke ask<Any>(it.request) { res ->
+            // the span of the agent's execution ends when the result is received, in another thread
+            val span = Span.detached("agent ${it.agentId}", Span.Kind.INTERNAL, it.trace)
+                .attribute("opaca.agent", it.agentId)
+            val request = when (val req = it.request) {
+                is Invoke -> req.copy(traceparent = span.context.format()).also { span.attribute("opaca.action", req.name) }
+                else -> req
+            }
+            ref invoke ask<Any>(request) { res ->
                 log.info("RESULT $res")
+                span.end()
                 it.result = res
                 it.lock.release()
             }.error { err ->
                 log.warn("ERROR $err")
+                span.setError(err.toString()).end()
                 it.error = err
                 it.lock.release()
             }.timeout(Duration.ofSeconds(if (it.timeout > 0) it.timeout.toLong() else 30))
@@ -285,6 +346,8 @@ class ContainerAgent(
         val agentId: String,
         val request: Any,
         val timeout: Int,
+        // context of the span in which the invoke was received, if any
+        val trace: TraceContext?,
         // (waiting for) the result
         val lock: Semaphore,
         var result: Any?,
@@ -20,9 +20,10 @@ enum class LoginStatus {
 }
 
 // Message for Invoking a OPACA action at a containerized agent, wrapping the name of the action to call
-// and its parameters, to be handled by an invoke-ask "respond" handler.
+// and its parameters, to be handled by an invoke-ask "respond" handler. The traceparent is the context
+// of the span executing the action, so that requests sent by the action are part of the same trace.
 
-data class Invoke(val name: String, val parameters: Map<String, JsonNode>, val loginToken: String? = null)
+data class Invoke(val name: String, val parameters: Map<String, JsonNode>, val loginToken: String? = null, val traceparent: String? = null)
 data class RenewToken(val value: String)
 
 data class StreamGet(val name: String)
@@ -1,10 +1,17 @@
 package de.gtarc.opaca.container
 
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.core.type.TypeReference
+import com.fasterxml.jackson.databind.JsonNode
+import de.gtarc.opaca.model.AddressedMessage
 import de.gtarc.opaca.model.ErrorResponse
 import de.gtarc.opaca.api.AgentContainerApi
+import de.gtarc.opaca.model.Invocation
 import de.gtarc.opaca.model.Login
 import de.gtarc.opaca.model.Message
 import de.gtarc.opaca.util.RestHelper
+import de.gtarc.opaca.util.Span
+import de.gtarc.opaca.util.TraceContext
 import io.javalin.Javalin
 import io.javalin.http.Context
 
@@ -22,6 +29,18 @@ import io.javalin.http.Context
 class RestServerJavalin(val impl: ContainerAgent, val port: Int, val token: String?) {
 
     private val server = Javalin.create()
+            .before {
+                // continue the caller's trace, if any, until the response has been written
+                val span = Span.start("${it.method()} ${it.path()}", Span.Kind.SERVER, TraceContext.parse(it.header(TraceContext.HEADER)))
+                it.attribute(SPAN_ATTRIBUTE, span)
+            }
+            .after {
+                it.attribute<Span>(SPAN_ATTRIBUTE)?.apply {
+                    attribute("http.status_code", it.statusCode())
+                    if (it.statusCode() >= 400) setError("HTTP ${it.statusCode()}")
+                    close()
+                }
+            }
             .before {
                 val tokenFromRequest = it.header("Authorization")?.removePrefix("Bearer ")
                 if (! token.isNullOrEmpty() && tokenFromRequest != token) {
@@ -29,20 +48,21 @@ class RestServerJavalin(val impl: ContainerAgent, val port: Int, val token: Stri
                 }
             }
             .get("/info") {
-                it.json(withToken(it).containerInfo)
+                it.writeResult(withToken(it).containerInfo)
             }
             .post("/login") {
-                val login = RestHelper.readObject(it.body(), Login::class.java)
+                val login = it.readBody<Login>()
+                // token is always returned as JSON string
                 it.json(withToken(it).containerLogin(login))
             }
             .post("/logout") {
                 it.json(withToken(it).containerLogout())
             }
             .get("/agents") {
-                it.json(withToken(it).agents)
+                it.writeResult(withToken(it).agents)
             }
             .get("/agents/{agentId}") {
-                it.json(withToken(it).getAgent(it.pathParam("agentId")))
+                it.writeResult(withToken(it).getAgent(it.pathParam("agentId")))
             }
             .get("/stream/{stream}") {
                 it.contentType("application/octet-stream")
@@ -52,28 +72,37 @@ class RestServerJavalin(val impl: ContainerAgent, val port: Int, val token: Stri
                 it.contentType("application/octet-stream")
                 it.result(withToken(it).getStream(it.pathParam("stream"), it.pathParam("agentId"), "", false))
             }
+            .post("/send") {
+                val messages = it.readBody<List<AddressedMessage>>()
+                withToken(it).sendBatch(messages)
+            }
             .post("/send/{agentId}") {
                 val id = it.pathParam("agentId")
-                val message = RestHelper.readObject(it.body(), Message::class.java)
+                val message = it.readBody<Message>()
                 withToken(it).send(id, message, "", false)
             }
             .post("/broadcast/{channel}") {
                 val channel = it.pathParam("channel")
-                val message = RestHelper.readObject(it.body(), Message::class.java)
+                val message = it.readBody<Message>()
                 withToken(it).broadcast(channel, message, "", false)
             }
+            .post("/invoke") {
+                val timeout = (it.queryParam("timeout") ?: "-1").toInt()
+                val invocations = it.readBody<List<Invocation>>()
+                it.writeResult(withToken(it).invokeBatch(invocations, timeout, false))
+            }
             .post("/invoke/{action}") {
                 val action = it.pathParam("action")
                 val timeout = (it.queryParam("timeout") ?: "-1").toInt()
-                val parameters = RestHelper.readMap(it.body())
-                it.json(withToken(it).invoke(action, parameters, null, timeout, "", false))
+                val parameters = it.readBody<Map<String, JsonNode>>()
+                it.writeResult(withToken(it).invoke(action, parameters, null, timeout, "", false))
             }
             .post("/invoke/{action}/{agentId}") {
                 val action = it.pathParam("action")
                 val agentId = it.pathParam("agentId")
                 val timeout = (it.queryParam("timeout") ?: "-1").toInt()
-                val parameters = RestHelper.readMap(it.body())
-                it.json(withToken(it).invoke(action, parameters, agentId, timeout, "", false))
+                val parameters = it.readBody<Map<String, JsonNode>>()
+                it.writeResult(withToken(it).invoke(action, parameters, agentId, timeout, "", false))
             }
             .post("/stream/{stream}") {
                 val stream = it.pathParam("stream")
@@ -88,7 +117,7 @@ class RestServerJavalin(val impl: ContainerAgent, val port: Int, val token: Stri
                 val code = ExceptionMapping.getErrorCode(e)
                 val err = ErrorResponse(code, e.message, null)
                 ctx.status(code)
-                ctx.json(err)
+                ctx.writeResult(err)
             }
 
     var isRunning = false
@@ -107,6 +136,28 @@ class RestServerJavalin(val impl: ContainerAgent, val port: Int, val token: Stri
         return impl.LoggedInContainerImpl(context.header(AgentContainerApi.HEADER_TOKEN))
     }
 
+    companion object {
+        private const val SPAN_ATTRIBUTE = "opaca.span"
+    }
+
+}
+
+/**
+ * Read the request body using the mapper matching the request's content type, i.e. JSON or CBOR.
+ */
+private inline fun <reified T> Context.readBody(): T =
+    RestHelper.mapperFor(contentType()).readValue(bodyInputStream(), object: TypeReference<T>() {})
+
+/**
+ * Write the result as CBOR if accepted by the client, otherwise as JSON, directly to the output stream,
+ * without creating an intermediate String. The stream itself is closed by Javalin after the handler.
+ */
+private fun Context.writeResult(result: Any) {
+    val cbor = header("Accept")?.contains(RestHelper.CBOR_CONTENT_TYPE) == true
+    contentType(if (cbor) RestHelper.CBOR_CONTENT_TYPE else "application/json")
+    (if (cbor) RestHelper.cborMapper else RestHelper.mapper).writer()
+        .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+        .writeValue(outputStream(), result)
 }
 
 /**
@@ -1,9 +1,11 @@
 package de.gtarc.opaca.api;
 
+import de.gtarc.opaca.model.AddressedMessage;
 import de.gtarc.opaca.model.AgentContainer;
 import de.gtarc.opaca.model.Login;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Agent-Container-specific additions on top of the Common API. Basically, this is just
@@ -27,6 +29,12 @@ public interface AgentContainerApi extends CommonApi{
     /** which ports on the host the container's ports are mapped to, in the format "containerPort1:hostPort1,..." */
     String ENV_PORT_MAPPING = "PORT_MAPPING";
 
+    /** type of exporter for the container's spans, if the platform's spans are exported via OTLP */
+    String ENV_TRACE_EXPORTER = "TRACE_EXPORTER";
+
+    /** target of the exporter for the container's spans, i.e. the OTLP endpoint */
+    String ENV_TRACE_EXPORTER_TARGET = "TRACE_EXPORTER_TARGET";
+
     /** HTTP header in which the container login token is stored (see {@link #containerLogin(Login)}) */
     String HEADER_TOKEN = "ContainerLoginToken";
 
@@ -66,4 +74,15 @@ public interface AgentContainerApi extends CommonApi{
      */
     boolean containerLogout() throws IOException;
 
+    /**
+     * Deliver a batch of messages, each either to a single agent or to a channel. Used by the Runtime Platform for
+     * combining many messages to the same container into a single request. The messages are dispatched in order;
+     * messages to unknown agents are skipped without affecting the other messages.
+     *
+     * REST: POST /send
+     *
+     * @param messages list of messages with their recipients
+     */
+    void sendBatch(List<AddressedMessage> messages) throws IOException;
+
 }
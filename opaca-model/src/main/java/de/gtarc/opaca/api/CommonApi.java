@@ -2,6 +2,8 @@ package de.gtarc.opaca.api;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import de.gtarc.opaca.model.AgentDescription;
+import de.gtarc.opaca.model.Invocation;
+import de.gtarc.opaca.model.InvocationResult;
 import de.gtarc.opaca.model.Message;
 
 import java.io.IOException;
@@ -74,6 +76,19 @@ public interface CommonApi {
      */
     JsonNode invoke(String action, Map<String, JsonNode> parameters, String agentId, int timeout, String containerId, boolean forward) throws IOException;
 
+    /**
+     * Invoke a batch of actions, each at any or a specific agent and container. The invocations are
+     * executed concurrently; failure of individual invocations does not affect the others.
+     *
+     * REST: POST /invoke?timeout={timeout}&forward={true|false}`
+     *
+     * @param invocations List of actions to invoke, with parameters and optional agent and container
+     * @param timeout timeout for each of the actions, or -1 for no (or default) timeout
+     * @param forward flag whether to forward the invocations to connected platforms (optional)
+     * @return Results of the invocations, in the same order as the invocations, each with either result or error
+     */
+    List<InvocationResult> invokeBatch(List<Invocation> invocations, int timeout, boolean forward) throws IOException;
+
     /**
      * Get a stream provided by a specific agent on this container.
      *
@@ -13,6 +13,9 @@ import java.util.Map;
  */
 public interface RuntimePlatformApi extends CommonApi {
 
+    /** HTTP header listing the base URLs of platforms a forwarded call has already passed, to prevent loops */
+    String HEADER_VISITED_PLATFORMS = "visited-platforms";
+
     /**
      * Get full information on the Runtime Platform, including all running Agent Containers and
      * Agents, connected other platforms, etc.
@@ -23,6 +26,41 @@ public interface RuntimePlatformApi extends CommonApi {
      */
     RuntimePlatform getPlatformInfo() throws IOException;
 
+    /**
+     * Get changes to the Runtime Platform's containers since the given revision, as reported in the
+     * platform info or a previous delta. Used by connected platforms to keep their view up to date.
+     *
+     * REST Route: GET /info?sinceRevision={revision}
+     *
+     * @param sinceRevision The last revision known to the caller.
+     * @return Containers added, changed and removed since that revision.
+     */
+    PlatformDelta getPlatformInfoDelta(long sinceRevision) throws IOException;
+
+    /**
+     * Get changes to the containers of another platform reachable via this platform since the given
+     * revision, e.g. when the revision in the route to that platform changed. The request is passed on
+     * along the route until it reaches the destination platform.
+     *
+     * REST Route: GET /info?sinceRevision={revision}&platformUrl={url}
+     *
+     * @param sinceRevision The last revision of the other platform known to the caller, or -1 if none.
+     * @param platformUrl The base URL of the other platform.
+     * @return Containers added, changed and removed on the other platform since that revision.
+     */
+    PlatformDelta getPlatformInfoDelta(long sinceRevision, String platformUrl) throws IOException;
+
+    /**
+     * Get the routes to other platforms reachable via this platform, including directly connected ones,
+     * with the number of hops and measured latency. Only provided if the platform's hop limit allows
+     * forwarding calls over more than one hop, otherwise empty.
+     *
+     * REST Route: GET /routes
+     *
+     * @return List of cheapest route to each reachable platform.
+     */
+    List<PlatformRoute> getRoutes() throws IOException;
+
     
     /**
      * Complementary to {@link CommonApi#getAgents()}: Get list of Agents running in this Runtime Platform
@@ -45,6 +83,15 @@ public interface RuntimePlatformApi extends CommonApi {
      */
     Map<String, ?> getPlatformConfig() throws IOException;
 
+    /** Get statistics on the operation of this Runtime Platform, e.g. the usage of the action result cache.
+     * As with the config, the exact keys may vary depending on the implementation.
+     *
+     * REST Route: GET /stats
+     *
+     * @return Map mapping name of statistics group to statistics; exact keys can vary.
+     */
+    Map<String, ?> getPlatformStatistics() throws IOException;
+
     /**
      * Get history of "events" that occurred in this runtime platform
      *
@@ -54,6 +101,22 @@ public interface RuntimePlatformApi extends CommonApi {
      */
     List<Event> getHistory() throws IOException;
 
+    /**
+     * Get the latest "events" matching the given criteria, from the persistent event log, if enabled,
+     * otherwise from the history
+     *
+     * REST: GET /history?from={from}&to={to}&since={since}&route={route}&eventType={eventType}&limit={limit}
+     *
+     * @param from earliest timestamp (in milliseconds) of events to include (optional)
+     * @param to latest timestamp (in milliseconds) of events to include (optional)
+     * @param since sequence number of the last event already seen, to include only later events (optional)
+     * @param route pattern for the route of events, same as for websocket subscriptions (optional)
+     * @param eventType type of events to include (optional)
+     * @param limit maximum number of events to return (optional)
+     * @return list of latest matching events, most-recent last
+     */
+    List<Event> getHistory(Long from, Long to, Long since, String route, Event.EventType eventType, Integer limit) throws IOException;
+
     /*
      * AUTHENTICATION
      */
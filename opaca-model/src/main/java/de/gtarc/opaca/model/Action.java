@@ -1,5 +1,6 @@
 package de.gtarc.opaca.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -27,8 +28,26 @@ public class Action {
     /** type of result */
     Parameter result;
 
+    /** optional time in seconds for which the platform may cache results of this action; only to be used for
+     * actions without side effects, i.e. returning the same result for the same parameters; null means no caching */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    Integer cacheTtl = null;
+
+    /** optional maximum number of results (i.e. for different parameters) the platform may cache for this action */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    Integer cacheSize = null;
+
+    /** optional flag that this action has no side effects, so that concurrent identical invocations (same agent and
+     * parameters) may share a single call to the container and its result; null or false means no sharing */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    Boolean idempotent = null;
+
     public Action(String name, Map<String, Parameter> parameters, Parameter result) {
         this(name, null, parameters, result);
     }
 
+    public Action(String name, String description, Map<String, Parameter> parameters, Parameter result) {
+        this(name, description, parameters, result, null, null, null);
+    }
+
 }
@@ -0,0 +1,32 @@
+package de.gtarc.opaca.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+/**
+ * Message together with its recipient, i.e. either a single agent or a channel, as part of a batch of messages.
+ */
+@Data @AllArgsConstructor @NoArgsConstructor
+public class AddressedMessage {
+
+    /** ID of the agent to send the message to; null if broadcast */
+    String agentId;
+
+    /** name of the channel to broadcast the message to; null if sent to single agent */
+    String channel;
+
+    /** the actual message */
+    @NonNull
+    Message message;
+
+    public static AddressedMessage toAgent(String agentId, Message message) {
+        return new AddressedMessage(agentId, null, message);
+    }
+
+    public static AddressedMessage toChannel(String channel, Message message) {
+        return new AddressedMessage(null, channel, message);
+    }
+
+}
@@ -68,6 +68,11 @@ public class AgentContainerImage {
     @NonNull
     Map<String, String> definitionsByUrl = Map.of();
 
+    // OPTIONAL attributes for resources (if any), may be overridden by the client config when posting a container
+
+    /** CPU and memory to reserve for and limit the container to */
+    ResourceRequirements resources;
+
     @Data @AllArgsConstructor @NoArgsConstructor
     public static class PortDescription {
 
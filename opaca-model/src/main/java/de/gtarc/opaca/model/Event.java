@@ -2,7 +2,8 @@ package de.gtarc.opaca.model;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
-import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.NoArgsConstructor;
 
@@ -15,9 +16,14 @@ public class Event {
 
     public static final String HEADER_SENDER_ID = "sender-id";
 
+    /** prefix for IDs of events created in this process, so that IDs are still unique after a restart */
+    private static final String ID_PREFIX = Long.toString(System.currentTimeMillis(), 36) + "-";
 
-    /** unique ID of this event */
-    final String id = UUID.randomUUID().toString();
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+
+    /** unique ID of this event; cheaper to create than a random UUID */
+    final String id = ID_PREFIX + NEXT_ID.incrementAndGet();
 
     /** time when this event was created */
     final Long timestamp = System.currentTimeMillis();
@@ -40,6 +46,68 @@ public class Event {
     /** optional ID of a different event this event relates to */
     String relatedId;
 
+    /** ID of the AgentContainer the call was directed at, if given as parameter, for CALL event */
+    String containerId;
+
+    /** number of this event in the history, assigned when being added to the history */
+    Long sequence;
+
+    /** ID of the trace the call belongs to, for following it across platforms and containers */
+    String traceId;
+
+    /** additional information on the progress of a long-running operation, for PROGRESS event */
+    Map<String, Object> details;
+
+
+    /**
+     * CALL Event for a request to the given route, optionally directed at a container, within a trace
+     */
+    public static Event call(String route, String senderId, String containerId, String traceId) {
+        return new Event(EventType.CALL, route, senderId, null, null, null, containerId, null, traceId, null);
+    }
+
+    /**
+     * FORWARD Event for the call being forwarded to the given receiver
+     */
+    public static Event forward(Event call, String receiver) {
+        return new Event(EventType.FORWARD, null, null, receiver, null, call.getId(), null, null, call.getTraceId(), null);
+    }
+
+    /**
+     * SUCCESS Event completing the call
+     */
+    public static Event success(Event call) {
+        return new Event(EventType.SUCCESS, call.getRoute(), call.getSenderId(), null, null, call.getId(), call.getContainerId(), null, call.getTraceId(), null);
+    }
+
+    /**
+     * SUCCESS Event for a change that was not requested by any call, e.g. removing a failed container
+     */
+    public static Event success(String route, String containerId, Map<String, Object> details) {
+        return new Event(EventType.SUCCESS, route, null, null, null, null, containerId, null, null, details);
+    }
+
+    /**
+     * ERROR Event completing the call with the given HTTP status code
+     */
+    public static Event error(Event call, int statusCode) {
+        return error(call, statusCode, null);
+    }
+
+    /**
+     * ERROR Event completing the call with the given HTTP status code and details, e.g. the error message
+     */
+    public static Event error(Event call, int statusCode, Map<String, Object> details) {
+        return new Event(EventType.ERROR, call.getRoute(), call.getSenderId(), null, statusCode, call.getId(), call.getContainerId(), null, call.getTraceId(), details);
+    }
+
+    /**
+     * PROGRESS Event of the long-running call, e.g. pulling an image
+     */
+    public static Event progress(Event call, Map<String, Object> details) {
+        return new Event(EventType.PROGRESS, call.getRoute(), null, null, null, call.getId(), null, null, call.getTraceId(), details);
+    }
+
 
     /**
      * Nested EventType enum
@@ -48,6 +116,7 @@ public class Event {
         CALL,
         FORWARD,
         SUCCESS,
-        ERROR
+        ERROR,
+        PROGRESS
     }
 }
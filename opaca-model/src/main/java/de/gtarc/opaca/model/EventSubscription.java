@@ -0,0 +1,37 @@
+package de.gtarc.opaca.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Filter for Events to receive via the "/subscribe" websocket. A client can send a list of those to subscribe
+ * to all Events matching any of them. All attributes are optional; those that are not set match any Event.
+ */
+@Data @AllArgsConstructor @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class EventSubscription {
+
+    /**
+     * pattern for the route of the Event, optionally starting with the HTTP method, e.g. "POST /containers"
+     * or "/invoke/*"; "*" matches a single path segment, "**" any number of segments, and the pattern also
+     * matches all routes below it
+     */
+    String route;
+
+    /** types of Events to receive */
+    List<Event.EventType> eventTypes;
+
+    /** ID of the AgentContainer or RuntimePlatform having sent the call */
+    String senderId;
+
+    /** ID of the AgentContainer the call was directed at */
+    String containerId;
+
+    /** name of the action being invoked */
+    String action;
+
+}
@@ -0,0 +1,31 @@
+package de.gtarc.opaca.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import java.util.Map;
+
+/**
+ * A single action invocation as part of a batch of invocations.
+ */
+@Data @AllArgsConstructor @NoArgsConstructor
+public class Invocation {
+
+    /** name of the action to invoke */
+    @NonNull
+    String action;
+
+    /** the parameters for the action */
+    @NonNull
+    Map<String, JsonNode> parameters = Map.of();
+
+    /** ID of the agent providing the action; optional, null for any agent */
+    String agentId;
+
+    /** ID of the container the agent is in; optional, null for any container */
+    String containerId;
+
+}
@@ -0,0 +1,31 @@
+package de.gtarc.opaca.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Result of a single action invocation as part of a batch of invocations. Either the result or
+ * the error is set, depending on whether the individual invocation was successful.
+ */
+@Data @AllArgsConstructor @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class InvocationResult {
+
+    /** the result of the action, if successful */
+    JsonNode result;
+
+    /** description of the error, if not successful */
+    ErrorResponse error;
+
+    public static InvocationResult success(JsonNode result) {
+        return new InvocationResult(result, null);
+    }
+
+    public static InvocationResult failure(ErrorResponse error) {
+        return new InvocationResult(null, error);
+    }
+
+}
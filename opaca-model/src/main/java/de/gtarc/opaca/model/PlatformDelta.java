@@ -0,0 +1,67 @@
+package de.gtarc.opaca.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes to the Runtime Platform's containers since a given revision, to be applied to a previously
+ * fetched {@link RuntimePlatform} instead of fetching the full platform info again.
+ */
+@Data @AllArgsConstructor @NoArgsConstructor
+public class PlatformDelta {
+
+    /** ID of the platform; if it differs from the previously fetched one, the platform was restarted */
+    @NonNull
+    String platformId;
+
+    /** the revision the changes are relative to */
+    long sinceRevision;
+
+    /** the current revision of the platform, to be used for the next request */
+    long revision;
+
+    /** if true, changes since the given revision are not known anymore, and "added" holds all containers */
+    boolean reset;
+
+    /** Agent Containers that were added since the given revision */
+    @NonNull
+    List<AgentContainer> added = List.of();
+
+    /** Agent Containers that were changed since the given revision */
+    @NonNull
+    List<AgentContainer> changed = List.of();
+
+    /** IDs of Agent Containers that were removed since the given revision */
+    @NonNull
+    List<String> removed = List.of();
+
+    /** current list of capabilities this platform provides */
+    @NonNull
+    List<String> provides = List.of();
+
+    /** current list of base URLs of other platforms this platform is connected with */
+    @NonNull
+    List<String> connections = List.of();
+
+    /**
+     * Apply the changes to the given previously fetched containers, returning the current containers.
+     * If the changes since the given revision were not known, the containers are replaced by those added.
+     */
+    public List<AgentContainer> applyTo(List<AgentContainer> previous) {
+        Map<String, AgentContainer> containers = new LinkedHashMap<>(); // keep order of containers
+        if (! reset) {
+            previous.forEach(c -> containers.put(c.getContainerId(), c));
+            removed.forEach(containers::remove);
+            changed.forEach(c -> containers.put(c.getContainerId(), c));
+        }
+        added.forEach(c -> containers.put(c.getContainerId(), c));
+        return List.copyOf(containers.values());
+    }
+
+}
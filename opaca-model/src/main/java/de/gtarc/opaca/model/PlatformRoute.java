@@ -0,0 +1,34 @@
+package de.gtarc.opaca.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+/**
+ * Route to another Runtime Platform that is reachable via a directly connected platform, as exchanged
+ * between connected platforms for forwarding calls to agents more than one hop away. The containers of
+ * the destination platform are not part of the route; they can be fetched from the next hop, and only
+ * have to be fetched again when the destination's revision changed.
+ */
+@Data @AllArgsConstructor @NoArgsConstructor
+public class PlatformRoute {
+
+    /** the base URL of the destination platform */
+    @NonNull
+    String platformUrl;
+
+    /** the base URL of the directly connected platform that is the next hop towards the destination */
+    @NonNull
+    String via;
+
+    /** number of hops to the destination, 1 being a directly connected platform */
+    int hops;
+
+    /** sum of the latencies measured along the route, in milliseconds */
+    long latency;
+
+    /** revision of the destination platform's state, as last known by the next hop */
+    long revision;
+
+}
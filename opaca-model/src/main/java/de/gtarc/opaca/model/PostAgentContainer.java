@@ -1,5 +1,6 @@
 package de.gtarc.opaca.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import lombok.AllArgsConstructor;
@@ -45,6 +46,9 @@ public class PostAgentContainer {
     })
     public interface ClientConfig {
         ContainerEnvironment getType();
+
+        /** resources overriding those declared by the image, attribute by attribute */
+        ResourceRequirements getResources();
     }
 
     @Data @AllArgsConstructor @NoArgsConstructor
@@ -52,7 +56,9 @@ public class PostAgentContainer {
 
         ContainerEnvironment type = ContainerEnvironment.DOCKER;
 
-        // nothing here yet, but e.g. gpu-support would be nice
+        ResourceRequirements resources;
+
+        // nothing else here yet, but e.g. gpu-support would be nice
     }
 
     @Data @AllArgsConstructor @NoArgsConstructor
@@ -63,6 +69,22 @@ public class PostAgentContainer {
         String nodeName;
 
         Boolean hostNetwork;
+
+        ResourceRequirements resources;
+
+        /** labels a node must have for the pod to be scheduled on it */
+        Map<String, String> nodeSelector;
+
+        /** labels of nodes to prefer for scheduling the pod, if any such node is available */
+        Map<String, String> preferredNodeLabels;
+    }
+
+    /**
+     * Get the resources of the container, i.e. those declared by the image, overridden by the client config.
+     */
+    @JsonIgnore
+    public ResourceRequirements getEffectiveResources() {
+        return ResourceRequirements.merge(image.getResources(), clientConfig != null ? clientConfig.getResources() : null);
     }
 
 }
@@ -0,0 +1,45 @@
+package de.gtarc.opaca.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * CPU and memory to reserve for and limit an Agent Container to, as declared by the image or requested
+ * when posting the container. Attributes that are not set are not reserved or limited.
+ */
+@Data @AllArgsConstructor @NoArgsConstructor
+public class ResourceRequirements {
+
+    /** number of CPU cores reserved for the container, e.g. 0.5; also counted against the platform's capacity */
+    Double cpuRequest;
+
+    /** maximum number of CPU cores the container may use */
+    Double cpuLimit;
+
+    /** memory reserved for the container, in MB; also counted against the platform's capacity */
+    Long memoryRequestMb;
+
+    /** maximum memory the container may use, in MB */
+    Long memoryLimitMb;
+
+    /** CPUs the container is pinned to, e.g. "0-1" or "0,2"; only supported by Docker */
+    String cpuSet;
+
+    /**
+     * Combine the defaults, e.g. from the image, with the overrides, e.g. from the client config,
+     * attribute by attribute. Either may be null.
+     */
+    public static ResourceRequirements merge(ResourceRequirements defaults, ResourceRequirements overrides) {
+        if (defaults == null) return overrides;
+        if (overrides == null) return defaults;
+        return new ResourceRequirements(
+                overrides.cpuRequest != null ? overrides.cpuRequest : defaults.cpuRequest,
+                overrides.cpuLimit != null ? overrides.cpuLimit : defaults.cpuLimit,
+                overrides.memoryRequestMb != null ? overrides.memoryRequestMb : defaults.memoryRequestMb,
+                overrides.memoryLimitMb != null ? overrides.memoryLimitMb : defaults.memoryLimitMb,
+                overrides.cpuSet != null ? overrides.cpuSet : defaults.cpuSet
+        );
+    }
+
+}
@@ -0,0 +1,71 @@
+package de.gtarc.opaca.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+import java.util.Map;
+
+/**
+ * Single frame of a remote procedure call between connected Runtime Platforms, sent over the websocket
+ * connection of the "/subscribe" endpoint. A request is answered with either a result or an error, or,
+ * for streams, a number of chunks followed by an end frame, all with the same ID as the request.
+ */
+@Data @AllArgsConstructor @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RpcFrame {
+
+    /** ID of the call, chosen by the caller and unique among its in-flight calls */
+    @NonNull
+    String id;
+
+    /** the type of this frame */
+    @NonNull
+    FrameType frameType;
+
+    /** for requests: name of the API method to call, e.g. "invoke" or "send" */
+    String method;
+
+    /** for requests: the method's arguments, by name */
+    Map<String, JsonNode> params;
+
+    /** for requests: additional headers, as they would be sent with the respective HTTP request */
+    Map<String, String> headers;
+
+    /** for results: the result of the call, if any */
+    JsonNode result;
+
+    /** for errors: the error that occurred during the call */
+    ErrorResponse error;
+
+    /** for chunks: the next part of the stream */
+    byte[] data;
+
+    public enum FrameType {
+        REQUEST, RESULT, ERROR, CHUNK, END
+    }
+
+    public static RpcFrame request(String id, String method, Map<String, JsonNode> params, Map<String, String> headers) {
+        return new RpcFrame(id, FrameType.REQUEST, method, params, headers, null, null, null);
+    }
+
+    public static RpcFrame result(String id, JsonNode result) {
+        return new RpcFrame(id, FrameType.RESULT, null, null, null, result, null, null);
+    }
+
+    public static RpcFrame error(String id, ErrorResponse error) {
+        return new RpcFrame(id, FrameType.ERROR, null, null, null, null, error, null);
+    }
+
+    public static RpcFrame chunk(String id, byte[] data) {
+        return new RpcFrame(id, FrameType.CHUNK, null, null, null, null, null, data);
+    }
+
+    public static RpcFrame end(String id) {
+        return new RpcFrame(id, FrameType.END, null, null, null, null, null, null);
+    }
+
+}
@@ -40,4 +40,7 @@ public class RuntimePlatform {
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "Z")
     ZonedDateTime runningSince;
 
+    /** revision of the platform's state, increased with each change to its containers or connections */
+    long revision = 0;
+
 }
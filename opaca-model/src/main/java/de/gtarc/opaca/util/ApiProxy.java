@@ -8,6 +8,8 @@ import de.gtarc.opaca.model.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +38,11 @@ public class ApiProxy implements RuntimePlatformApi, AgentContainerApi {
         return this;
     }
 
+    public ApiProxy withEncoding(RestHelper.Encoding encoding) {
+        this.client.encoding = encoding;
+        return this;
+    }
+
     public ApiProxy withExtraHeaders(Map<String, String> headers) {
         this.client.extraHeaders = headers;
         return this;
@@ -48,6 +55,22 @@ public class ApiProxy implements RuntimePlatformApi, AgentContainerApi {
         return client.get("/info", RuntimePlatform.class);
     }
 
+    @Override
+    public PlatformDelta getPlatformInfoDelta(long sinceRevision) throws IOException {
+        return client.get("/info?sinceRevision=" + sinceRevision, PlatformDelta.class);
+    }
+
+    @Override
+    public PlatformDelta getPlatformInfoDelta(long sinceRevision, String platformUrl) throws IOException {
+        return client.get(String.format("/info?sinceRevision=%s&platformUrl=%s", sinceRevision,
+                URLEncoder.encode(platformUrl, StandardCharsets.UTF_8)), PlatformDelta.class);
+    }
+
+    @Override
+    public List<PlatformRoute> getRoutes() throws IOException {
+        return client.get("/routes", new TypeReference<>(){});
+    }
+
     @Override
     public List<AgentDescription> getAllAgents() throws IOException {
         return client.get("/agents?includeConnected=true", new TypeReference<>(){});
@@ -58,11 +81,28 @@ public class ApiProxy implements RuntimePlatformApi, AgentContainerApi {
         return client.get("/config", new TypeReference<>(){});
     }
 
+    @Override
+    public Map<String, ?> getPlatformStatistics() throws IOException {
+        return client.get("/stats", new TypeReference<>(){});
+    }
+
     @Override
     public List<Event> getHistory() throws IOException {
         return client.get("/history", new TypeReference<>(){});
     }
 
+    @Override
+    public List<Event> getHistory(Long from, Long to, Long since, String route, Event.EventType eventType, Integer limit) throws IOException {
+        Map<String, Object> params = new HashMap<>(); // Map.of does not work with nullable values
+        params.put("from", from);
+        params.put("to", to);
+        params.put("since", since);
+        params.put("route", route != null ? URLEncoder.encode(route, StandardCharsets.UTF_8) : null);
+        params.put("eventType", eventType);
+        params.put("limit", limit);
+        return client.get("/history?" + buildQuery(params), new TypeReference<>(){});
+    }
+
     @Override
     public AgentContainer getContainerInfo() throws IOException {
         return client.get("/info", AgentContainer.class);
@@ -120,21 +160,40 @@ public class ApiProxy implements RuntimePlatformApi, AgentContainerApi {
     @Override
     public void send(String agentId, Message message, String containerId, boolean forward) throws IOException {
         var path = String.format("/send/%s?%s", agentId, buildQuery(containerId, forward, null));
-        client.post(path, message, null);
+        client.request("POST", path, message);
     }
 
     @Override
     public void broadcast(String channel, Message message, String containerId, boolean forward) throws IOException {
         var path = String.format("/broadcast/%s?%s", channel, buildQuery(containerId, forward, null));
-        client.post(path, message, null);
+        client.request("POST", path, message);
+    }
+
+    @Override
+    public void sendBatch(List<AddressedMessage> messages) throws IOException {
+        client.request("POST", "/send", messages);
     }
 
     @Override
     public JsonNode invoke(String action, Map<String, JsonNode> parameters, String agentId, int timeout, String containerId, boolean forward) throws IOException {
+        return invoke(action, parameters, agentId, timeout, containerId, forward, JsonNode.class);
+    }
+
+    /**
+     * Variant of invoke that reads the result directly into the given type, and that accepts parameters of
+     * any type serializable to JSON, without converting them to (and the result from) JsonNode first.
+     */
+    public <T> T invoke(String action, Map<String, ?> parameters, String agentId, int timeout, String containerId, boolean forward, Class<T> type) throws IOException {
         var path = agentId == null
                 ? String.format("/invoke/%s?%s", action, buildQuery(containerId, forward, timeout))
                 : String.format("/invoke/%s/%s?%s", action, agentId, buildQuery(containerId, forward, timeout));
-        return client.post(path, parameters, JsonNode.class);
+        return client.post(path, parameters, type);
+    }
+
+    @Override
+    public List<InvocationResult> invokeBatch(List<Invocation> invocations, int timeout, boolean forward) throws IOException {
+        var path = String.format("/invoke?%s", buildQuery(null, forward, timeout));
+        return client.post(path, invocations, new TypeReference<>(){});
     }
 
     @Override
@@ -0,0 +1,69 @@
+package de.gtarc.opaca.util;
+
+import de.gtarc.opaca.model.Event;
+
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+/**
+ * The CALL Event of the request currently handled by a thread, if any, kept in a thread-local like the
+ * {@link TraceContext}, so that requests forwarding the call can create FORWARD Events related to it. Those
+ * are passed to the publisher, e.g. the Runtime Platform's event recorder; if none is set, e.g. in an Agent
+ * Container, no FORWARD Events are created.
+ */
+public class CallContext {
+
+    private static final ThreadLocal<Event> CURRENT = new ThreadLocal<>();
+
+    private static volatile Consumer<Event> publisher = null;
+
+    private CallContext() {
+    }
+
+    /**
+     * Get the CALL Event of the request currently handled by this thread, or null if none.
+     */
+    public static Event current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Set the CALL Event of the request currently handled by this thread, or remove it if null.
+     */
+    public static void setCurrent(Event call) {
+        if (call != null) {
+            CURRENT.set(call);
+        } else {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Execute the call with the given CALL Event as current one, e.g. in a thread other than the one
+     * handling the request.
+     */
+    public static <T> T callWith(Event callEvent, Callable<T> call) throws Exception {
+        var previous = CURRENT.get();
+        setCurrent(callEvent);
+        try {
+            return call.call();
+        } finally {
+            setCurrent(previous);
+        }
+    }
+
+    public static void setPublisher(Consumer<Event> publisher) {
+        CallContext.publisher = publisher;
+    }
+
+    /**
+     * Pass the Event to the publisher, if any.
+     */
+    public static void publish(Event event) {
+        var current = publisher;
+        if (current != null) {
+            current.accept(event);
+        }
+    }
+
+}
@@ -1,12 +1,15 @@
 package de.gtarc.opaca.util;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Deque;
 import java.util.List;
 import de.gtarc.opaca.model.Event;
 
 /**
- * This class provides the Event History.
+ * This class provides the Event History. Each Event added to the history is assigned a sequence number,
+ * so that clients can ask for the Events since the last one they have seen.
  */
 public class EventHistory {
  
@@ -15,7 +18,9 @@ public class EventHistory {
 
     private static final EventHistory INSTANCE = new EventHistory();
     
-    private final List<Event> events = Collections.synchronizedList(new LinkedList<>());
+    // guarded by synchronized(this)
+    private final Deque<Event> events = new ArrayDeque<>();
+    private long lastSequence = 0;
 
     private EventHistory() {
     }
@@ -24,18 +29,45 @@ public class EventHistory {
         return INSTANCE;
     }
 
-    public void addEvent(Event entry) {
+    public synchronized void addEvent(Event entry) {
         if (entry != null) {
-            events.add(entry);
+            entry.setSequence(++lastSequence);
+            events.addLast(entry);
             while (maxSize >= 0 && events.size() > maxSize) {
-                events.remove(0);
+                events.removeFirst();
             }
         }
     }
 
-    public List<Event> getEvents() {
+    public synchronized List<Event> getEvents() {
         return List.copyOf(events);
     }
+
+    /**
+     * Get the Events still in the history with a sequence number greater than the given one, in order.
+     */
+    public synchronized List<Event> getEventsSince(long sequence) {
+        List<Event> res = new ArrayList<>();
+        var it = events.descendingIterator();
+        while (it.hasNext()) {
+            var event = it.next();
+            if (event.getSequence() <= sequence) break;
+            res.add(event);
+        }
+        Collections.reverse(res);
+        return res;
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Continue numbering Events after the given sequence number, e.g. after those in a persistent log.
+     */
+    public synchronized void continueAfter(long sequence) {
+        lastSequence = Math.max(lastSequence, sequence);
+    }
 }
 
 
@@ -0,0 +1,209 @@
+package de.gtarc.opaca.util;
+
+import de.gtarc.opaca.util.WebSocketConnector.MessageListener;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.net.http.WebSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subscription to a Runtime Platform's "/subscribe" websocket that keeps track of the sequence number of the
+ * last Event received. If the connection is lost, it reconnects with exponential backoff and resumes from
+ * that Event, so that the platform first sends all Events missed in the meantime, as far as they are still
+ * in its history.
+ */
+@Log
+public class EventSubscriber implements WebSocket.Listener {
+
+    private static final long INITIAL_RECONNECT_DELAY_MS = 1000;
+    private static final long MAX_RECONNECT_DELAY_MS = 60000;
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "event-subscriber");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String runtimePlatformUrl;
+    private final String token;
+    private final String topic;
+    private final MessageListener eventListener;
+
+    /** called after the connection has been re-established, e.g. to check for changes missed anyway */
+    @Setter
+    private Runnable onReconnect = null;
+
+    @Getter
+    private volatile WebSocket webSocket;
+
+    /** sequence number of the last Event received, or -1 if none, in which case the Events are not resumed */
+    @Getter
+    private volatile long lastSequence = -1;
+
+    /** whether no Event has been received yet on the current connection */
+    private volatile boolean firstEvent = true;
+
+    private volatile boolean closed = false;
+
+    /** number of reconnect attempts since the connection was lost, for the backoff */
+    private int attempts = 0;
+
+    private boolean connectedBefore = false;
+
+    /** parts of the current incomplete text message */
+    private final StringBuilder partialMessage = new StringBuilder();
+
+    /** the websocket can only send one message at a time */
+    private CompletableFuture<WebSocket> lastSend = CompletableFuture.completedFuture(null);
+
+    public EventSubscriber(String runtimePlatformUrl, String token, String topic, MessageListener eventListener) {
+        this.runtimePlatformUrl = runtimePlatformUrl;
+        this.token = token;
+        this.topic = topic;
+        this.eventListener = eventListener;
+    }
+
+    /**
+     * Resume from the Event with the given sequence number when connecting, instead of receiving only new Events.
+     */
+    public EventSubscriber resumeFrom(long sequence) {
+        this.lastSequence = sequence;
+        return this;
+    }
+
+    /**
+     * Connect to the platform. If this fails, no further attempts are made; if the connection is lost
+     * later, it is re-established automatically until the subscriber is closed.
+     */
+    public CompletableFuture<WebSocket> connect() {
+        return WebSocketConnector.connect(runtimePlatformUrl, token, lastSequence, this);
+    }
+
+    public boolean isConnected() {
+        return webSocket != null && ! webSocket.isOutputClosed() && ! webSocket.isInputClosed();
+    }
+
+    public void close() {
+        closed = true;
+        if (webSocket != null) {
+            webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "disconnected");
+        }
+    }
+
+    // WEBSOCKET LISTENER
+
+    @Override
+    public void onOpen(WebSocket webSocket) {
+        this.webSocket = webSocket;
+        partialMessage.setLength(0);
+        firstEvent = true;
+        boolean reconnected;
+        synchronized (this) {
+            reconnected = connectedBefore;
+            connectedBefore = true;
+            attempts = 0;
+        }
+        onConnected();
+        if (reconnected) {
+            log.info("Reconnected to " + runtimePlatformUrl);
+            if (onReconnect != null) onReconnect.run();
+        }
+        WebSocket.Listener.super.onOpen(webSocket);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        partialMessage.append(data);
+        if (last) {
+            var message = partialMessage.toString();
+            partialMessage.setLength(0);
+            handleMessage(message);
+        }
+        return WebSocket.Listener.super.onText(webSocket, data, last);
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        onDisconnected("Websocket connection closed: " + reason);
+        scheduleReconnect();
+        return WebSocket.Listener.super.onClose(webSocket, statusCode, reason);
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        onDisconnected("Websocket connection failed: " + error.getMessage());
+        scheduleReconnect();
+    }
+
+    // HOOKS FOR SUBCLASSES
+
+    /**
+     * Called when the connection is established, subscribing to the topic.
+     */
+    protected void onConnected() {
+        sendText(topic);
+    }
+
+    /**
+     * Called for each complete text message received.
+     */
+    protected void handleMessage(String message) {
+        onEvent(message);
+    }
+
+    /**
+     * Called when the connection has been closed or failed.
+     */
+    protected void onDisconnected(String reason) {
+    }
+
+    /**
+     * Pass the Event on to the listener, keeping track of its sequence number. The first Event after connecting
+     * may have a lower sequence number than the last one received before, if the platform has been restarted
+     * in the meantime, so its sequence number is taken as it is.
+     */
+    protected void onEvent(String message) {
+        try {
+            var sequence = RestHelper.mapper.readTree(message).get("sequence");
+            if (sequence != null && sequence.isNumber()) {
+                lastSequence = firstEvent ? sequence.asLong() : Math.max(lastSequence, sequence.asLong());
+                firstEvent = false;
+            }
+        } catch (IOException e) {
+            // not an Event, pass on anyway
+        }
+        eventListener.onMessage(message);
+    }
+
+    protected synchronized CompletableFuture<WebSocket> sendText(String text) {
+        lastSend = lastSend.exceptionally(e -> null).thenCompose(ws -> webSocket.sendText(text, true));
+        return lastSend;
+    }
+
+    // HELPER METHODS
+
+    private void scheduleReconnect() {
+        if (closed) return;
+        long delay;
+        synchronized (this) {
+            delay = Math.min(MAX_RECONNECT_DELAY_MS, INITIAL_RECONNECT_DELAY_MS << Math.min(attempts, 16));
+            attempts++;
+        }
+        log.info(String.format("Reconnecting to %s in %d ms", runtimePlatformUrl, delay));
+        scheduler.schedule(() -> {
+            if (closed) return;
+            connect().exceptionally(e -> {
+                scheduleReconnect();
+                return null;
+            });
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -1,10 +1,11 @@
 package de.gtarc.opaca.util;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import de.gtarc.opaca.model.ErrorResponse;
 import de.gtarc.opaca.model.Event;
 import lombok.*;
@@ -28,9 +29,12 @@ import java.util.stream.Collectors;
 public class RestHelper {
 
     public enum Encoding {
-        JSON, URLENCODED
+        JSON, URLENCODED, CBOR
     }
 
+    /** content type of the binary CBOR encoding, used in Content-Type and Accept headers */
+    public static final String CBOR_CONTENT_TYPE = "application/cbor";
+
     public final String baseUrl;
 
     public String senderId = null;
@@ -47,30 +51,39 @@ public class RestHelper {
     public static final ObjectMapper mapper = JsonMapper.builder()
             .findAndAddModules().build();
 
+    /** mapper for the binary CBOR encoding, configured the same as the JSON mapper */
+    public static final ObjectMapper cborMapper = CBORMapper.builder()
+            .findAndAddModules().build();
+
 
     public <T> T get(String path, Class<T> type) throws IOException {
-        var stream = request("GET", path, null);
-        return type == null ? null : mapper.readValue(stream, type);
+        var connection = execute("GET", path, null, null);
+        return type == null ? null : readResponse(connection, mapper.constructType(type));
     }
 
     public <T> T get(String path, TypeReference<T> type) throws IOException {
-        var stream = request("GET", path, null);
-        return type == null ? null : mapper.readValue(stream, type);
+        var connection = execute("GET", path, null, null);
+        return type == null ? null : readResponse(connection, mapper.getTypeFactory().constructType(type));
     }
 
     public <T> T post(String path, Object payload, Class<T> type) throws IOException {
-        var stream = request("POST", path, payload);
-        return type == null ? null : mapper.readValue(stream, type);
+        var connection = execute("POST", path, null, payload);
+        return type == null ? null : readResponse(connection, mapper.constructType(type));
+    }
+
+    public <T> T post(String path, Object payload, TypeReference<T> type) throws IOException {
+        var connection = execute("POST", path, null, payload);
+        return type == null ? null : readResponse(connection, mapper.getTypeFactory().constructType(type));
     }
 
     public <T> T put(String path, Object payload, Class<T> type) throws IOException {
-        var stream = request("PUT", path, payload);
-        return type == null ? null : mapper.readValue(stream, type);
+        var connection = execute("PUT", path, null, payload);
+        return type == null ? null : readResponse(connection, mapper.constructType(type));
     }
 
     public <T> T delete(String path, Object payload, Class<T> type) throws IOException {
-        var stream = request("DELETE", path, payload);
-        return type == null ? null : mapper.readValue(stream, type);
+        var connection = execute("DELETE", path, null, payload);
+        return type == null ? null : readResponse(connection, mapper.constructType(type));
     }
 
     public void postStream(String path, byte[] inputStream) {
@@ -89,64 +102,89 @@ public class RestHelper {
      *      have an additional layer of try/catch? check what of that's really necessary.
      */
     public void streamRequest(String method, String path, byte[] payload) throws IOException {
-        var connection = createConnection(method, path, null);
+        try (var span = startSpan(method, path)) {
+            var connection = createConnection(method, path, null);
 
-        connection.setDoOutput(true);
-        connection.connect();
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(payload.length);
+            connection.connect();
 
-        createForwardEvent(method, path);
+            createForwardEvent(method, path);
 
-        try (OutputStream os = connection.getOutputStream();
-            InputStream inputStream = new ByteArrayInputStream(payload);
-            BufferedInputStream bis = new BufferedInputStream(inputStream)) {
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = bis.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
+            // write bytes directly, without copying them to another buffer first
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write(payload);
+            } finally {
+                connection.disconnect();
             }
-        } finally {
-            connection.disconnect();
-        }
 
-        if (connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
-            throw makeException(connection);
+            span.attribute("http.status_code", connection.getResponseCode());
+            if (connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                span.setError("HTTP " + connection.getResponseCode());
+                throw makeException(connection);
+            }
         }
     }
 
     public InputStream request(String method, String path, List<HttpCookie> cookies, Object payload) throws IOException {
-        log.fine(String.format("%s %s%s (%s)", method, baseUrl, path, payload));
-        var connection = createConnection(method, path, cookies);
+        return execute(method, path, cookies, payload).getInputStream();
+    }
 
-        try {
-            if (payload != null) {
-                String content = (payload instanceof String)
-                        ? (String) payload
-                        : mapper.writeValueAsString(payload);
-                byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
-                connection.setDoOutput(true);
-                connection.setFixedLengthStreamingMode(bytes.length);
-                connection.connect();
-                try (OutputStream os = connection.getOutputStream()) {
-                    os.write(bytes);
+    public InputStream request(String method, String path, Object payload) throws IOException {
+        return request(method, path, null, payload);
+    }
+
+    /**
+     * Send the request and return the connection for reading the response, if successful.
+     */
+    private HttpURLConnection execute(String method, String path, List<HttpCookie> cookies, Object payload) throws IOException {
+        log.fine(String.format("%s %s%s (%s)", method, baseUrl, path, payload));
+        try (var span = startSpan(method, path)) {
+            var connection = createConnection(method, path, cookies);
+
+            try {
+                if (payload instanceof String content) {
+                    // pre-formatted payload, e.g. urlencoded, length is known
+                    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+                    connection.setDoOutput(true);
+                    connection.setFixedLengthStreamingMode(bytes.length);
+                    connection.connect();
+                    try (OutputStream os = connection.getOutputStream()) {
+                        os.write(bytes);
+                    }
+                } else if (payload != null) {
+                    // payload is serialized directly to the output stream, length not known in advance
+                    connection.setDoOutput(true);
+                    connection.setChunkedStreamingMode(0);
+                    connection.connect();
+                    try (OutputStream os = connection.getOutputStream()) {
+                        (encoding == Encoding.CBOR ? cborMapper : mapper).writeValue(os, payload);
+                    }
+                } else {
+                    connection.connect();
                 }
-            } else {
-                connection.connect();
-            }
-            
-            createForwardEvent(method, path);
 
-            if (connection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST) {
-                return connection.getInputStream();
-            } else {
+                createForwardEvent(method, path);
+
+                span.attribute("http.status_code", connection.getResponseCode());
+                if (connection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST) {
+                    return connection;
+                } else {
+                    span.setError("HTTP " + connection.getResponseCode());
+                    throw makeException(connection);
+                }
+            } catch (SocketTimeoutException e) {
+                span.setError("timeout");
                 throw makeException(connection);
             }
-        } catch (SocketTimeoutException e) {
-            throw makeException(connection);
         }
     }
 
-    public InputStream request(String method, String path, Object payload) throws IOException {
-        return request(method, path, null, payload);
+    /**
+     * Read typed response, using the mapper matching the content type of the response.
+     */
+    private <T> T readResponse(HttpURLConnection connection, JavaType type) throws IOException {
+        return mapperFor(connection.getContentType()).readValue(connection.getInputStream(), type);
     }
 
     /**
@@ -156,6 +194,10 @@ public class RestHelper {
         HttpURLConnection connection = (HttpURLConnection) URI.create(baseUrl + path).toURL().openConnection();
         connection.setRequestMethod(method);
         connection.setRequestProperty("Content-Type", getContentType());
+        if (encoding == Encoding.CBOR) {
+            // also accept JSON, in case the other side does not support CBOR
+            connection.setRequestProperty("Accept", CBOR_CONTENT_TYPE + ", application/json;q=0.9");
+        }
 
         if (senderId != null && ! senderId.isEmpty()) {
             connection.setRequestProperty(Event.HEADER_SENDER_ID, senderId);
@@ -166,6 +208,10 @@ public class RestHelper {
         for (String key : extraHeaders.keySet()) {
             connection.setRequestProperty(key, extraHeaders.get(key));
         }
+        var trace = TraceContext.current();
+        if (trace != null) {
+            connection.setRequestProperty(TraceContext.HEADER, trace.format());
+        }
         if (timeout != null && timeout > 0) {
             connection.setConnectTimeout(timeout);
         }
@@ -192,23 +238,38 @@ public class RestHelper {
         return mapper.readValue(json, type);
     }
 
+    public static <T> T readObject(String json, TypeReference<T> type) throws IOException {
+        return mapper.readValue(json, type);
+    }
+
     public static String writeJson(Object obj) throws IOException {
         return mapper.writeValueAsString(obj);
     }
 
-    public String readStream(InputStream stream) {
-        return stream == null ? null : new BufferedReader(new InputStreamReader(stream))
-                .lines().collect(Collectors.joining("\n"));
+    /**
+     * Get the mapper to use for the given content type, i.e. the CBOR mapper for CBOR, otherwise the JSON mapper.
+     */
+    public static ObjectMapper mapperFor(String contentType) {
+        return contentType != null && contentType.startsWith(CBOR_CONTENT_TYPE) ? cborMapper : mapper;
+    }
+
+    public String readStream(InputStream stream) throws IOException {
+        if (stream == null) return null;
+        try (stream) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
     }
 
     protected IOException makeException(HttpURLConnection connection) throws IOException {
         var message = "Encountered an error when sending request to " + baseUrl;
-        var response = readStream(connection.getErrorStream());
+        var errorStream = connection.getErrorStream();
+        var response = errorStream != null ? errorStream.readAllBytes() : new byte[0];
         try {
-            var nestedError = mapper.readValue(response, ErrorResponse.class);
+            var nestedError = mapperFor(connection.getContentType()).readValue(response, ErrorResponse.class);
             return new RequestException(message, nestedError);
-        } catch (IllegalArgumentException | JsonProcessingException e) {
-            var nestedError = new ErrorResponse(connection.getResponseCode(), response, null);
+        } catch (IllegalArgumentException | IOException e) {
+            var text = response.length > 0 ? new String(response, StandardCharsets.UTF_8) : null;
+            var nestedError = new ErrorResponse(connection.getResponseCode(), text, null);
             return new RequestException(message, nestedError);
         }
     }
@@ -225,17 +286,22 @@ public class RestHelper {
     }
 
     /**
-     * Get the latest CALL Event with same method and add FORWARD event related to that, if any.
-     * This does nothing if the Event History is empty, e.g. in the AgentContainer.
+     * Start a span for sending the request, as child of the current span, if any.
+     */
+    private Span startSpan(String method, String path) {
+        return Span.start(method + " " + path.split("\\?")[0], Span.Kind.CLIENT)
+                .attribute("http.url", baseUrl + path);
+    }
+
+    /**
+     * If the thread is handling a CALL with the same method and route, publish a FORWARD Event related to it.
+     * This does nothing if no publisher is set for the call context, e.g. in the AgentContainer.
      */
     private void createForwardEvent(String method, String path) {
         var key = String.format("%s %s", method, path.split("\\?")[0]); // part before the query
-        Optional<Event> related = EventHistory.getInstance().getEvents().stream()
-                .filter(x -> x.getEventType() == Event.EventType.CALL && x.getRoute().equals(key))
-                .max(Comparator.comparing(Event::getTimestamp));
-        if (related.isPresent()) {
-            Event event = new Event(Event.EventType.FORWARD, null, null, baseUrl, null, related.get().getId());
-            EventHistory.getInstance().addEvent(event);
+        var call = CallContext.current();
+        if (call != null && key.equals(call.getRoute())) {
+            CallContext.publish(Event.forward(call, baseUrl));
         }
     }
 
@@ -243,6 +309,7 @@ public class RestHelper {
         return switch (this.encoding) {
             case JSON -> "application/json; charset=UTF-8";
             case URLENCODED -> "application/x-www-form-urlencoded; charset=UTF-8";
+            case CBOR -> CBOR_CONTENT_TYPE;
         };
     }
 
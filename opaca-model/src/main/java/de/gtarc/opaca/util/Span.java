@@ -0,0 +1,131 @@
+package de.gtarc.opaca.util;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed operation within a trace, e.g. handling a request, sending a request, or executing an action.
+ * Spans started with {@link #start} become the thread's current span until closed, so that spans and
+ * requests started in the meantime are part of them; detached spans are ended by whichever thread
+ * completes the operation. Ended spans are passed to the {@link Tracer} for exporting.
+ *
+ * <pre>
+ * try (var span = Span.start("routing", Span.Kind.INTERNAL)) {
+ *     ...
+ * }
+ * </pre>
+ */
+@Getter
+public class Span implements AutoCloseable {
+
+    public enum Kind {
+        INTERNAL, SERVER, CLIENT
+    }
+
+    /** offset for converting the monotonic nano time to nanoseconds since the epoch */
+    private static final long EPOCH_OFFSET_NANOS = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+
+    private final String name;
+    private final Kind kind;
+    private final TraceContext context;
+    private final String parentSpanId;
+    private final long startNanos;
+    private final Map<String, Object> attributes = new LinkedHashMap<>();
+
+    /** end time, or 0 if not ended yet */
+    private volatile long endNanos = 0;
+
+    /** error message, if the operation failed */
+    private String error = null;
+
+    /** the thread's previous context, to be restored when closing, or null for a detached span */
+    @Getter(AccessLevel.NONE)
+    private final TraceContext previous;
+    @Getter(AccessLevel.NONE)
+    private final boolean scoped;
+
+    private Span(String name, Kind kind, TraceContext parent, boolean scoped) {
+        this.name = name;
+        this.kind = kind;
+        this.context = parent != null ? parent.newChild() : TraceContext.newRoot();
+        this.parentSpanId = parent != null ? parent.getSpanId() : null;
+        this.startNanos = System.nanoTime();
+        this.scoped = scoped;
+        this.previous = scoped ? TraceContext.current() : null;
+        if (scoped) {
+            TraceContext.setCurrent(context);
+        }
+    }
+
+    /**
+     * Start a span as child of the thread's current span, or as a new trace, and make it the current span.
+     */
+    public static Span start(String name, Kind kind) {
+        return new Span(name, kind, TraceContext.current(), true);
+    }
+
+    /**
+     * Start a span as child of the given context, e.g. received from a caller, or as a new trace if the
+     * context is null, and make it the current span.
+     */
+    public static Span start(String name, Kind kind, TraceContext parent) {
+        return new Span(name, kind, parent, true);
+    }
+
+    /**
+     * Start a span as child of the given context, or as a new trace, without making it the current span.
+     */
+    public static Span detached(String name, Kind kind, TraceContext parent) {
+        return new Span(name, kind, parent, false);
+    }
+
+    public synchronized Span attribute(String key, Object value) {
+        if (value != null) {
+            attributes.put(key, value);
+        }
+        return this;
+    }
+
+    public synchronized Span setError(String message) {
+        this.error = message != null ? message : "error";
+        return this;
+    }
+
+    public long getStartEpochNanos() {
+        return EPOCH_OFFSET_NANOS + startNanos;
+    }
+
+    public long getEndEpochNanos() {
+        return EPOCH_OFFSET_NANOS + endNanos;
+    }
+
+    public long getDurationNanos() {
+        return endNanos > 0 ? endNanos - startNanos : System.nanoTime() - startNanos;
+    }
+
+    /**
+     * End the span and pass it on for exporting; has no effect if already ended.
+     */
+    public void end() {
+        synchronized (this) {
+            if (endNanos > 0) return;
+            endNanos = System.nanoTime();
+        }
+        Tracer.getInstance().export(this);
+    }
+
+    /**
+     * End the span and, if it is still the current span, restore the previous one.
+     */
+    @Override
+    public void close() {
+        end();
+        if (scoped && TraceContext.current() == context) {
+            TraceContext.setCurrent(previous);
+        }
+    }
+
+}
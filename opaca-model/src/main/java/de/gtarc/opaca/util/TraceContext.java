@@ -0,0 +1,112 @@
+package de.gtarc.opaca.util;
+
+import lombok.Getter;
+
+import java.util.HexFormat;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Identifies a span within a trace, as propagated between platforms and containers in the W3C
+ * {@code traceparent} header, i.e. {@code 00-<32 hex trace ID>-<16 hex span ID>-<2 hex flags>}.
+ * The context of the span currently being executed by a thread, if any, is kept in a thread-local.
+ */
+@Getter
+public class TraceContext {
+
+    /** HTTP header for propagating the trace context */
+    public static final String HEADER = "traceparent";
+
+    private static final Pattern FORMAT = Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})");
+
+    private static final String INVALID_TRACE_ID = "0".repeat(32);
+    private static final String INVALID_SPAN_ID = "0".repeat(16);
+
+    private static final ThreadLocal<TraceContext> CURRENT = new ThreadLocal<>();
+
+    private final String traceId;
+    private final String spanId;
+    private final boolean sampled;
+
+    private TraceContext(String traceId, String spanId, boolean sampled) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.sampled = sampled;
+    }
+
+    /**
+     * Parse the value of a traceparent header, returning null if it is missing or invalid.
+     */
+    public static TraceContext parse(String header) {
+        if (header == null) return null;
+        var matcher = FORMAT.matcher(header.trim());
+        if (! matcher.matches() || matcher.group(1).equals(INVALID_TRACE_ID) || matcher.group(2).equals(INVALID_SPAN_ID)) {
+            return null;
+        }
+        var flags = Integer.parseInt(matcher.group(3), 16);
+        return new TraceContext(matcher.group(1), matcher.group(2), (flags & 1) != 0);
+    }
+
+    /**
+     * Create the context of the first span of a new trace.
+     */
+    public static TraceContext newRoot() {
+        var random = ThreadLocalRandom.current();
+        var traceId = HexFormat.of().toHexDigits(random.nextLong()) + HexFormat.of().toHexDigits(random.nextLong() | 1);
+        return new TraceContext(traceId, newSpanId(), true);
+    }
+
+    /**
+     * Create the context of a new span in the same trace, e.g. of a child of this span.
+     */
+    public TraceContext newChild() {
+        return new TraceContext(traceId, newSpanId(), sampled);
+    }
+
+    /**
+     * Format as value of the traceparent header.
+     */
+    public String format() {
+        return "00-" + traceId + "-" + spanId + (sampled ? "-01" : "-00");
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+
+    /**
+     * Get the context of the span currently executed by this thread, or null if none.
+     */
+    public static TraceContext current() {
+        return CURRENT.get();
+    }
+
+    static void setCurrent(TraceContext context) {
+        if (context != null) {
+            CURRENT.set(context);
+        } else {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Execute the call with the given context as current context, e.g. in a thread other than the one
+     * that received the context, so that spans created and requests sent by the call are part of it.
+     */
+    public static <T> T callWith(TraceContext context, Callable<T> call) throws Exception {
+        var previous = CURRENT.get();
+        setCurrent(context);
+        try {
+            return call.call();
+        } finally {
+            setCurrent(previous);
+        }
+    }
+
+    private static String newSpanId() {
+        return HexFormat.of().toHexDigits(ThreadLocalRandom.current().nextLong() | 1);
+    }
+
+}
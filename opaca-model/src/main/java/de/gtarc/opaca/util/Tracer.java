@@ -0,0 +1,229 @@
+package de.gtarc.opaca.util;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects ended {@link Span}s and exports them in batches, in the OTLP/JSON format, either by appending
+ * them to a local file (one batch per line, as written by the OpenTelemetry Collector's file exporter) or
+ * by sending them to an OTLP/HTTP endpoint, e.g. a local collector or Jaeger. Exporting is done by a
+ * background thread; if the exporter does not keep up, spans are dropped. If no exporter is configured,
+ * spans are still created, so that the trace context is propagated, but then discarded.
+ */
+@Log
+public class Tracer {
+
+    public enum ExporterType {
+        NONE, FILE, OTLP
+    }
+
+    /** maximum number of spans waiting to be exported; further spans are dropped */
+    private static final int MAX_QUEUED = 10000;
+
+    /** maximum number of spans exported at once */
+    private static final int MAX_BATCH = 512;
+
+    private static final long EXPORT_INTERVAL_MS = 1000;
+
+    private static final Tracer INSTANCE = new Tracer();
+
+    private final BlockingQueue<Span> queue = new ArrayBlockingQueue<>(MAX_QUEUED);
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "trace-exporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile SpanExporter exporter = null;
+    private volatile String serviceName = "opaca";
+
+    private final LongAdder exported = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private Tracer() {
+        scheduler.scheduleWithFixedDelay(this::flush, EXPORT_INTERVAL_MS, EXPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static Tracer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Set the exporter to use for all further spans.
+     *
+     * @param serviceName name of this platform or container, as shown in the exported spans
+     * @param type the type of exporter, or NONE for not exporting spans
+     * @param target path of the file to append to, or base URL of the OTLP/HTTP endpoint
+     */
+    public synchronized void configure(String serviceName, ExporterType type, String target) {
+        this.serviceName = serviceName;
+        this.exporter = switch (type != null ? type : ExporterType.NONE) {
+            case NONE -> null;
+            case FILE -> new FileExporter(Path.of(target != null ? target : "spans.jsonl"));
+            case OTLP -> new OtlpExporter(target != null ? target : "http://localhost:4318");
+        };
+        log.info(String.format("Exporting spans of %s: %s %s", serviceName, type, target));
+    }
+
+    public boolean isEnabled() {
+        return exporter != null;
+    }
+
+    /**
+     * Queue the ended span for exporting, if enabled.
+     */
+    void export(Span span) {
+        if (exporter == null || ! span.getContext().isSampled()) return;
+        if (! queue.offer(span)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Export all queued spans.
+     */
+    public synchronized void flush() {
+        var exporter = this.exporter;
+        List<Span> batch = new ArrayList<>(MAX_BATCH);
+        while (queue.drainTo(batch, MAX_BATCH) > 0) {
+            if (exporter != null) {
+                try {
+                    exporter.export(RestHelper.writeJson(toOtlp(batch)));
+                    exported.add(batch.size());
+                } catch (IOException | RuntimeException e) {
+                    log.warning("Failed to export spans: " + e.getMessage());
+                    failed.add(batch.size());
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("enabled", isEnabled());
+        res.put("queued", queue.size());
+        res.put("exported", exported.sum());
+        res.put("dropped", dropped.sum());
+        res.put("failed", failed.sum());
+        return res;
+    }
+
+    /**
+     * Convert spans to an OTLP/JSON ExportTraceServiceRequest.
+     */
+    private ObjectNode toOtlp(List<Span> spans) {
+        var mapper = RestHelper.mapper;
+        var root = mapper.createObjectNode();
+        var resourceSpans = root.putArray("resourceSpans").addObject();
+        var resourceAttributes = resourceSpans.putObject("resource").putArray("attributes");
+        addAttribute(resourceAttributes, "service.name", serviceName);
+        var scopeSpans = resourceSpans.putArray("scopeSpans").addObject();
+        scopeSpans.putObject("scope").put("name", "de.gtarc.opaca");
+        var array = scopeSpans.putArray("spans");
+        for (Span span : spans) {
+            var node = array.addObject();
+            node.put("traceId", span.getContext().getTraceId());
+            node.put("spanId", span.getContext().getSpanId());
+            if (span.getParentSpanId() != null) {
+                node.put("parentSpanId", span.getParentSpanId());
+            }
+            node.put("name", span.getName());
+            node.put("kind", span.getKind().ordinal() + 1); // as in OTLP: 1 internal, 2 server, 3 client
+            node.put("startTimeUnixNano", String.valueOf(span.getStartEpochNanos()));
+            node.put("endTimeUnixNano", String.valueOf(span.getEndEpochNanos()));
+            var attributes = node.putArray("attributes");
+            synchronized (span) {
+                span.getAttributes().forEach((key, value) -> addAttribute(attributes, key, value));
+                if (span.getError() != null) {
+                    node.putObject("status").put("code", 2).put("message", span.getError());
+                }
+            }
+        }
+        return root;
+    }
+
+    private void addAttribute(ArrayNode attributes, String key, Object value) {
+        var attribute = attributes.addObject();
+        attribute.put("key", key);
+        var node = attribute.putObject("value");
+        switch (value) {
+            case Boolean b -> node.put("boolValue", b);
+            case Integer i -> node.put("intValue", String.valueOf(i));
+            case Long l -> node.put("intValue", String.valueOf(l));
+            case Double d -> node.put("doubleValue", d);
+            default -> node.put("stringValue", String.valueOf(value));
+        }
+    }
+
+    /**
+     * Destination for batches of spans in OTLP/JSON format.
+     */
+    public interface SpanExporter {
+        void export(String json) throws IOException;
+    }
+
+    private record FileExporter(Path path) implements SpanExporter {
+
+        @Override
+        public void export(String json) throws IOException {
+            Files.writeString(path, json + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private static class OtlpExporter implements SpanExporter {
+
+        private static final HttpClient httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5)).build();
+
+        private final URI uri;
+
+        OtlpExporter(String baseUrl) {
+            var url = baseUrl.endsWith("/v1/traces") ? baseUrl : baseUrl.replaceAll("/$", "") + "/v1/traces";
+            this.uri = URI.create(url);
+        }
+
+        @Override
+        public void export(String json) throws IOException {
+            var request = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofSeconds(10))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(json))
+                    .build();
+            try {
+                var response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() >= 300) {
+                    throw new IOException("OTLP endpoint returned status " + response.statusCode());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+
+}
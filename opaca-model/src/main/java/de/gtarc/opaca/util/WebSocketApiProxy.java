@@ -0,0 +1,132 @@
+package de.gtarc.opaca.util;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import de.gtarc.opaca.model.Event;
+import de.gtarc.opaca.model.Invocation;
+import de.gtarc.opaca.model.InvocationResult;
+import de.gtarc.opaca.model.Message;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Variant of the {@link ApiProxy} for a connected Runtime Platform that sends invocations, messages and
+ * stream requests via the persistent websocket channel to that platform instead of creating a new HTTP
+ * request for each of them. Posted streams are sent in a single frame, so only streams up to a maximum
+ * size are sent via the websocket. All other routes are still called via HTTP.
+ */
+public class WebSocketApiProxy extends ApiProxy {
+
+    /** maximum size of posted streams sent via the websocket, within the maximum message size when Base64-encoded */
+    private static final int MAX_POST_STREAM_SIZE = 8 * 1024 * 1024;
+
+    private final WebSocketRpcChannel channel;
+
+    /** headers to send with each call, as they would be sent with the respective HTTP request */
+    private final Map<String, String> headers = new HashMap<>();
+
+    public WebSocketApiProxy(String baseUrl, String senderId, String token, WebSocketRpcChannel channel) {
+        super(baseUrl, senderId, token);
+        this.channel = channel;
+        if (senderId != null) {
+            this.headers.put(Event.HEADER_SENDER_ID, senderId);
+        }
+    }
+
+    @Override
+    public ApiProxy withExtraHeaders(Map<String, String> headers) {
+        this.headers.putAll(headers);
+        return super.withExtraHeaders(headers);
+    }
+
+    @Override
+    public void send(String agentId, Message message, String containerId, boolean forward) throws IOException {
+        call("send", Map.of("agentId", agentId, "message", message, "forward", forward), containerId, -1);
+    }
+
+    @Override
+    public void broadcast(String channel, Message message, String containerId, boolean forward) throws IOException {
+        call("broadcast", Map.of("channel", channel, "message", message, "forward", forward), containerId, -1);
+    }
+
+    @Override
+    public <T> T invoke(String action, Map<String, ?> parameters, String agentId, int timeout, String containerId, boolean forward, Class<T> type) throws IOException {
+        var params = new HashMap<String, Object>();
+        params.put("action", action);
+        params.put("parameters", parameters);
+        params.put("timeout", timeout);
+        params.put("forward", forward);
+        if (agentId != null) params.put("agentId", agentId);
+        var result = call("invoke", params, containerId, timeout);
+        return RestHelper.mapper.treeToValue(result, type);
+    }
+
+    @Override
+    public List<InvocationResult> invokeBatch(List<Invocation> invocations, int timeout, boolean forward) throws IOException {
+        var result = call("invokeBatch", Map.of("invocations", invocations, "timeout", timeout, "forward", forward), null, timeout);
+        return RestHelper.mapper.readerFor(new TypeReference<List<InvocationResult>>(){}).readValue(result);
+    }
+
+    @Override
+    public InputStream getStream(String stream, String agentId, String containerId, boolean forward) throws IOException {
+        var params = new HashMap<String, Object>(Map.of("stream", stream, "forward", forward));
+        if (agentId != null) params.put("agentId", agentId);
+        if (containerId != null) params.put("containerId", containerId);
+        try (var span = startSpan("getStream")) {
+            return channel.callStream("getStream", toParams(params), headersWithTrace(span));
+        }
+    }
+
+    @Override
+    public void postStream(String stream, byte[] inputStream, String agentId, String containerId, boolean forward) throws IOException {
+        if (inputStream.length > MAX_POST_STREAM_SIZE) {
+            super.postStream(stream, inputStream, agentId, containerId, forward);
+            return;
+        }
+        var params = new HashMap<String, Object>();
+        params.put("stream", stream);
+        params.put("data", inputStream);
+        params.put("forward", forward);
+        if (agentId != null) params.put("agentId", agentId);
+        call("postStream", params, containerId, -1);
+    }
+
+    private JsonNode call(String method, Map<String, ?> params, String containerId, int timeout) throws IOException {
+        var allParams = new HashMap<String, Object>(params);
+        if (containerId != null) allParams.put("containerId", containerId);
+        // same as for HTTP: no timeout unless specified, otherwise allow some extra time for the forwarding
+        long timeoutMs = timeout > 0 ? timeout * 1000L + 5000 : -1;
+        try (var span = startSpan(method)) {
+            try {
+                return channel.call(method, toParams(allParams), headersWithTrace(span), timeoutMs);
+            } catch (IOException e) {
+                span.setError(e.getMessage());
+                throw e;
+            }
+        }
+    }
+
+    private Span startSpan(String method) {
+        return Span.start("rpc " + method, Span.Kind.CLIENT).attribute("rpc.url", baseUrl);
+    }
+
+    /**
+     * Get the headers to send with the call, including the context of the span for sending it.
+     */
+    private Map<String, String> headersWithTrace(Span span) {
+        var res = new HashMap<>(headers);
+        res.put(TraceContext.HEADER, span.getContext().format());
+        return res;
+    }
+
+    private Map<String, JsonNode> toParams(Map<String, ?> params) {
+        Map<String, JsonNode> res = new HashMap<>();
+        params.forEach((key, value) -> res.put(key, RestHelper.mapper.valueToTree(value)));
+        return res;
+    }
+
+}
@@ -1,8 +1,12 @@
 package de.gtarc.opaca.util;
 
+import de.gtarc.opaca.model.EventSubscription;
+
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.WebSocket;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
@@ -11,12 +15,14 @@ import java.util.concurrent.CompletionStage;
  */
 public class WebSocketConnector {
 
+    /** shared by all connections, as each client has its own selector thread and connection pool */
+    private static final HttpClient httpClient = HttpClient.newHttpClient();
+
     public interface MessageListener {
         void onMessage(String message);
     }
 
     public static CompletableFuture<WebSocket> subscribe(String runtimePlatformUrl, String token, String topic, MessageListener callback) {
-        URI endpoint = URI.create(runtimePlatformUrl.replaceAll("^http", "ws") + "/subscribe");
         WebSocket.Listener listener = new WebSocket.Listener() {
             
             @Override
@@ -32,7 +38,41 @@ public class WebSocketConnector {
             }
         };
  
-        var builder = HttpClient.newHttpClient().newWebSocketBuilder();
+        return connect(runtimePlatformUrl, token, listener);
+    }
+
+    /**
+     * Subscribe to all Events matching any of the given subscriptions, filtered by the platform.
+     */
+    public static CompletableFuture<WebSocket> subscribe(String runtimePlatformUrl, String token, List<EventSubscription> subscriptions, MessageListener callback) throws IOException {
+        return subscribe(runtimePlatformUrl, token, RestHelper.writeJson(subscriptions), callback);
+    }
+
+    /**
+     * Subscribe to the topic, reconnecting automatically if the connection is lost, and resuming
+     * from the last Event received before.
+     */
+    public static CompletableFuture<EventSubscriber> subscribeResumable(String runtimePlatformUrl, String token, String topic, MessageListener callback) {
+        var subscriber = new EventSubscriber(runtimePlatformUrl, token, topic, callback);
+        return subscriber.connect().thenApply(ws -> subscriber);
+    }
+
+    /**
+     * Open websocket connection to the platform's "/subscribe" endpoint with the given listener.
+     */
+    public static CompletableFuture<WebSocket> connect(String runtimePlatformUrl, String token, WebSocket.Listener listener) {
+        return connect(runtimePlatformUrl, token, -1, listener);
+    }
+
+    /**
+     * Open websocket connection to the platform's "/subscribe" endpoint with the given listener,
+     * asking the platform to first send all Events after the one with the given sequence number,
+     * unless it is negative.
+     */
+    public static CompletableFuture<WebSocket> connect(String runtimePlatformUrl, String token, long since, WebSocket.Listener listener) {
+        var query = since >= 0 ? "?since=" + since : "";
+        URI endpoint = URI.create(runtimePlatformUrl.replaceAll("^http", "ws") + "/subscribe" + query);
+        var builder = httpClient.newWebSocketBuilder();
         if (token != null && ! token.isEmpty()) {
             builder.header("Authorization", "Bearer " + token);
         }
@@ -0,0 +1,250 @@
+package de.gtarc.opaca.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.gtarc.opaca.model.ErrorResponse;
+import de.gtarc.opaca.model.RpcFrame;
+import de.gtarc.opaca.util.RestHelper.RequestException;
+import de.gtarc.opaca.util.WebSocketConnector.MessageListener;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent connection to another Runtime Platform's "/subscribe" websocket, used both for receiving Events
+ * of the subscribed topic and as a multiplexed channel for remote procedure calls, e.g. for forwarding
+ * invocations and messages without creating a new HTTP request each time. Any number of calls can be in
+ * flight at the same time; responses are correlated to requests by their ID.
+ *
+ * Before subscribing to the topic, a "ping" call is sent; only if the other platform responds to it, the
+ * channel is used for calls. Older platforms not supporting calls just ignore the ping, as it is replaced
+ * by the topic sent right after. If the connection is lost, it is re-established as for any other
+ * {@link EventSubscriber}, while pending calls fail.
+ */
+@Log
+public class WebSocketRpcChannel extends EventSubscriber {
+
+    /** whether the other platform responded to the initial ping, i.e. supports calls */
+    private volatile boolean ready = false;
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    /** pending calls, mapping call ID to handler for the response frames */
+    private final Map<String, ResponseHandler> pending = new ConcurrentHashMap<>();
+
+    public WebSocketRpcChannel(String runtimePlatformUrl, String token, String topic, MessageListener eventListener) {
+        super(runtimePlatformUrl, token, topic, eventListener);
+    }
+
+    /**
+     * Connect to the platform's "/subscribe" endpoint, subscribe to the given topic and check whether the
+     * platform supports calls via the websocket.
+     */
+    public static CompletableFuture<WebSocketRpcChannel> open(String runtimePlatformUrl, String token, String topic, MessageListener eventListener) {
+        var channel = new WebSocketRpcChannel(runtimePlatformUrl, token, topic, eventListener);
+        return channel.connect().thenApply(ws -> channel);
+    }
+
+    /**
+     * Whether the channel is open and the other platform supports calls.
+     */
+    public boolean isReady() {
+        return ready && isConnected();
+    }
+
+    /**
+     * Call the API method with the given parameters and wait for the result.
+     *
+     * @param timeoutMs how long to wait for the result; if not positive, wait until the channel is closed
+     */
+    public JsonNode call(String method, Map<String, JsonNode> params, Map<String, String> headers, long timeoutMs) throws IOException {
+        var future = new CompletableFuture<JsonNode>();
+        var id = send(method, params, headers, new ResponseHandler() {
+            void onResult(JsonNode result) { future.complete(result); }
+            void onError(IOException error) { future.completeExceptionally(error); }
+        });
+        try {
+            return timeoutMs > 0 ? future.get(timeoutMs, TimeUnit.MILLISECONDS) : future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            pending.remove(id);
+            throw new IOException("Call timed out: " + method);
+        } catch (InterruptedException e) {
+            pending.remove(id);
+            Thread.currentThread().interrupt();
+            throw new IOException("Call interrupted: " + method);
+        }
+    }
+
+    /**
+     * Call the API method with the given parameters providing a stream, returning an InputStream for
+     * reading the chunks of the stream as they arrive.
+     */
+    public InputStream callStream(String method, Map<String, JsonNode> params, Map<String, String> headers) throws IOException {
+        var stream = new ChunkedInputStream();
+        send(method, params, headers, stream);
+        return stream.asInputStream();
+    }
+
+    // WEBSOCKET LISTENER
+
+    @Override
+    protected void onConnected() {
+        try {
+            var ping = RpcFrame.request("ping", "ping", Map.of(), Map.of());
+            pending.put(ping.getId(), new ResponseHandler() {
+                void onResult(JsonNode result) { ready = true; }
+                void onError(IOException error) { ready = false; }
+            });
+            sendText(RestHelper.writeJson(ping));
+        } catch (IOException e) {
+            log.warning("Failed to send ping: " + e.getMessage());
+        }
+        super.onConnected();
+    }
+
+    @Override
+    protected void onDisconnected(String reason) {
+        failPending(reason);
+    }
+
+    // HELPER METHODS
+
+    private String send(String method, Map<String, JsonNode> params, Map<String, String> headers, ResponseHandler handler) throws IOException {
+        var id = String.valueOf(nextId.incrementAndGet());
+        pending.put(id, handler);
+        try {
+            sendText(RestHelper.writeJson(RpcFrame.request(id, method, params, headers))).join();
+        } catch (CompletionException e) {
+            pending.remove(id);
+            throw new IOException("Failed to send call via websocket: " + e.getMessage());
+        }
+        return id;
+    }
+
+    @Override
+    protected void handleMessage(String message) {
+        RpcFrame frame;
+        try {
+            var node = RestHelper.mapper.readTree(message);
+            if (! node.has("frameType")) {
+                // not a response frame, but an event of the subscribed topic
+                onEvent(message);
+                return;
+            }
+            frame = RestHelper.mapper.treeToValue(node, RpcFrame.class);
+        } catch (IOException e) {
+            onEvent(message);
+            return;
+        }
+        var handler = pending.get(frame.getId());
+        if (handler == null) return;
+        switch (frame.getFrameType()) {
+            case RESULT -> {
+                pending.remove(frame.getId());
+                handler.onResult(frame.getResult());
+            }
+            case ERROR -> {
+                pending.remove(frame.getId());
+                handler.onError(makeException(frame.getError()));
+            }
+            case CHUNK -> handler.onChunk(frame.getData());
+            case END -> {
+                pending.remove(frame.getId());
+                handler.onResult(null);
+            }
+            default -> log.warning("Unexpected frame type: " + frame.getFrameType());
+        }
+    }
+
+    private IOException makeException(ErrorResponse error) {
+        return new RequestException("Encountered an error when calling via websocket", error);
+    }
+
+    private void failPending(String message) {
+        ready = false;
+        var calls = Map.copyOf(pending);
+        pending.clear();
+        calls.values().forEach(h -> h.onError(new IOException(message)));
+    }
+
+    /**
+     * Handles the response frames of a single call.
+     */
+    private abstract static class ResponseHandler {
+        abstract void onResult(JsonNode result);
+        abstract void onError(IOException error);
+        void onChunk(byte[] data) {}
+    }
+
+    /**
+     * Input stream providing the chunks of a stream as they arrive. Reading blocks until the next
+     * chunk or the end of the stream has arrived.
+     */
+    private static class ChunkedInputStream extends ResponseHandler {
+
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+        private volatile IOException error = null;
+
+        private byte[] current = null;
+        private int position = 0;
+
+        @Override
+        void onResult(JsonNode result) {
+            chunks.add(END);
+        }
+
+        @Override
+        void onError(IOException error) {
+            this.error = error;
+            chunks.add(END);
+        }
+
+        @Override
+        void onChunk(byte[] data) {
+            if (data != null && data.length > 0) {
+                chunks.add(data);
+            }
+        }
+
+        InputStream asInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) return 0;
+                    if (current == END) return -1;
+                    if (current == null || position >= current.length) {
+                        try {
+                            current = chunks.take();
+                            position = 0;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted while reading stream");
+                        }
+                        if (current == END) {
+                            if (error != null) throw error;
+                            return -1;
+                        }
+                    }
+                    int n = Math.min(len, current.length - position);
+                    System.arraycopy(current, position, b, off, n);
+                    position += n;
+                    return n;
+                }
+            };
+        }
+    }
+
+}
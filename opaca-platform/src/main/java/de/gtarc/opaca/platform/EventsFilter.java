@@ -1,26 +1,116 @@
 package de.gtarc.opaca.platform;
 
 import de.gtarc.opaca.model.Event;
+import de.gtarc.opaca.platform.util.CallStatistics;
+import de.gtarc.opaca.platform.util.EventLog;
+import de.gtarc.opaca.util.CallContext;
 import de.gtarc.opaca.util.EventHistory;
+import de.gtarc.opaca.util.Span;
+import de.gtarc.opaca.util.TraceContext;
+import jakarta.annotation.PostConstruct;
 import jakarta.servlet.*;
 import jakarta.servlet.http.*;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Filter for pre- and postprocessing requests. Can be used for generating Events for the
  * History, for uniform logging, or for outright rejecting certain requests.
+ *
+ * Requests creating Events are also handled in a span of the trace given in the request's traceparent
+ * header, or of a new trace, whose ID is added to the Events and returned in the response's header.
+ *
+ * Events are added to the History and sent to websocket subscribers by a single background thread,
+ * in the order they were created, so that the request itself is not delayed by this. While handling a call,
+ * its CALL Event is kept in the {@link CallContext}, so that FORWARD Events created when passing the call on
+ * to another platform or container are related to it and recorded the same way. If enabled, they
+ * are also written to the persistent event log. The latency of each call, from its CALL to its SUCCESS or
+ * ERROR Event, is recorded in the call statistics.
  */
+@Log4j2
 @Service @NoArgsConstructor
 public class EventsFilter implements Filter {
 
+    /** prefixes of routes creating events, by HTTP method */
+    private static final Map<String, String[]> ROUTES = Map.of(
+            "GET", new String[] {"/stream", "/token"},
+            "POST", new String[] {"/users", "/stream", "/invoke", "/send", "/broadcast", "/login", "/containers", "/connections"},
+            "PUT", new String[] {"/users", "/containers"},
+            "DELETE", new String[] {"/users", "/containers", "/connections"}
+    );
+
+    /** maximum number of events waiting to be recorded; if exceeded, the request thread waits for free space */
+    private static final int MAX_PENDING_EVENTS = 10000;
+
     @Autowired
     private WebSocketConfig webSocketHandler;
 
+    @Autowired
+    private PlatformConfig config;
+
+    /** persistent event log, or null if not enabled */
+    @Getter
+    private EventLog eventLog = null;
+
+    /** latency and throughput of the calls, by route, action, container and sender */
+    @Getter
+    private final CallStatistics callStatistics = new CallStatistics();
+
+    /** number of times a request had to wait for the recorder, and events dropped when interrupted meanwhile */
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * If the queue is full, wait for free space instead of recording the event in the request thread,
+     * which could overtake events still waiting in the queue.
+     */
+    private final ExecutorService recorder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(MAX_PENDING_EVENTS),
+            r -> {
+                var thread = new Thread(r, "events-recorder");
+                thread.setDaemon(true);
+                return thread;
+            },
+            (task, executor) -> {
+                blocked.increment();
+                try {
+                    executor.getQueue().put(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.increment();
+                    log.warn("Interrupted while waiting for event recorder, event dropped");
+                }
+            });
+
+    @PostConstruct
+    private void registerForwardEvents() {
+        CallContext.setPublisher(this::addEvent);
+    }
+
+    @PostConstruct
+    private void openEventLog() {
+        if (config.eventLogDirectory == null || config.eventLogDirectory.isBlank()) return;
+        try {
+            eventLog = new EventLog(config.eventLogDirectory, config.eventLogSegmentSizeMb * 1024L * 1024L,
+                    config.eventLogRetentionHours * 3600_000L);
+            EventHistory.getInstance().continueAfter(eventLog.getLastSequence());
+        } catch (IOException e) {
+            log.error("Failed to open event log in {}: {}", config.eventLogDirectory, e.getMessage());
+        }
+    }
+
     @Override
     public void init(FilterConfig filterConfig) {}
 
@@ -31,20 +121,32 @@ public class EventsFilter implements Filter {
                 response instanceof HttpServletResponse httpResponse &&
                 requestShouldCreateEvent(httpRequest)) {
 
-            // create call event
-            String route = String.format("%s %s", httpRequest.getMethod(), httpRequest.getRequestURI());
+            // continue the caller's trace, if any, and create call event
+            String route = httpRequest.getMethod() + " " + httpRequest.getRequestURI();
             String sender = httpRequest.getHeader(Event.HEADER_SENDER_ID);
-            Event callEvent = createCallEvent(route, sender);
-            addEvent(callEvent);
-
-            // process the request
-            chain.doFilter(request, response);
-
-            // create result or error event
-            if (httpResponse.getStatus() >= 200 & httpResponse.getStatus() < 300 ) {
-                addEvent(createResultEvent(callEvent));
-            } else {
-                addEvent(createErrorEvent(callEvent, httpResponse.getStatus()));
+            try (var span = Span.start(route, Span.Kind.SERVER, TraceContext.parse(httpRequest.getHeader(TraceContext.HEADER)))) {
+                httpResponse.setHeader(TraceContext.HEADER, span.getContext().format());
+                long start = System.nanoTime();
+                Event callEvent = createCallEvent(route, sender, httpRequest.getParameter("containerId"));
+                addEvent(callEvent);
+
+                // process the request
+                var previous = CallContext.current();
+                CallContext.setCurrent(callEvent);
+                try {
+                    chain.doFilter(request, response);
+                } finally {
+                    CallContext.setCurrent(previous);
+                }
+
+                // create result or error event
+                span.attribute("http.status_code", httpResponse.getStatus());
+                if (httpResponse.getStatus() >= 200 & httpResponse.getStatus() < 300 ) {
+                    addResultEvent(callEvent, createResultEvent(callEvent), start);
+                } else {
+                    span.setError("HTTP " + httpResponse.getStatus());
+                    addResultEvent(callEvent, createErrorEvent(callEvent, httpResponse.getStatus()), start);
+                }
             }
         } else {
             // just process the request
@@ -52,37 +154,92 @@ public class EventsFilter implements Filter {
         }
     }
 
+    /**
+     * Create the same Events and span as for a request to the given route for a call that was not
+     * received via HTTP, e.g. via websocket. If the route is null, no Events are created.
+     */
+    public <T> T withEvents(String route, String sender, String containerId, String traceparent, Callable<T> call) throws Exception {
+        if (route == null) return call.call();
+        try (var span = Span.start(route, Span.Kind.SERVER, TraceContext.parse(traceparent))) {
+            long start = System.nanoTime();
+            Event callEvent = createCallEvent(route, sender, containerId);
+            addEvent(callEvent);
+            try {
+                T result = CallContext.callWith(callEvent, call);
+                addResultEvent(callEvent, createResultEvent(callEvent), start);
+                return result;
+            } catch (Exception e) {
+                var status = PlatformImpl.makeErrorResponse(e).getStatusCode();
+                span.attribute("http.status_code", status).setError(e.getMessage());
+                addResultEvent(callEvent, createErrorEvent(callEvent, status), start);
+                throw e;
+            }
+        }
+    }
+
     private boolean requestShouldCreateEvent(HttpServletRequest request) {
-        Map<String, Set<String>> routes = Map.of(
-            "GET", Set.of("/stream", "/token"),
-            "POST", Set.of("/users", "/stream", "/invoke", "/send", "/broadcast", "/login", "/containers", "/connections"),
-            "PUT", Set.of("/users", "/containers"),
-            "DELETE", Set.of("/users", "/containers", "/connections")
-        );
-        return routes.getOrDefault(request.getMethod(), Set.of()).stream()
-                .anyMatch(r -> request.getRequestURI().startsWith(r));
+        var prefixes = ROUTES.get(request.getMethod());
+        if (prefixes == null) return false;
+        var uri = request.getRequestURI();
+        for (String prefix : prefixes) {
+            if (uri.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Publish an Event not created by a request, e.g. on the progress of pulling an image. PROGRESS Events are
+     * only sent to websocket subscribers, but not added to the history, as there may be many of them.
+     */
+    public void publishEvent(Event event) {
+        if (event.getEventType() == Event.EventType.PROGRESS) {
+            recorder.execute(() -> webSocketHandler.broadcastEvent(event));
+        } else {
+            addEvent(event);
+        }
+    }
+
+    /**
+     * Get the number of events waiting to be recorded, and how often the recorder could not keep up.
+     */
+    public Map<String, Object> getRecorderStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("pending", ((ThreadPoolExecutor) recorder).getQueue().size());
+        res.put("blocked", blocked.sum());
+        res.put("dropped", dropped.sum());
+        return res;
     }
 
     private void addEvent(Event event) {
-        EventHistory.getInstance().addEvent(event);
-        if (event.getEventType() == Event.EventType.SUCCESS) {
+        recorder.execute(() -> {
+            EventHistory.getInstance().addEvent(event);
+            if (eventLog != null) {
+                eventLog.append(event);
+            }
+            webSocketHandler.broadcastEvent(event);
+        });
+    }
 
-            String[] routeParts = event.getRoute().split("\\s+");
-            String firstPathSegment = "/" + routeParts[1].split("/")[1];
-            webSocketHandler.broadcastEvent(firstPathSegment, event);
-        }
+    /**
+     * Add the SUCCESS or ERROR Event completing the call, and record the call's latency.
+     */
+    private void addResultEvent(Event callEvent, Event resultEvent, long startNanos) {
+        long duration = System.nanoTime() - startNanos;
+        recorder.execute(() -> callStatistics.record(callEvent, resultEvent, duration));
+        addEvent(resultEvent);
     }
 
-    private Event createCallEvent(String route, String sender) {
-        return new Event(Event.EventType.CALL, route, sender, null, null, null);
+    private Event createCallEvent(String route, String sender, String containerId) {
+        var trace = TraceContext.current();
+        return Event.call(route, sender, containerId, trace != null ? trace.getTraceId() : null);
     }
 
     private Event createResultEvent(Event related) {
-        return new Event(Event.EventType.SUCCESS, related.getRoute(), related.getSenderId(), null, null, related.getId());
+        return Event.success(related);
     }
 
     private Event createErrorEvent(Event related, int status) {
-        return new Event(Event.EventType.ERROR, related.getRoute(), related.getSenderId(), null, status, related.getId());
+        return Event.error(related, status);
     }
 
 }
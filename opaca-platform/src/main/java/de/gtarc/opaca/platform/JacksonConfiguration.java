@@ -5,17 +5,35 @@ import de.gtarc.opaca.util.RestHelper;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
 
 /**
  * Jackson Configuration for e.g. resolving Dates and Times, or variants on nested objects.
  */
 @Configuration
-public class JacksonConfiguration {
+public class JacksonConfiguration implements WebMvcConfigurer {
 
     @Bean
     @Primary
     public ObjectMapper objectMapper2(Jackson2ObjectMapperBuilder builder) {
         return RestHelper.mapper;
     }
+
+    /**
+     * Use the same CBOR mapper as RestHelper for clients requesting CBOR instead of JSON. The converter itself
+     * is registered by Spring (after the JSON converter, so JSON stays the default for e.g. Accept: *&#47;*).
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        for (var converter : converters) {
+            if (converter instanceof MappingJackson2CborHttpMessageConverter cborConverter) {
+                cborConverter.setObjectMapper(RestHelper.cborMapper);
+            }
+        }
+    }
 }
@@ -1,6 +1,8 @@
 package de.gtarc.opaca.platform;
 
 import de.gtarc.opaca.model.PostAgentContainer;
+import de.gtarc.opaca.util.RestHelper;
+import de.gtarc.opaca.util.Tracer;
 import lombok.ToString;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Value;
@@ -51,6 +53,81 @@ public class PlatformConfig {
     @Value("${always_pull_images}")
     public boolean alwaysPullImages;
 
+    @Value("${message_batch_window_ms}")
+    public long messageBatchWindowMs;
+
+    @Value("${message_batch_size}")
+    public int messageBatchSize;
+
+    @Value("${container_encoding}")
+    public RestHelper.Encoding containerEncoding;
+
+    @Value("${platform_update_debounce_ms}")
+    public long platformUpdateDebounceMs;
+
+    @Value("${container_events_window_ms}")
+    public long containerEventsWindowMs;
+
+    @Value("${mesh_max_hops}")
+    public int meshMaxHops;
+
+    @Value("${mesh_update_interval_sec}")
+    public int meshUpdateIntervalSec;
+
+    @Value("${platform_rpc}")
+    public boolean platformRpc;
+
+    @Value("${websocket_queue_size}")
+    public int websocketQueueSize;
+
+    @Value("${websocket_overflow_policy}")
+    public OverflowPolicy websocketOverflowPolicy;
+
+    @Value("${event_log_directory}")
+    public String eventLogDirectory;
+
+    @Value("${event_log_segment_size_mb}")
+    public int eventLogSegmentSizeMb;
+
+    @Value("${event_log_retention_hours}")
+    public int eventLogRetentionHours;
+
+    @Value("${trace_exporter}")
+    public Tracer.ExporterType traceExporter;
+
+    @Value("${trace_exporter_target}")
+    public String traceExporterTarget;
+
+    @Value("${container_failure_policy}")
+    public ContainerFailurePolicy containerFailurePolicy;
+
+    @Value("${container_port_range}")
+    public String containerPortRange;
+
+    @Value("${warm_pool_images}")
+    public String warmPoolImages;
+
+    @Value("${warm_pool_size}")
+    public int warmPoolSize;
+
+    @Value("${autoscale_max_in_flight}")
+    public int autoscaleMaxInFlight;
+
+    @Value("${autoscale_max_latency_ms}")
+    public long autoscaleMaxLatencyMs;
+
+    @Value("${autoscale_max_replicas}")
+    public int autoscaleMaxReplicas;
+
+    @Value("${autoscale_cooldown_sec}")
+    public int autoscaleCooldownSec;
+
+    @Value("${container_cpu_capacity}")
+    public double containerCpuCapacity;
+
+    @Value("${container_memory_capacity_mb}")
+    public long containerMemoryCapacityMb;
+
     // SECURITY & AUTHENTICATION
 
     @Value("${security.requireAuth}")
@@ -122,6 +199,14 @@ public class PlatformConfig {
         SHUTDOWN, RESTART, RECONNECT
     }
 
+    public enum OverflowPolicy {
+        DROP_OLDEST, DROP_NEWEST, CLOSE
+    }
+
+    public enum ContainerFailurePolicy {
+        IGNORE, REMOVE, RESTART
+    }
+
     public Map<String, Object> toMap() {
         Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
         // general stuff
@@ -134,6 +219,31 @@ public class PlatformConfig {
         res.put("defaultImageDirectory", defaultImageDirectory);
         res.put("eventHistorySize", eventHistorySize);
         res.put("alwaysPullImages", alwaysPullImages);
+        res.put("messageBatchWindowMs", messageBatchWindowMs);
+        res.put("messageBatchSize", messageBatchSize);
+        res.put("containerEncoding", containerEncoding);
+        res.put("platformUpdateDebounceMs", platformUpdateDebounceMs);
+        res.put("containerEventsWindowMs", containerEventsWindowMs);
+        res.put("meshMaxHops", meshMaxHops);
+        res.put("meshUpdateIntervalSec", meshUpdateIntervalSec);
+        res.put("platformRpc", platformRpc);
+        res.put("websocketQueueSize", websocketQueueSize);
+        res.put("websocketOverflowPolicy", websocketOverflowPolicy);
+        res.put("eventLogDirectory", eventLogDirectory);
+        res.put("eventLogSegmentSizeMb", eventLogSegmentSizeMb);
+        res.put("eventLogRetentionHours", eventLogRetentionHours);
+        res.put("traceExporter", traceExporter);
+        res.put("traceExporterTarget", traceExporterTarget);
+        res.put("containerFailurePolicy", containerFailurePolicy);
+        res.put("containerPortRange", containerPortRange);
+        res.put("warmPoolImages", warmPoolImages);
+        res.put("warmPoolSize", warmPoolSize);
+        res.put("autoscaleMaxInFlight", autoscaleMaxInFlight);
+        res.put("autoscaleMaxLatencyMs", autoscaleMaxLatencyMs);
+        res.put("autoscaleMaxReplicas", autoscaleMaxReplicas);
+        res.put("autoscaleCooldownSec", autoscaleCooldownSec);
+        res.put("containerCpuCapacity", containerCpuCapacity);
+        res.put("containerMemoryCapacityMb", containerMemoryCapacityMb);
         // auth stuff
         res.put("requireAuth", requireAuth);
         // user management stuff
@@ -1,39 +1,62 @@
 package de.gtarc.opaca.platform;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import de.gtarc.opaca.api.AgentContainerApi;
 import de.gtarc.opaca.api.RuntimePlatformApi;
 import de.gtarc.opaca.platform.auth.JwtUtil;
 import de.gtarc.opaca.platform.user.TokenUserDetailsService;
+import de.gtarc.opaca.platform.containerclient.Autoscaler;
 import de.gtarc.opaca.platform.containerclient.ContainerClient;
 import de.gtarc.opaca.platform.containerclient.DockerClient;
 import de.gtarc.opaca.platform.containerclient.KubernetesClient;
+import de.gtarc.opaca.platform.containerclient.WarmPool;
 import de.gtarc.opaca.platform.session.SessionData;
 import de.gtarc.opaca.model.*;
 import de.gtarc.opaca.model.AgentContainer.Connectivity;
 import de.gtarc.opaca.platform.util.ArgumentValidator;
+import de.gtarc.opaca.platform.util.EventMatcher;
+import de.gtarc.opaca.platform.util.InvokeCoalescer;
+import de.gtarc.opaca.platform.util.MeshRouter;
+import de.gtarc.opaca.platform.util.MessageBatcher;
 import de.gtarc.opaca.platform.util.RequirementsChecker;
+import de.gtarc.opaca.platform.util.ResultCache;
+import de.gtarc.opaca.platform.util.RevisionTracker;
+import de.gtarc.opaca.platform.util.UpdateCoalescer;
 import de.gtarc.opaca.util.ApiProxy;
+import de.gtarc.opaca.util.CallContext;
+import de.gtarc.opaca.util.EventSubscriber;
+import de.gtarc.opaca.util.Span;
+import de.gtarc.opaca.util.Tracer;
+import de.gtarc.opaca.util.WebSocketApiProxy;
 import de.gtarc.opaca.util.WebSocketConnector;
+import de.gtarc.opaca.util.WebSocketRpcChannel;
 import lombok.Getter;
 import de.gtarc.opaca.util.EventHistory;
+import de.gtarc.opaca.util.RestHelper.RequestException;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
 import jakarta.annotation.PostConstruct;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.net.http.WebSocket;
 import java.time.Duration;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -59,6 +82,12 @@ public class PlatformImpl implements RuntimePlatformApi {
     @Autowired
     private PlatformConfig config;
 
+    @Autowired
+    private WebSocketConfig webSocketConfig;
+
+    @Autowired
+    private EventsFilter eventsFilter;
+
     @Autowired
     private JwtUtil jwtUtil;
 
@@ -66,6 +95,9 @@ public class PlatformImpl implements RuntimePlatformApi {
     private TokenUserDetailsService userDetailsService;
 
 
+    /** maximum number of events returned by a history query, unless a different limit is given */
+    private static final int DEFAULT_HISTORY_LIMIT = 1000;
+
     /** platform's own UUID */
     private final String platformId = UUID.randomUUID().toString();
 
@@ -81,12 +113,55 @@ public class PlatformImpl implements RuntimePlatformApi {
 
     /** Currently connected other Runtime Platforms, mapping URL to description */
     private Map<String, RuntimePlatform> connectedPlatforms;
-    private Map<String, WebSocket> connectionWebsockets;
+    private Map<String, EventSubscriber> connectionWebsockets;
+
+    /** Channels for calls via the websockets to connected platforms, if enabled, mapping URL to channel */
+    private final Map<String, WebSocketRpcChannel> rpcChannels = new ConcurrentHashMap<>();
+
+    /** Headers of a call received via websocket instead of HTTP, for the thread executing the call */
+    private final ThreadLocal<Map<String, String>> callHeaders = new ThreadLocal<>();
 
     /** Map of validators for validating action argument types for each container */
     private final Map<String, ArgumentValidator> validators = new HashMap<>();
 
-    private final RequirementsChecker requirementsChecker = new RequirementsChecker(this);
+    private RequirementsChecker requirementsChecker;
+
+    /** Cached results of actions without side effects, as declared in the actions' descriptions */
+    private final ResultCache resultCache = new ResultCache();
+
+    /** Shared in-progress invocations of actions without side effects */
+    private final InvokeCoalescer invokeCoalescer = new InvokeCoalescer();
+
+    /** Executor for sending batches of invocations to different containers and platforms in parallel */
+    private final ExecutorService batchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /** Batches of outgoing messages and broadcasts per container, if enabled */
+    private MessageBatcher messageBatcher;
+
+    /** Revisions of the platform's state, for providing deltas to connected platforms */
+    private final RevisionTracker revisions = new RevisionTracker();
+
+    /** Debounced and coalesced updates of connected platforms after being notified about changes */
+    private UpdateCoalescer platformUpdates;
+
+    /** Routes to platforms more than one hop away, if enabled */
+    private MeshRouter meshRouter;
+
+    /** Idle containers of some images, to be claimed by requests for those images, if enabled */
+    private WarmPool warmPool;
+
+    /** Starts more instances of containers under heavy load, and stops them again */
+    private Autoscaler autoscaler;
+
+    /** Notified when the container client reports a container as ready or failed, to stop waiting for it */
+    private final Object containerStateMonitor = new Object();
+
+    /** Executor for removing or restarting failed containers, outside the container client's threads */
+    private final ExecutorService failureExecutor = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "container-failures");
+        thread.setDaemon(true);
+        return thread;
+    });
 
 
     @PostConstruct
@@ -97,6 +172,9 @@ public class PlatformImpl implements RuntimePlatformApi {
         this.tokens = sessionData.tokens;
         this.connectedPlatforms = sessionData.connectedPlatforms;
         this.connectionWebsockets = new HashMap<>();
+        this.messageBatcher = new MessageBatcher(config.messageBatchWindowMs, config.messageBatchSize);
+        this.platformUpdates = new UpdateCoalescer(config.platformUpdateDebounceMs);
+        this.requirementsChecker = new RequirementsChecker(this, config);
 
         // initialize container client based on environment
         if (config.containerEnvironment == PostAgentContainer.ContainerEnvironment.DOCKER) {
@@ -110,17 +188,45 @@ public class PlatformImpl implements RuntimePlatformApi {
         }
         // test resolving own base URL and print result
         log.info("Own Base URL: {}", config.getOwnBaseUrl());
+        this.meshRouter = new MeshRouter(config.getOwnBaseUrl(), config.meshMaxHops);
+        if (config.traceExporter != Tracer.ExporterType.NONE) {
+            Tracer.getInstance().configure(config.getOwnBaseUrl(), config.traceExporter, config.traceExporterTarget);
+        }
 
+        this.containerClient.setStateListener(this::onContainerStateChanged);
+        this.containerClient.setEventListener(eventsFilter::publishEvent);
         this.containerClient.initialize(config, sessionData);
         this.containerClient.testConnectivity();
 
+        // idle containers expire before their token does
+        this.warmPool = new WarmPool(config.warmPoolImages, config.warmPoolSize, Duration.ofHours(12).toMillis(),
+                this::launchPooledContainer, this::stopPooledContainer);
+        if (warmPool.isEnabled()) {
+            warmPool.prepareImages(containerClient::prepareImage);
+        }
+        this.autoscaler = new Autoscaler(config.autoscaleMaxInFlight, config.autoscaleMaxLatencyMs,
+                config.autoscaleMaxReplicas, Duration.ofSeconds(config.autoscaleCooldownSec).toMillis(),
+                this::getScalingGroups, new Autoscaler.Scaler() {
+                    @Override
+                    public String scaleUp(String containerId) throws IOException {
+                        return scaleUpContainer(containerId);
+                    }
+                    @Override
+                    public void scaleDown(String containerId) {
+                        scaleDownContainer(containerId);
+                    }
+                });
+        autoscaler.start();
+
         for (var containerId : runningContainers.keySet()) {
             var image = runningContainers.get(containerId).getImage();
             validators.put(containerId, new ArgumentValidator(image));
+            revisions.containerAdded(containerId);
         }
         for (var url : connectedPlatforms.keySet()) {
             openConnectionWebsocket(url, tokens.get(url));
         }
+        meshRouter.start(this::updateRoutes, config.meshUpdateIntervalSec);
     }
 
     /*
@@ -129,26 +235,111 @@ public class PlatformImpl implements RuntimePlatformApi {
 
     @Override
     public RuntimePlatform getPlatformInfo() {
-        return new RuntimePlatform(
+        var provides = requirementsChecker.getFullPlatformProvisions();
+        return revisions.snapshot(revision -> new RuntimePlatform(
                 platformId,
                 config.getOwnBaseUrl(),
                 List.copyOf(runningContainers.values()),
-                requirementsChecker.getFullPlatformProvisions(),
+                provides,
                 List.copyOf(connectedPlatforms.keySet()),
-                startedAt
+                startedAt,
+                revision
+        ));
+    }
+
+    @Override
+    public PlatformDelta getPlatformInfoDelta(long sinceRevision) {
+        return revisions.getDelta(
+                platformId,
+                sinceRevision,
+                runningContainers::values,
+                requirementsChecker.getFullPlatformProvisions(),
+                () -> List.copyOf(connectedPlatforms.keySet())
         );
     }
 
+    @Override
+    public PlatformDelta getPlatformInfoDelta(long sinceRevision, String platformUrl) throws IOException {
+        platformUrl = normalizeString(platformUrl);
+        if (platformUrl.equals(config.getOwnBaseUrl())) {
+            return getPlatformInfoDelta(sinceRevision);
+        }
+        // do not pass the request on in circles if the routes changed in the meantime
+        var visited = getVisitedPlatforms();
+        if (visited.contains(config.getOwnBaseUrl())) {
+            throw new NoSuchElementException("Platform not reachable: " + platformUrl);
+        }
+        if (connectedPlatforms.containsKey(platformUrl)) {
+            return getPlatformClient(platformUrl, tokens.get(platformUrl)).getPlatformInfoDelta(sinceRevision);
+        }
+        var target = platformUrl;
+        var route = meshRouter.getRoutes().stream()
+                .filter(r -> r.getPlatformUrl().equals(target) && connectedPlatforms.containsKey(r.getVia()))
+                .findFirst()
+                .orElseThrow(() -> new NoSuchElementException("Platform not reachable: " + target));
+        var path = new ArrayList<>(visited);
+        path.add(config.getOwnBaseUrl());
+        return getPlatformClient(route.getVia(), tokens.get(route.getVia()))
+                .withExtraHeaders(Map.of(RuntimePlatformApi.HEADER_VISITED_PLATFORMS, String.join(",", path)))
+                .getPlatformInfoDelta(sinceRevision, platformUrl);
+    }
+
+    @Override
+    public List<PlatformRoute> getRoutes() {
+        return meshRouter.isEnabled() ? meshRouter.getRoutes() : List.of();
+    }
+
     @Override
     public Map<String, ?> getPlatformConfig() {
         return config.toMap();
     }
 
+    @Override
+    public Map<String, ?> getPlatformStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("resultCache", resultCache.getStatistics());
+        res.put("invokeCoalescing", invokeCoalescer.getStatistics());
+        res.put("messageBatching", messageBatcher.getStatistics());
+        res.put("platformUpdates", platformUpdates.getStatistics());
+        res.put("meshRouting", meshRouter.getStatistics());
+        res.put("platformRpc", Map.of(
+                "channels", rpcChannels.size(),
+                "ready", rpcChannels.values().stream().filter(WebSocketRpcChannel::isReady).count()));
+        res.put("websockets", webSocketConfig.getStatistics());
+        var eventLog = eventsFilter.getEventLog();
+        res.put("eventLog", eventLog != null ? eventLog.getStatistics() : Map.of("enabled", false));
+        res.put("eventRecorder", eventsFilter.getRecorderStatistics());
+        res.put("tracing", Tracer.getInstance().getStatistics());
+        res.put("calls", eventsFilter.getCallStatistics().getStatistics());
+        res.put("containerClient", containerClient.getStatistics());
+        res.put("warmPool", warmPool.getStatistics());
+        res.put("autoscaler", autoscaler.getStatistics());
+        res.put("resources", requirementsChecker.getResourceStatistics());
+        return res;
+    }
+
     @Override
     public List<Event> getHistory() {
         return EventHistory.getInstance().getEvents();
     }
 
+    @Override
+    public List<Event> getHistory(Long from, Long to, Long since, String route, Event.EventType eventType, Integer limit) {
+        var matcher = route != null || eventType != null
+                ? new EventMatcher(List.of(new EventSubscription(route, eventType != null ? List.of(eventType) : null, null, null, null)))
+                : null;
+        int max = limit != null && limit > 0 ? limit : DEFAULT_HISTORY_LIMIT;
+        var eventLog = eventsFilter.getEventLog();
+        if (eventLog != null) {
+            return eventLog.query(from, to, since, matcher, max);
+        }
+        var events = EventHistory.getInstance().getEventsSince(since != null ? since : Long.MIN_VALUE).stream()
+                .filter(e -> (from == null || e.getTimestamp() >= from) && (to == null || e.getTimestamp() <= to))
+                .filter(e -> matcher == null || matcher.matches(EventMatcher.Target.of(e)))
+                .toList();
+        return events.subList(Math.max(0, events.size() - max), events.size());
+    }
+
     @Override
     public String platformLogin(Login loginParams) {
         return userDetailsService.generateTokenForUser(loginParams.getUsername(), loginParams.getPassword());
@@ -212,7 +403,7 @@ public class PlatformImpl implements RuntimePlatformApi {
         iterateClientMatches(
                 getClients(containerId, agentId, null, null, null, forward),
                 match -> {
-                    match.getClient().send(agentId, message, containerId, false);
+                    sendOrBatch(match, AddressedMessage.toAgent(agentId, message), containerId);
                     return null;
                 },
                 true
@@ -224,7 +415,7 @@ public class PlatformImpl implements RuntimePlatformApi {
         iterateClientMatches(
                 getClients(containerId, null, null, null, null, forward),
                 match -> {
-                    match.getClient().broadcast(channel, message, containerId, false);
+                    sendOrBatch(match, AddressedMessage.toChannel(channel, message), containerId);
                     return null;
                 },
                 false
@@ -235,16 +426,90 @@ public class PlatformImpl implements RuntimePlatformApi {
     public JsonNode invoke(String action, Map<String, JsonNode> parameters, String agentId, int timeout, String containerId, boolean forward) throws IOException, NoSuchElementException {
         return iterateClientMatches(
                 getClients(containerId, agentId, action, parameters, null, forward),
-                match -> match.getClientForUser().invoke(action, parameters, agentId, timeout, containerId, false),
+                match -> invokeCached(match, action, parameters, agentId, timeout, containerId),
                 true
         );
     }
 
+    /**
+     * Invoke the actions, sending one batch to each container or connected platform. For containers on this
+     * platform, results of cacheable actions are taken from the cache, if available, and only the remaining
+     * invocations are sent in the batch; their results are cached in turn. Unlike single invocations, those
+     * in a batch are not coalesced with concurrent identical invocations.
+     */
+    @Override
+    public List<InvocationResult> invokeBatch(List<Invocation> invocations, int timeout, boolean forward) {
+        var results = new InvocationResult[invocations.size()];
+
+        // find target for each invocation and group by container or platform, to send one batch to each
+        var matches = new ClientMatch[invocations.size()];
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < invocations.size(); i++) {
+            var inv = invocations.get(i);
+            try {
+                var match = iterateClientMatches(
+                        getClients(inv.getContainerId(), inv.getAgentId(), inv.getAction(), inv.getParameters(), null, forward),
+                        m -> m,
+                        true
+                );
+                var key = match.isPlatformMatch() ? match.platformUrl : match.actualContainerId;
+                matches[i] = match;
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            } catch (Exception e) {
+                results[i] = InvocationResult.failure(makeErrorResponse(e));
+            }
+        }
+
+        // send batches to the different targets in parallel, then put results in original order
+        var callEvent = CallContext.current();
+        var futures = groups.values().stream().map(group -> {
+            var match = matches[group.get(0)];
+            // get client and login token in calling thread, as the container login depends on the current user
+            var client = match.getClientForUser();
+            var cacheKeys = new String[invocations.size()];
+            var generation = match.isPlatformMatch() ? 0 : resultCache.getGeneration(match.actualContainerId);
+            var indices = match.isPlatformMatch() ? group : getUncached(group, invocations, matches, cacheKeys, results);
+            if (indices.isEmpty()) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            var batch = indices.stream()
+                    .map(invocations::get)
+                    .map(inv -> match.isPlatformMatch() ? inv
+                            : new Invocation(inv.getAction(), inv.getParameters(), inv.getAgentId(), match.actualContainerId))
+                    .toList();
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    Callable<List<InvocationResult>> send = () -> CallContext.callWith(callEvent,
+                            () -> client.invokeBatch(batch, timeout, match.isForwardFurther()));
+                    var batchResults = match.isPlatformMatch() ? send.call()
+                            : invokeBatchTracked(match.actualContainerId, batch.size(), send);
+                    if (batchResults.size() != batch.size()) {
+                        throw new IOException("Number of results does not match number of invocations in batch");
+                    }
+                    for (int j = 0; j < indices.size(); j++) {
+                        int i = indices.get(j);
+                        var result = batchResults.get(j);
+                        results[i] = result;
+                        if (cacheKeys[i] != null && result.getError() == null) {
+                            resultCache.put(match.actualContainerId, matches[i].getMatchedAction(), cacheKeys[i], result.getResult(), generation);
+                        }
+                    }
+                } catch (Exception e) {
+                    log.warn("Exception from container", e);
+                    var error = makeErrorResponse(e);
+                    indices.forEach(i -> results[i] = InvocationResult.failure(error));
+                }
+            }, batchExecutor);
+        }).toList();
+        futures.forEach(CompletableFuture::join);
+        return Arrays.asList(results);
+    }
+
     @Override
     public InputStream getStream(String stream, String agentId, String containerId, boolean forward) throws IOException {
         return iterateClientMatches(
                 getClients(containerId, agentId, null, null, stream, forward),
-                match -> match.getClient().getStream(stream, agentId, containerId, false),
+                match -> match.getClient().getStream(stream, agentId, containerId, match.isForwardFurther()),
                 true
         );
     }
@@ -254,7 +519,7 @@ public class PlatformImpl implements RuntimePlatformApi {
         iterateClientMatches(
                 getClients(containerId, agentId, null, null, stream, forward),
                 match -> {
-                    match.getClient().postStream(stream, inputStream, agentId, containerId, false);
+                    match.getClient().postStream(stream, inputStream, agentId, containerId, match.isForwardFurther());
                     return null;
                 },
                 true
@@ -269,13 +534,75 @@ public class PlatformImpl implements RuntimePlatformApi {
     public String addContainer(PostAgentContainer postContainer, int timeout) throws IOException {
         checkConfig(postContainer);
         checkRequirements(postContainer);
-        String agentContainerId = UUID.randomUUID().toString();
-        String token = "";
-        String owner = "";
-        if (config.requireAuth) {
-            token = jwtUtil.generateToken(agentContainerId, Duration.ofHours(24));
-            owner = getUser();
+        return startContainer(postContainer, config.requireAuth ? getUser() : "", timeout);
+    }
+
+    /**
+     * Start the container for the given owner and wait until it is up and running.
+     */
+    private String startContainer(PostAgentContainer postContainer, String owner, int timeout) throws IOException {
+        // reserve the resources while starting, so that concurrent starts can not exceed the capacity
+        var reservation = requirementsChecker.reserveResources(postContainer);
+        try {
+            // claim an idle container of the warm pool, if any, and associate it with the owner
+            var pooled = warmPool.claim(postContainer);
+            if (pooled != null) {
+                var agentContainerId = pooled.containerId();
+                userDetailsService.removeUser(agentContainerId);
+                userDetailsService.createTempSubUser(agentContainerId, owner);
+                pooled.container().setOwner(owner);
+                registerContainer(agentContainerId, pooled.container(), postContainer, pooled.token());
+                log.info("Container claimed from warm pool: {}", agentContainerId);
+                return agentContainerId;
+            }
+
+            String agentContainerId = UUID.randomUUID().toString();
+            String token = config.requireAuth ? jwtUtil.generateToken(agentContainerId, Duration.ofHours(24)) : "";
+            var container = launchContainer(agentContainerId, token, owner, postContainer, timeout);
+            registerContainer(agentContainerId, container, postContainer, token);
+            log.info("Container started: {}", agentContainerId);
+            warmPool.register(postContainer);
+            return agentContainerId;
+        } finally {
+            requirementsChecker.releaseResources(reservation);
         }
+    }
+
+    /**
+     * Start a container of the warm pool, not owned by anyone until claimed.
+     */
+    private WarmPool.Instance launchPooledContainer(PostAgentContainer postContainer) throws IOException {
+        String agentContainerId = UUID.randomUUID().toString();
+        String token = config.requireAuth ? jwtUtil.generateToken(agentContainerId, Duration.ofHours(24)) : "";
+        var container = launchContainer(agentContainerId, token, "", postContainer, 0);
+        log.info("Container started for warm pool: {}", agentContainerId);
+        return new WarmPool.Instance(agentContainerId, container, token, System.currentTimeMillis());
+    }
+
+    /**
+     * Stop a container of the warm pool that was never claimed.
+     */
+    private void stopPooledContainer(String containerId) {
+        containerClient.stopContainer(containerId);
+        userDetailsService.removeUser(containerId);
+    }
+
+    /**
+     * Add the container to the different collections of running containers.
+     */
+    private void registerContainer(String agentContainerId, AgentContainer container, PostAgentContainer postContainer, String token) {
+        startedContainers.put(agentContainerId, postContainer);
+        tokens.put(agentContainerId, token);
+        validators.put(agentContainerId, new ArgumentValidator(container.getImage()));
+        revisions.containerAdded(agentContainerId, () -> runningContainers.put(agentContainerId, container));
+    }
+
+    /**
+     * Start the container and wait until it is up and running, i.e. responds to /info, or stop it again.
+     *
+     * @return the container's description, with connectivity and owner
+     */
+    private AgentContainer launchContainer(String agentContainerId, String token, String owner, PostAgentContainer postContainer, int timeout) throws IOException {
         // create user first so the container can immediately talk with the platform
         userDetailsService.createTempSubUser(agentContainerId, owner);
 
@@ -298,6 +625,10 @@ public class PlatformImpl implements RuntimePlatformApi {
                 errorMessage = "Container failed to start.";
                 break;
             }
+            if (! containerClient.isContainerReady(agentContainerId)) {
+                waitForContainerState();
+                continue;
+            }
             try {
                 // get container /info and add derived attributes
                 var container = client.getContainerInfo();
@@ -307,24 +638,14 @@ public class PlatformImpl implements RuntimePlatformApi {
                     log.warn("Agent Container ID does not match: Expected {}, but found {}",
                             agentContainerId, container.getContainerId());
                 }
-                // register container in different collections
-                runningContainers.put(agentContainerId, container);
-                startedContainers.put(agentContainerId, postContainer);
-                tokens.put(agentContainerId, token);
-                validators.put(agentContainerId, new ArgumentValidator(container.getImage()));
-                log.info("Container started: {}", agentContainerId);
-                return agentContainerId;
+                return container;
             } catch (JsonMappingException e) {
                 errorMessage = "Container returned malformed /info: " + e.getMessage();
                 break;
             } catch (IOException e) {
                 // this is normal... waiting for container to start and provide services
             }
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                log.error(e.getMessage());
-            }
+            waitForContainerState();
         }
 
         // if we reach this point, container did not start in time or does not provide /info route
@@ -361,6 +682,13 @@ public class PlatformImpl implements RuntimePlatformApi {
         return List.copyOf(runningContainers.values());
     }
 
+    /**
+     * Get the requests the running containers were started from, e.g. for checking their resources.
+     */
+    public List<PostAgentContainer> getContainerRequests() {
+        return List.copyOf(startedContainers.values());
+    }
+
     @Override
     public AgentContainer getContainer(String containerId) {
         return runningContainers.get(containerId);
@@ -369,20 +697,181 @@ public class PlatformImpl implements RuntimePlatformApi {
     @Override
     public boolean removeContainer(String containerId) throws IOException {
         AgentContainer container = runningContainers.get(containerId);
+        if (container == null) return false;
         if (config.requireAuth && ! getUser().equals(config.platformAdminUser) && ! userDetailsService.isAdminOrSelf(container.getOwner())) {
             // ignore if userToken == null; this is only the case iff the platform is about to shut down
             throw new ResponseStatusException(HttpStatus.FORBIDDEN);
         }
-        if (container == null) return false;
-        runningContainers.remove(containerId);
-        startedContainers.remove(containerId);
-        validators.remove(containerId);
-        userDetailsService.removeUser(containerId);
+        // may have been removed in the meantime, e.g. by the autoscaler or because it failed
+        if (unregisterContainer(containerId) == null) return false;
         containerClient.stopContainer(containerId);
         userDetailsService.removeContainerToken(getUser(), containerId);
         return true;
     }
 
+    /**
+     * Stop all idle containers of the warm pool, e.g. when the platform shuts down.
+     */
+    public void stopWarmPool() {
+        warmPool.shutdown();
+    }
+
+    /**
+     * Stop scaling containers, e.g. when the platform shuts down.
+     */
+    public void stopAutoscaler() {
+        autoscaler.shutdown();
+    }
+
+    /**
+     * Get the owner and request of each running container, by which the autoscaler groups them.
+     */
+    private Map<String, Autoscaler.GroupKey> getScalingGroups() {
+        Map<String, Autoscaler.GroupKey> res = new HashMap<>();
+        startedContainers.forEach((containerId, postContainer) -> {
+            var container = runningContainers.get(containerId);
+            if (container != null) {
+                res.put(containerId, new Autoscaler.GroupKey(container.getOwner(), postContainer));
+            }
+        });
+        return res;
+    }
+
+    /**
+     * Start another container from the same request and for the same owner as the given container.
+     * The new container is published as an Event, the same as if it had been added via the API.
+     */
+    private String scaleUpContainer(String containerId) throws IOException {
+        var container = runningContainers.get(containerId);
+        var postContainer = startedContainers.get(containerId);
+        if (container == null || postContainer == null) {
+            throw new NoSuchElementException("Container not found: " + containerId);
+        }
+        var newContainerId = startContainer(postContainer, container.getOwner(), 0);
+        log.info("Scaled up container {} with {}", containerId, newContainerId);
+        publishContainerEvent("POST /containers", newContainerId, Map.of("scaledFrom", containerId));
+        return newContainerId;
+    }
+
+    /**
+     * Remove and stop a container started by the autoscaler, publishing an Event and removing the owner's
+     * token as if it had been removed via the API.
+     */
+    private void scaleDownContainer(String containerId) {
+        var container = unregisterContainer(containerId);
+        if (container == null) return;
+        containerClient.stopContainer(containerId);
+        removeContainerToken(container.getOwner(), containerId);
+        log.info("Scaled down container {}", containerId);
+        publishContainerEvent("DELETE /containers/" + containerId, containerId, Map.of("reason", "scaled down"));
+    }
+
+    /**
+     * Wait for one second, or until the container client reports a container as ready or failed.
+     */
+    private void waitForContainerState() {
+        try {
+            synchronized (containerStateMonitor) {
+                containerStateMonitor.wait(1000);
+            }
+        } catch (InterruptedException e) {
+            log.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the container from all collections and remove its user, but do not stop it. Only the caller
+     * that actually removed the container gets it, and should stop it.
+     *
+     * @return the removed container, or null if it had been removed already
+     */
+    private AgentContainer unregisterContainer(String containerId) {
+        var container = revisions.containerRemoved(containerId, () -> runningContainers.remove(containerId));
+        if (container == null) return null;
+        startedContainers.remove(containerId);
+        validators.remove(containerId);
+        resultCache.remove(containerId);
+        messageBatcher.discard(containerId);
+        autoscaler.remove(containerId);
+        userDetailsService.removeUser(containerId);
+        return container;
+    }
+
+    /**
+     * Called by the container client when it detects that the state of a container changed.
+     */
+    private void onContainerStateChanged(String containerId, ContainerClient.ContainerState state, String reason) {
+        if (state == ContainerClient.ContainerState.READY || state == ContainerClient.ContainerState.FAILED) {
+            synchronized (containerStateMonitor) {
+                containerStateMonitor.notifyAll();
+            }
+        }
+        if (state == ContainerClient.ContainerState.FAILED && warmPool.remove(containerId)) {
+            failureExecutor.execute(() -> {
+                try {
+                    stopPooledContainer(containerId);
+                } catch (Exception e) {
+                    log.warn("Failed to stop failed container {} of warm pool: {}", containerId, e.getMessage());
+                }
+            });
+            return;
+        }
+        // containers still starting are stopped by addContainer itself
+        if (state == ContainerClient.ContainerState.FAILED && runningContainers.containsKey(containerId)
+                && config.containerFailurePolicy != PlatformConfig.ContainerFailurePolicy.IGNORE) {
+            failureExecutor.execute(() -> handleContainerFailure(containerId, reason));
+        }
+    }
+
+    /**
+     * Remove a failed container, and start a new container from the same request and for the same owner
+     * if the failure policy says so. The new container gets a new container ID. Both changes are published
+     * as Events, the same as if the container had been removed and added via the API.
+     */
+    private void handleContainerFailure(String containerId, String reason) {
+        var postContainer = startedContainers.get(containerId);
+        var container = unregisterContainer(containerId);
+        if (container == null) return;
+        log.warn("Container {} failed ({}), applying failure policy {}", containerId, reason, config.containerFailurePolicy);
+        try {
+            containerClient.stopContainer(containerId);
+        } catch (Exception e) {
+            log.warn("Failed to stop failed container {}: {}", containerId, e.getMessage());
+        }
+        removeContainerToken(container.getOwner(), containerId);
+        publishContainerEvent("DELETE /containers/" + containerId, containerId, Map.of("reason", String.valueOf(reason)));
+        if (config.containerFailurePolicy == PlatformConfig.ContainerFailurePolicy.RESTART && postContainer != null) {
+            try {
+                var newContainerId = startContainer(postContainer, container.getOwner(), 0);
+                log.info("Restarted failed container {} as {}", containerId, newContainerId);
+                publishContainerEvent("POST /containers", newContainerId, Map.of("restartOf", containerId));
+            } catch (Exception e) {
+                log.error("Failed to restart failed container {}: {}", containerId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Remove the owner's container login token for the container, if any, as when removing it via the API.
+     */
+    private void removeContainerToken(String owner, String containerId) {
+        try {
+            if (owner != null && ! owner.isEmpty()) {
+                userDetailsService.removeContainerToken(owner, containerId);
+            }
+        } catch (Exception e) {
+            log.debug("Failed to remove container token of {}: {}", owner, e.getMessage());
+        }
+    }
+
+    /**
+     * Publish a SUCCESS Event for a change to the containers that was not requested via the API, e.g. when
+     * removing a failed container, so that subscribers, e.g. connected platforms, learn about it.
+     */
+    private void publishContainerEvent(String route, String containerId, Map<String, Object> details) {
+        eventsFilter.publishEvent(Event.success(route, containerId, details));
+    }
+
     /*
      * CONNECTIONS ROUTES
      */
@@ -410,8 +899,8 @@ public class PlatformImpl implements RuntimePlatformApi {
         openConnectionWebsocket(url, token);
 
         // store connection if all the above steps succeeded
-        connectedPlatforms.put(url, info);
         tokens.put(url, token);
+        revisions.otherChanged(() -> connectedPlatforms.put(url, info));
         return true;
     }
 
@@ -425,13 +914,13 @@ public class PlatformImpl implements RuntimePlatformApi {
         var url = normalizeString(disconnect.getUrl());
         checkUrl(url);
         if (connectedPlatforms.containsKey(url)) {
-            connectedPlatforms.remove(url);
+            revisions.otherChanged(() -> connectedPlatforms.remove(url));
             tokens.remove(url);
             userDetailsService.removeUser(url);
             if (connectionWebsockets.containsKey(url)) {
-                var ws = connectionWebsockets.remove(url);
-                ws.sendClose(1000, "disconnected");
+                connectionWebsockets.remove(url).close();
             }
+            rpcChannels.remove(url);
             // disconnect other?
             if (disconnect.isConnectBack()) {
                 var client = getPlatformClient(url, disconnect.getToken());
@@ -451,16 +940,23 @@ public class PlatformImpl implements RuntimePlatformApi {
             var msg = String.format("Container did not exist: %s", containerId);
             throw new NoSuchElementException(msg);
         }
+        // actions or their results may have changed, in any case
+        resultCache.invalidate(containerId);
+        var id = containerId;
         try {
             var client = this.getClient(containerId, tokens.get(containerId));
             var containerInfo = client.getContainerInfo();
-            containerInfo.setConnectivity(runningContainers.get(containerId).getConnectivity());
-            runningContainers.put(containerId, containerInfo);
+            // derived attributes are not known to the container itself, e.g. the owner of a claimed pooled container
+            var previous = runningContainers.get(containerId);
+            containerInfo.setConnectivity(previous.getConnectivity());
+            containerInfo.setOwner(previous.getOwner());
             validators.put(containerId, new ArgumentValidator(containerInfo.getImage()));
+            revisions.containerChanged(containerId, () -> runningContainers.put(id, containerInfo));
             return true;
         } catch (IOException e) {
             log.warn("Container did not respond: {}; removing...", containerId);
-            runningContainers.remove(containerId);
+            revisions.containerRemoved(containerId, () -> runningContainers.remove(id));
+            resultCache.remove(containerId);
             return false;
         }
     }
@@ -477,14 +973,26 @@ public class PlatformImpl implements RuntimePlatformApi {
             var msg = String.format("Platform was not connected: %s", platformUrl);
             throw new NoSuchElementException(msg);
         }
+        var client = getPlatformClient(platformUrl);
+        var current = connectedPlatforms.get(platformUrl);
+        try {
+            var delta = client.getPlatformInfoDelta(current.getRevision());
+            // if the platform was restarted in the meantime, the revisions are not comparable
+            if (delta.getPlatformId().equals(current.getPlatformId())) {
+                connectedPlatforms.put(platformUrl, applyDelta(current, delta));
+                return true;
+            }
+        } catch (IOException e) {
+            log.debug("Could not get delta from platform {}, getting full info: {}", platformUrl, e.getMessage());
+        }
         try {
-            var client = getPlatformClient(platformUrl);
             var platformInfo = client.getPlatformInfo();
             connectedPlatforms.put(platformUrl, platformInfo);
             return true;
         } catch (IOException e) {
             log.warn("Platform did not respond: {}; removing...", platformUrl);
-            connectedPlatforms.remove(platformUrl);
+            var url = platformUrl;
+            revisions.otherChanged(() -> connectedPlatforms.remove(url));
             return false;
         }
     }
@@ -511,17 +1019,156 @@ public class PlatformImpl implements RuntimePlatformApi {
     }
 
     /**
-     * Create Websocket connection and associate it with the connected platform's URL, to be closed when disconnected
+     * Create Websocket connection and associate it with the connected platform's URL, to be closed when disconnected.
+     * Updates triggered by the websocket are debounced and coalesced, so that bursts of changes on the connected
+     * platform result in only few updates.
      */
     private void openConnectionWebsocket(String url, String token) {
+        WebSocketConnector.MessageListener listener = msg -> platformUpdates.request(url, () -> updatePlatformIfConnected(url));
+        var subscriber = config.platformRpc
+                ? new WebSocketRpcChannel(url, token, "/containers", listener)
+                : new EventSubscriber(url, token, "/containers", listener);
+        // missed events are resumed after reconnecting, but may no longer be in the other platform's history
+        subscriber.setOnReconnect(() -> platformUpdates.request(url, () -> updatePlatformIfConnected(url)));
         try {
-            var res = WebSocketConnector.subscribe(url, token, "/containers", msg -> notifyUpdatePlatform(url));
-            connectionWebsockets.put(url, res.get());
+            subscriber.connect().get();
+            var previous = connectionWebsockets.put(url, subscriber);
+            if (previous != null) previous.close();
+            if (subscriber instanceof WebSocketRpcChannel channel) {
+                rpcChannels.put(url, channel);
+            }
         } catch (ExecutionException | InterruptedException e) {
             log.warn("Failed to establish websocket connection to {}", url);
         }
     }
 
+    /**
+     * Update the information on the connected platform, unless it has been disconnected in the meantime.
+     */
+    private void updatePlatformIfConnected(String url) {
+        if (connectedPlatforms.containsKey(url)) {
+            try {
+                notifyUpdatePlatform(url);
+            } catch (Exception e) {
+                log.warn("Failed to update connected platform {}: {}", url, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Apply the changes of the delta to the given previously fetched platform info, returning a new
+     * platform info. If the delta could not be computed for the known revision, all containers are
+     * replaced by those in the delta.
+     */
+    private RuntimePlatform applyDelta(RuntimePlatform platform, PlatformDelta delta) {
+        return new RuntimePlatform(
+                platform.getPlatformId(),
+                platform.getBaseUrl(),
+                delta.applyTo(platform.getContainers()),
+                delta.getProvides(),
+                delta.getConnections(),
+                platform.getRunningSince(),
+                delta.getRevision()
+        );
+    }
+
+    /**
+     * Send or broadcast the message via the given match's client, or add it to the batch for the respective
+     * container if message batching is enabled. Messages to connected platforms are never batched.
+     */
+    private void sendOrBatch(ClientMatch match, AddressedMessage message, String containerId) throws IOException {
+        if (messageBatcher.isEnabled() && ! match.isPlatformMatch()) {
+            messageBatcher.add(match.actualContainerId, match.getClient(), message);
+        } else if (message.getAgentId() != null) {
+            match.getClient().send(message.getAgentId(), message.getMessage(), containerId, match.isForwardFurther());
+        } else {
+            match.getClient().broadcast(message.getChannel(), message.getMessage(), containerId, match.isForwardFurther());
+        }
+    }
+
+    /**
+     * Invoke the action via the given match's client, taking the result from the cache instead, if
+     * the matched action is cacheable and a result for the same parameters is cached. If the action
+     * is free of side effects, concurrent identical invocations share a single call to the container.
+     * This only applies to containers on this platform, as connected platforms may do so themselves.
+     */
+    private JsonNode invokeCached(ClientMatch match, String action, Map<String, JsonNode> parameters, String agentId, int timeout, String containerId) throws IOException {
+        var matchedAction = match.getMatchedAction();
+        if (match.isPlatformMatch()) {
+            return match.getClientForUser().invoke(action, parameters, agentId, timeout, containerId, match.isForwardFurther());
+        }
+        if (! InvokeCoalescer.isCoalescable(matchedAction)) {
+            return invokeTracked(match.actualContainerId,
+                    () -> match.getClientForUser().invoke(action, parameters, agentId, timeout, containerId, match.isForwardFurther()));
+        }
+        var key = ResultCache.makeKey(agentId, parameters, match.getContainerLoginToken());
+        var result = ResultCache.isCacheable(matchedAction)
+                ? resultCache.get(match.actualContainerId, matchedAction, key)
+                : null;
+        if (result == null) {
+            // invocations started before the container was updated are neither joined nor cached
+            var generation = resultCache.getGeneration(match.actualContainerId);
+            result = invokeCoalescer.invoke(match.actualContainerId + "/" + generation + "/" + matchedAction.getName() + "/" + key,
+                    () -> invokeTracked(match.actualContainerId,
+                            () -> match.getClientForUser().invoke(action, parameters, agentId, timeout, containerId, false)));
+            resultCache.put(match.actualContainerId, matchedAction, key, result, generation);
+        }
+        return result;
+    }
+
+    /**
+     * Take the results of cacheable invocations of a container on this platform from the cache, where possible,
+     * and get the indices of the invocations still to be sent, noting the cache keys of those to be cached.
+     */
+    private List<Integer> getUncached(List<Integer> indices, List<Invocation> invocations, ClientMatch[] matches,
+                                      String[] cacheKeys, InvocationResult[] results) {
+        var loginToken = matches[indices.get(0)].getContainerLoginToken();
+        List<Integer> uncached = new ArrayList<>();
+        for (int i : indices) {
+            var match = matches[i];
+            var action = match.getMatchedAction();
+            if (ResultCache.isCacheable(action)) {
+                var inv = invocations.get(i);
+                cacheKeys[i] = ResultCache.makeKey(inv.getAgentId(), inv.getParameters(), loginToken);
+                var cached = resultCache.get(match.actualContainerId, action, cacheKeys[i]);
+                if (cached != null) {
+                    results[i] = InvocationResult.success(cached);
+                    continue;
+                }
+            }
+            uncached.add(i);
+        }
+        return uncached;
+    }
+
+    /**
+     * Invoke an action of a container on this platform, keeping track of the invocations in flight and their
+     * latency for the autoscaler.
+     */
+    private JsonNode invokeTracked(String containerId, InvokeCoalescer.Invocation invocation) throws IOException {
+        autoscaler.begin(containerId, 1);
+        long start = System.nanoTime();
+        try {
+            return invocation.call();
+        } finally {
+            autoscaler.end(containerId, 1, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Invoke a batch of actions of a container on this platform, tracking each invocation in the batch for
+     * the autoscaler, with the latency of the entire batch.
+     */
+    private List<InvocationResult> invokeBatchTracked(String containerId, int size, Callable<List<InvocationResult>> batch) throws Exception {
+        autoscaler.begin(containerId, size);
+        long start = System.nanoTime();
+        try {
+            return batch.call();
+        } finally {
+            autoscaler.end(containerId, size, System.nanoTime() - start);
+        }
+    }
+
     /**
      * Iterate over the provided ClientMatch stream, applying the given processor to all that are a full match.
      * The result of the first successful processor is returned.
@@ -542,17 +1189,25 @@ public class PlatformImpl implements RuntimePlatformApi {
         ClientMatch mismatchedParamsClient = null;
         IOException lastException = null;
 
-        for (ClientMatch match: (Iterable<? extends ClientMatch>) clientMatches::iterator) {
-            if (match.isFullMatch()) {
-                try {
-                    return callback.apply(match);
-                } catch (IOException e) {
-                    log.warn("Exception from container", e);
-                    lastException = e;
+        // the routing span covers finding the first match, including the validation of the arguments
+        var routing = Span.start("routing", Span.Kind.INTERNAL);
+        try {
+            for (ClientMatch match: (Iterable<? extends ClientMatch>) clientMatches::iterator) {
+                if (match.isFullMatch()) {
+                    routing.attribute("opaca.target", match.isPlatformMatch() ? match.platformUrl : match.actualContainerId)
+                            .close();
+                    try {
+                        return callback.apply(match);
+                    } catch (IOException e) {
+                        log.warn("Exception from container", e);
+                        lastException = e;
+                    }
+                } else if (match.isParamsMismatch()) {
+                    mismatchedParamsClient = match;
                 }
-            } else if (match.isParamsMismatch()) {
-                mismatchedParamsClient = match;
             }
+        } finally {
+            routing.close();
         }
 
         if (lastException != null) {
@@ -580,23 +1235,90 @@ public class PlatformImpl implements RuntimePlatformApi {
     private Stream<ClientMatch> getClients(String containerId, String agentId, String action, Map<String, JsonNode> parameters, String stream, boolean includeConnected) {
         // var clients = new HashMap<ApiProxy, MatchResult>();
 
-        var localMatches = runningContainers.values().stream().map(container -> {
-            var client = getClient(container.getContainerId(), tokens.get(container.getContainerId()));
-            return new ClientMatch(containerId, agentId, action, parameters, stream)
-                    .makeContainerMatch(container, client);
-        });
+        // containers with fewer invocations in flight first, e.g. spreading the load over scaled-up containers
+        var localMatches = runningContainers.values().stream()
+                .sorted(Comparator.comparingInt(c -> autoscaler.getInFlight(c.getContainerId())))
+                .map(container -> {
+                    var client = getClient(container.getContainerId(), tokens.get(container.getContainerId()));
+                    return new ClientMatch(containerId, agentId, action, parameters, stream)
+                            .makeContainerMatch(container, client);
+                });
 
         if (!includeConnected) return localMatches;
 
-        var platformMatches = connectedPlatforms.entrySet().stream().map(entry -> {
-            var client = getPlatformClient(entry.getKey(), tokens.get(entry.getKey()));
+        // do not forward to platforms the call already passed, or beyond the hop limit
+        var visited = getVisitedPlatforms();
+        if (visited.contains(config.getOwnBaseUrl()) || visited.size() >= meshRouter.getMaxHops()) return localMatches;
+
+        var platformMatches = getPlatformRoutes(visited).stream().map(route -> {
+            var client = getPlatformClient(route.getVia(), tokens.get(route.getVia()));
+            if (route.getHops() > 1) {
+                var path = new ArrayList<>(visited);
+                path.add(config.getOwnBaseUrl());
+                client.withExtraHeaders(Map.of(RuntimePlatformApi.HEADER_VISITED_PLATFORMS, String.join(",", path)));
+            }
             return new ClientMatch(containerId, agentId, action, parameters, stream)
-                    .makePlatformMatch(entry.getValue(), client);
+                    .makePlatformMatch(route, getContainers(route), client);
         });
 
         return Stream.concat(localMatches, platformMatches);
     }
 
+    /**
+     * Get routes to directly connected platforms and, if enabled, platforms more than one hop away, within
+     * the remaining hop limit and not passing any of the already visited platforms, ordered by cost.
+     */
+    private List<PlatformRoute> getPlatformRoutes(List<String> visited) {
+        var routes = new ArrayList<PlatformRoute>();
+        connectedPlatforms.forEach((url, info) -> {
+            if (! visited.contains(url)) {
+                routes.add(new PlatformRoute(url, url, 1, meshRouter.getLatency(url), info.getRevision()));
+            }
+        });
+        for (var route : meshRouter.getRoutes()) {
+            if (route.getHops() > 1 && route.getHops() <= meshRouter.getMaxHops() - visited.size()
+                    && connectedPlatforms.containsKey(route.getVia())
+                    && ! visited.contains(route.getVia()) && ! visited.contains(route.getPlatformUrl())) {
+                routes.add(route);
+            }
+        }
+        routes.sort(MeshRouter.COST);
+        return routes;
+    }
+
+    /**
+     * Get the containers of the platform at the end of the route, as last fetched.
+     */
+    private List<AgentContainer> getContainers(PlatformRoute route) {
+        if (route.getHops() > 1) {
+            return meshRouter.getContainers(route.getPlatformUrl());
+        }
+        var info = connectedPlatforms.get(route.getPlatformUrl());
+        return info != null ? info.getContainers() : List.of();
+    }
+
+    /**
+     * Get the platforms the current call has already passed, as given in the respective header, if any.
+     */
+    private List<String> getVisitedPlatforms() {
+        var headers = callHeaders.get();
+        if (headers != null) {
+            var header = headers.get(RuntimePlatformApi.HEADER_VISITED_PLATFORMS);
+            return header != null && ! header.isBlank() ? List.of(header.split(",")) : List.of();
+        }
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            var header = attributes.getRequest().getHeader(RuntimePlatformApi.HEADER_VISITED_PLATFORMS);
+            if (header != null && ! header.isBlank()) {
+                return List.of(header.split(","));
+            }
+        }
+        return List.of();
+    }
+
+    private void updateRoutes() {
+        meshRouter.update(Map.copyOf(connectedPlatforms), url -> getPlatformClient(url, tokens.get(url)));
+    }
+
     /**
      * Get Stream of all Agents on this platform or on this and connected platforms.
      */
@@ -610,7 +1332,7 @@ public class PlatformImpl implements RuntimePlatformApi {
 
     private ApiProxy getClient(String containerId, String token) {
         var url = containerClient.getUrl(containerId);
-        return new ApiProxy(url, config.getOwnBaseUrl(), token);
+        return new ApiProxy(url, config.getOwnBaseUrl(), token).withEncoding(config.containerEncoding);
     }
 
     private ApiProxy getPlatformClient(String url) {
@@ -618,7 +1340,38 @@ public class PlatformImpl implements RuntimePlatformApi {
     }
 
     private ApiProxy getPlatformClient(String url, String token) {
-        return new ApiProxy(url, config.getOwnBaseUrl(), token);
+        var channel = rpcChannels.get(url);
+        return channel != null && channel.isReady()
+                ? new WebSocketApiProxy(url, config.getOwnBaseUrl(), token, channel)
+                : new ApiProxy(url, config.getOwnBaseUrl(), token);
+    }
+
+    /**
+     * Execute a call received via websocket instead of HTTP, with the headers that came with it.
+     */
+    <T> T withHeaders(Map<String, String> headers, Callable<T> call) throws Exception {
+        callHeaders.set(headers != null ? headers : Map.of());
+        try {
+            return call.call();
+        } finally {
+            callHeaders.remove();
+        }
+    }
+
+    /**
+     * Create error response for individual failed invocation in a batch, using the same status codes
+     * as the Rest Controller would use for the respective exception in case of a single invocation.
+     */
+    static ErrorResponse makeErrorResponse(Exception e) {
+        var status = switch (e) {
+            case NoSuchElementException x -> HttpStatus.NOT_FOUND;
+            case IllegalArgumentException x -> HttpStatus.BAD_REQUEST;
+            case JsonProcessingException x -> HttpStatus.UNPROCESSABLE_ENTITY;
+            case ResponseStatusException x -> HttpStatus.valueOf(x.getStatusCode().value());
+            default -> HttpStatus.BAD_GATEWAY;
+        };
+        var nested = e instanceof RequestException re ? re.getNestedError() : ErrorResponse.from(e.getCause());
+        return new ErrorResponse(status.value(), e.getMessage(), nested);
     }
 
     private String normalizeString(String string) {
@@ -683,6 +1436,21 @@ public class PlatformImpl implements RuntimePlatformApi {
         // the actual containerId this client is using, or null for platform client
         private String actualContainerId = null;
 
+        // whether this is a match for a connected platform instead of a local container
+        @Getter
+        private boolean platformMatch = false;
+
+        // the destination platform's URL, for platform matches
+        private String platformUrl = null;
+
+        // whether the call has to be forwarded further by the next platform, for routes over more than one hop
+        @Getter
+        private boolean forwardFurther = false;
+
+        // the action matching name and parameters, if any
+        @Getter
+        private Action matchedAction = null;
+
         @Getter
         private ApiProxy client = null;
 
@@ -721,11 +1489,14 @@ public class PlatformImpl implements RuntimePlatformApi {
         }
 
         /**
-         * Check if the given platform fulfills the matching parameters.
+         * Check if the platform at the end of the given route fulfills the matching parameters.
          */
-        public ClientMatch makePlatformMatch(RuntimePlatform runtimePlatform, ApiProxy client) {
+        public ClientMatch makePlatformMatch(PlatformRoute route, List<AgentContainer> containers, ApiProxy client) {
             this.client = client;
-            for (var container : runtimePlatform.getContainers()) {
+            this.platformMatch = true;
+            this.platformUrl = route.getPlatformUrl();
+            this.forwardFurther = route.getHops() > 1;
+            for (var container : containers) {
                 makeContainerMatch(container, null);
             }
             return this;
@@ -771,12 +1542,21 @@ public class PlatformImpl implements RuntimePlatformApi {
         }
 
         private boolean checkParamsMatch(Action action) {
-            if (actionArgs != null && (validator == null || validator.isArgsValid(action.getParameters(), actionArgs))) {
+            if (actionArgs != null && (validator == null || isArgsValid(action))) {
                 paramsMatch = true;
+                matchedAction = action;
             }
             return paramsMatch;
         }
 
+        private boolean isArgsValid(Action action) {
+            try (var span = Span.start("validation", Span.Kind.INTERNAL)) {
+                var valid = validator.isArgsValid(action.getParameters(), actionArgs);
+                span.attribute("opaca.action", action.getName()).attribute("opaca.valid", valid);
+                return valid;
+            }
+        }
+
         private boolean checkStreamMatch(AgentDescription agent) {
             for (var stream : agent.getStreams()) {
                 if (stream.getName().equals(streamName)) {
@@ -787,12 +1567,18 @@ public class PlatformImpl implements RuntimePlatformApi {
             return streamMatch;
         }
 
+        public String getContainerLoginToken() {
+            return actualContainerId != null
+                    ? userDetailsService.getContainerToken(getUser(), actualContainerId)
+                    : null;
+        }
+
         public ApiProxy getClientForUser() {
             // redirect to another platform
             if (actualContainerId == null) {
                 return client;
             }
-            var containerLoginToken = userDetailsService.getContainerToken(getUser(), actualContainerId);
+            var containerLoginToken = getContainerLoginToken();
             // not logged in to container
             if (containerLoginToken == null) {
                 return client;
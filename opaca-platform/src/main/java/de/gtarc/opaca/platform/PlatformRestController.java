@@ -154,6 +154,32 @@ public class PlatformRestController implements ApplicationListener<ApplicationRe
 		return implementation.getPlatformInfo();
 	}
 
+	@RequestMapping(value="/info", params="sinceRevision", method=RequestMethod.GET)
+	@Operation(summary="Get changes to this Runtime Platform's containers since the given revision", tags={"info"})
+	public PlatformDelta getPlatformInfoDelta(
+			@RequestParam long sinceRevision
+	) throws IOException {
+		log.info("GET /info?sinceRevision={}", sinceRevision);
+		return implementation.getPlatformInfoDelta(sinceRevision);
+	}
+
+	@RequestMapping(value="/info", params={"sinceRevision", "platformUrl"}, method=RequestMethod.GET)
+	@Operation(summary="Get changes to the containers of another platform reachable via this one", tags={"info"})
+	public PlatformDelta getPlatformInfoDelta(
+			@RequestParam long sinceRevision,
+			@RequestParam String platformUrl
+	) throws IOException {
+		log.info("GET /info?sinceRevision={}&platformUrl={}", sinceRevision, platformUrl);
+		return implementation.getPlatformInfoDelta(sinceRevision, platformUrl);
+	}
+
+	@RequestMapping(value="/routes", method=RequestMethod.GET)
+	@Operation(summary="Get routes to other platforms reachable via this Runtime Platform", tags={"info"})
+	public List<PlatformRoute> getRoutes() throws IOException {
+		log.info("GET /routes");
+		return implementation.getRoutes();
+	}
+
 	@RequestMapping(value="/config", method=RequestMethod.GET)
 	@Operation(summary="Get Configuration of this Runtime Platform", tags={"info"})
 	public Map<String, ?> getPlatformConfig() throws IOException {
@@ -161,11 +187,29 @@ public class PlatformRestController implements ApplicationListener<ApplicationRe
 		return implementation.getPlatformConfig();
 	}
 
+	@RequestMapping(value="/stats", method=RequestMethod.GET)
+	@Operation(summary="Get statistics of this Runtime Platform, e.g. result cache usage", tags={"info"})
+	public Map<String, ?> getPlatformStatistics() throws IOException {
+		log.info("GET /stats");
+		return implementation.getPlatformStatistics();
+	}
+
 	@RequestMapping(value="/history", method=RequestMethod.GET)
-	@Operation(summary="Get history on this Runtime Platform", tags={"info"})
-	public List<Event> getHistory() throws IOException {
-		log.info("GET /history");
-		return implementation.getHistory();
+	@Operation(summary="Get history on this Runtime Platform, optionally filtered, and from the persistent event log, if enabled", tags={"info"})
+	public List<Event> getHistory(
+			@RequestParam(required = false) Long from,
+			@RequestParam(required = false) Long to,
+			@RequestParam(required = false) Long since,
+			@RequestParam(required = false) String route,
+			@RequestParam(required = false) Event.EventType eventType,
+			@RequestParam(required = false) Integer limit
+	) throws IOException {
+		if (from == null && to == null && since == null && route == null && eventType == null && limit == null) {
+			log.info("GET /history");
+			return implementation.getHistory();
+		}
+		log.info("GET /history?from={}&to={}&since={}&route={}&eventType={}&limit={}", from, to, since, route, eventType, limit);
+		return implementation.getHistory(from, to, since, route, eventType, limit);
 	}
 
 	@RequestMapping(value="v3/api-docs/actions", method = RequestMethod.GET)
@@ -222,6 +266,17 @@ public class PlatformRestController implements ApplicationListener<ApplicationRe
 		implementation.broadcast(channel, message, containerId, forward);
 	}
 
+	@RequestMapping(value="/invoke", method=RequestMethod.POST)
+	@Operation(summary="Invoke a batch of actions, each at any or a specific agent", tags={"agents"})
+	public List<InvocationResult> invokeBatch(
+			@RequestBody List<Invocation> invocations,
+			@RequestParam(required = false, defaultValue = "-1") int timeout,
+			@RequestParam(required = false, defaultValue = "true") boolean forward
+	) throws IOException {
+		log.info("POST /invoke {}", invocations);
+		return implementation.invokeBatch(invocations, timeout, forward);
+	}
+
 	@RequestMapping(value="/invoke/{action}", method=RequestMethod.POST)
 	@Operation(summary="Invoke action at any agent that provides it", tags={"agents"})
 	public JsonNode invoke(
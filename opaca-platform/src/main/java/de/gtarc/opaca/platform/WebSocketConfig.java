@@ -1,24 +1,39 @@
 package de.gtarc.opaca.platform;
 
+import jakarta.annotation.PostConstruct;
 import lombok.extern.log4j.Log4j2;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+import org.springframework.web.util.UriComponentsBuilder;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 import org.springframework.web.socket.TextMessage;
-import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.CloseStatus;
-import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.PongMessage;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import com.fasterxml.jackson.core.type.TypeReference;
 import de.gtarc.opaca.model.Event;
+import de.gtarc.opaca.model.EventSubscription;
+import de.gtarc.opaca.platform.util.EventMatcher;
+import de.gtarc.opaca.platform.util.SessionSender;
+import de.gtarc.opaca.util.EventHistory;
 import de.gtarc.opaca.util.RestHelper;
 
 /**
@@ -31,62 +46,319 @@ import de.gtarc.opaca.util.RestHelper;
 @Log4j2
 public class WebSocketConfig implements WebSocketConfigurer {
 
-    private final Map<WebSocketSession, String> sessionTopics = new ConcurrentHashMap<>();
+    /** subscriptions of each session, either a single topic or a list of filters */
+    private final Map<WebSocketSession, EventMatcher> sessionMatchers = new ConcurrentHashMap<>();
+
+    /** index of sessions by first path segment of the routes they are subscribed to, so events do not have to be matched against all sessions */
+    private final Map<String, Set<WebSocketSession>> topicSessions = new ConcurrentHashMap<>();
+
+    /** outbound queue of each session; all messages are sent through these */
+    private final Map<WebSocketSession, SessionSender> senders = new ConcurrentHashMap<>();
 
     private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
 
+    /** interval for pinging all sessions, in seconds */
+    private static final int PING_INTERVAL_SEC = 10;
+
+    /** number of unanswered pings after which a session is closed */
+    private static final int MAX_MISSED_PONGS = 3;
+
+    /** session attribute holding the sequence number of the last event seen by the client, if resuming */
+    private static final String ATTRIBUTE_SINCE = "since";
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /** messages sent and events dropped by sessions already closed */
+    private final LongAdder closedSent = new LongAdder();
+    private final LongAdder closedDropped = new LongAdder();
+
+    /** topic for which events may be aggregated, as subscribers are only interested in the fact that something changed */
+    private static final String AGGREGATED_TOPIC = "/containers";
+
+    /** last event on the aggregated topic not yet sent, if aggregation is enabled */
+    private final AtomicReference<Event> pendingEvent = new AtomicReference<>();
+
+    @Autowired
+    private PlatformConfig config;
+
+    @Autowired @Lazy
+    private WebSocketRpcHandler rpcHandler;
+
+    @Autowired @Lazy
+    private EventsFilter eventsFilter;
+
+    /** maximum number of events replayed from the persistent event log, if enabled */
+    private static final int MAX_REPLAYED_EVENTS = 10000;
+
+    /** maximum size of incoming messages, e.g. calls from connected platforms */
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+    @PostConstruct
+    private void startPings() {
+        executorService.scheduleAtFixedRate(this::pingAll, PING_INTERVAL_SEC, PING_INTERVAL_SEC, TimeUnit.SECONDS);
+    }
+
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(new WebSocketHandler(), "/subscribe").setAllowedOrigins("*");
     }
 
+    @Bean
+    public ServletServerContainerFactoryBean createWebSocketContainer() {
+        var container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(MAX_MESSAGE_SIZE);
+        return container;
+    }
+
     /**
-     * Regularly ping the client, and interpret any incoming text message and new topic to subscribe to
+     * Keep track of open sessions, and interpret any incoming text message as new topic to subscribe to,
+     * as list of Event subscriptions (JSON array), or as a call to be executed, e.g. from a connected platform
      */
     public class WebSocketHandler extends TextWebSocketHandler {
 
         @Override
         public void afterConnectionEstablished(@NotNull WebSocketSession session) {
-            executorService.scheduleAtFixedRate(() -> send(session, new PingMessage()), 0, 10, TimeUnit.SECONDS);
+            senders.put(session, new SessionSender(session, config.websocketQueueSize, config.websocketOverflowPolicy));
+            var since = session.getUri() != null
+                    ? UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().getFirst(ATTRIBUTE_SINCE)
+                    : null;
+            if (since != null) {
+                try {
+                    session.getAttributes().put(ATTRIBUTE_SINCE, Long.parseLong(since));
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid sequence number to resume from: {}", since);
+                }
+            }
+            opened.increment();
             log.info("New WebSocket Connection established");
         }
 
         @Override
         protected void handleTextMessage(@NotNull WebSocketSession session, TextMessage message) {
-            String topic = message.getPayload();
-            sessionTopics.put(session, topic);
-            log.info("New subscription for topic {}", topic);
+            if (rpcHandler.isCall(message.getPayload())) {
+                rpcHandler.handleCall(session, message.getPayload());
+                return;
+            }
+            String payload = message.getPayload();
+            EventMatcher matcher;
+            if (payload.startsWith("[")) {
+                try {
+                    List<EventSubscription> subscriptions = RestHelper.readObject(payload, new TypeReference<>(){});
+                    matcher = new EventMatcher(subscriptions);
+                    log.info("New subscription for {} filters", subscriptions.size());
+                } catch (IOException e) {
+                    log.warn("Received malformed subscriptions: {}", e.getMessage());
+                    return;
+                }
+            } else {
+                matcher = EventMatcher.forTopic(payload);
+                log.info("New subscription for topic {}", payload);
+            }
+            unsubscribe(session);
+            // resume only with the first subscription, otherwise events would be sent again
+            var since = (Long) session.getAttributes().remove(ATTRIBUTE_SINCE);
+            var sender = senders.get(session);
+            if (since != null && sender != null) {
+                sender.beginReplay();
+                try {
+                    subscribe(session, matcher);
+                } finally {
+                    sender.endReplay(replay(sender, matcher, since));
+                }
+            } else {
+                subscribe(session, matcher);
+            }
+        }
+
+        @Override
+        protected void handlePongMessage(@NotNull WebSocketSession session, @NotNull PongMessage message) {
+            var sender = senders.get(session);
+            if (sender != null) sender.onPong(message);
         }
 
         @Override
         public void afterConnectionClosed(@NotNull WebSocketSession session, @NotNull CloseStatus status) {
-            sessionTopics.remove(session);
+            remove(session, status);
             log.info("Websocket connection closed");
         }
     }
 
     /**
-     * Broadcast event to all clients subscribed to the given topic.
+     * Ping all open sessions, closing those that did not respond to the last few pings. This is done in a
+     * single task for all sessions instead of scheduling a task for each session.
      */
-    public void broadcastEvent(String topic, Event event) {
-        log.debug("Broadcasting event to topic {}", topic);
-        for (WebSocketSession session : sessionTopics.keySet()) {
-            if (topic.equals(sessionTopics.get(session))) {
+    private void pingAll() {
+        senders.forEach((session, sender) -> {
+            if (! session.isOpen()) {
+                // should have been removed already, but just in case the close was not handled
+                remove(session, CloseStatus.SESSION_NOT_RELIABLE);
+            } else if (sender.ping() >= MAX_MISSED_PONGS) {
+                log.warn("Closing websocket session {}: no response to pings", session.getId());
+                evicted.increment();
+                remove(session, CloseStatus.SESSION_NOT_RELIABLE);
+            }
+        });
+    }
+
+    private void remove(WebSocketSession session, CloseStatus status) {
+        unsubscribe(session);
+        var sender = senders.remove(session);
+        if (sender != null) {
+            sender.close(status);
+            closed.increment();
+            closedSent.add(sender.getSent());
+            closedDropped.add(sender.getDropped());
+        }
+    }
+
+    private void subscribe(WebSocketSession session, EventMatcher matcher) {
+        sessionMatchers.put(session, matcher);
+        for (String key : matcher.getIndexKeys()) {
+            topicSessions.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(session);
+        }
+    }
+
+    /**
+     * Send the matching events from the history, or the persistent event log, if enabled, after the given one
+     * to the session, returning the sequence number of the last event in the history at that time.
+     */
+    private long replay(SessionSender sender, EventMatcher matcher, long since) {
+        var history = EventHistory.getInstance();
+        var last = history.getLastSequence();
+        if (since > last) {
+            // the platform has been restarted since the client has seen that event
+            since = 0;
+        }
+        var eventLog = eventsFilter.getEventLog();
+        var events = eventLog != null
+                ? eventLog.query(null, null, since, null, MAX_REPLAYED_EVENTS)
+                : history.getEventsSince(since);
+        int count = 0;
+        for (Event event : events) {
+            // forward events are only kept in the history, but never sent to subscribers
+            if (event.getEventType() == Event.EventType.FORWARD) continue;
+            if (matcher.matches(EventMatcher.Target.of(event))) {
                 try {
-                    log.debug("Sending new message...");
-                    send(session, new TextMessage(RestHelper.writeJson(event)));
-                } catch (Exception e) {
-                    log.warn("Error broadcasting message: {}", e.getMessage());
+                    sender.replayEvent(new TextMessage(RestHelper.writeJson(event)));
+                    count++;
+                } catch (IOException e) {
+                    log.warn("Error replaying event: {}", e.getMessage());
                 }
             }
         }
+        log.info("Replayed {} events since {}", count, since);
+        return events.isEmpty() ? since : events.get(events.size() - 1).getSequence();
+    }
+
+    private void unsubscribe(WebSocketSession session) {
+        var matcher = sessionMatchers.remove(session);
+        if (matcher != null) {
+            // empty sets are kept, as the same topics are usually subscribed to again
+            matcher.getIndexKeys().forEach(key -> topicSessions.getOrDefault(key, Set.of()).remove(session));
+        }
+    }
+
+    /**
+     * Broadcast event to all clients subscribed to it. If an aggregation window is configured, SUCCESS
+     * events on the "/containers" topic are collected and only the last event of each window is sent.
+     * This only queues the event for each subscriber and does not wait for it to be actually sent.
+     */
+    public void broadcastEvent(Event event) {
+        var target = EventMatcher.Target.of(event);
+        if (target.indexKey().equals(AGGREGATED_TOPIC) && event.getEventType() == Event.EventType.SUCCESS
+                && config.containerEventsWindowMs > 0) {
+            if (pendingEvent.getAndSet(event) == null) {
+                executorService.schedule(() -> sendEvent(EventMatcher.Target.of(pendingEvent.getAndSet(null))),
+                        config.containerEventsWindowMs, TimeUnit.MILLISECONDS);
+            }
+        } else {
+            sendEvent(target);
+        }
     }
 
-    private void send(WebSocketSession session, WebSocketMessage<?> message) {
+    private void sendEvent(EventMatcher.Target target) {
+        var keySessions = topicSessions.getOrDefault(target.indexKey(), Set.of());
+        var anySessions = topicSessions.getOrDefault(EventMatcher.ANY_SEGMENT, Set.of());
+        if (keySessions.isEmpty() && anySessions.isEmpty()) return;
+        log.debug("Broadcasting event for route {}", target.event().getRoute());
+        // serialize lazily, and just once for all subscribers
+        TextMessage message = null;
+        for (WebSocketSession session : keySessions) {
+            message = sendEvent(session, target, message);
+        }
+        for (WebSocketSession session : anySessions) {
+            var matcher = sessionMatchers.get(session);
+            // sessions in both sets have already been handled
+            if (matcher != null && ! matcher.getIndexKeys().contains(target.indexKey())) {
+                message = sendEvent(session, target, message);
+            }
+        }
+    }
+
+    private TextMessage sendEvent(WebSocketSession session, EventMatcher.Target target, TextMessage message) {
+        var matcher = sessionMatchers.get(session);
+        var sender = senders.get(session);
+        if (matcher == null || sender == null || ! matcher.matches(target)) return message;
         try {
-            session.sendMessage(message);
+            if (message == null) {
+                message = new TextMessage(RestHelper.writeJson(target.event()));
+            }
+            sender.sendEvent(message, target.event().getSequence());
         } catch (IOException e) {
-            log.warn("Error sending message: {}", e.getMessage());
+            log.warn("Error broadcasting message: {}", e.getMessage());
+        }
+        return message;
+    }
+
+    public Map<String, Object> getStatistics() {
+        long queued = 0, sent = closedSent.sum(), dropped = closedDropped.sum(), latencySum = 0, latencyMax = 0, latencyCount = 0;
+        for (SessionSender sender : senders.values()) {
+            queued += sender.getQueued();
+            sent += sender.getSent();
+            dropped += sender.getDropped();
+            var latency = sender.getPingLatencyMicros();
+            if (latency >= 0) {
+                latencySum += latency;
+                latencyMax = Math.max(latencyMax, latency);
+                latencyCount++;
+            }
+        }
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("connections", senders.size());
+        res.put("subscriptions", sessionMatchers.size());
+        res.put("opened", opened.sum());
+        res.put("closed", closed.sum());
+        res.put("evicted", evicted.sum());
+        res.put("queued", queued);
+        res.put("sent", sent);
+        res.put("dropped", dropped);
+        res.put("pingLatencyAvgMs", latencyCount > 0 ? latencySum / latencyCount / 1000.0 : 0.0);
+        res.put("pingLatencyMaxMs", latencyMax / 1000.0);
+        return res;
+    }
+
+    /**
+     * Block until at most the given number of messages are queued for the session but not yet sent.
+     *
+     * @return whether the session is still open
+     */
+    public boolean awaitQueued(WebSocketSession session, int maxQueued) throws InterruptedException {
+        var sender = senders.get(session);
+        return sender != null && sender.awaitQueued(maxQueued);
+    }
+
+    /**
+     * Send a message that must not be dropped, e.g. the response to a call, to the session. The message
+     * is queued and sent asynchronously, in order with other messages to the same session.
+     */
+    public void sendControl(WebSocketSession session, TextMessage message) {
+        var sender = senders.get(session);
+        if (sender != null) {
+            sender.sendControl(message);
+        } else {
+            log.warn("Cannot send message, websocket session {} already closed", session.getId());
         }
     }
 
@@ -0,0 +1,210 @@
+package de.gtarc.opaca.platform;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import de.gtarc.opaca.model.*;
+import de.gtarc.opaca.model.User.Role;
+import de.gtarc.opaca.util.RestHelper;
+import de.gtarc.opaca.util.TraceContext;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.hierarchicalroles.RoleHierarchy;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Handles remote procedure calls received via the "/subscribe" websocket, e.g. from connected platforms
+ * forwarding invocations and messages via their persistent websocket connection. Each call is executed in
+ * its own (virtual) thread on behalf of the user who opened the websocket connection, and with the same
+ * checks and events as the respective HTTP route.
+ */
+@Log4j2
+@Component
+public class WebSocketRpcHandler {
+
+    /** size of chunks when sending streams */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /** maximum number of messages queued for the session before sending further chunks of a stream */
+    private static final int MAX_QUEUED_CHUNKS = 16;
+
+    @Autowired
+    private PlatformImpl implementation;
+
+    @Autowired
+    private PlatformConfig config;
+
+    @Autowired
+    private RoleHierarchy roleHierarchy;
+
+    @Autowired
+    private EventsFilter eventsFilter;
+
+    @Autowired
+    private WebSocketConfig webSocketConfig;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Whether the message is a call frame, as opposed to a topic to subscribe to.
+     */
+    public boolean isCall(String message) {
+        return message.startsWith("{");
+    }
+
+    /**
+     * Execute the call asynchronously and send the response frames to the session.
+     */
+    public void handleCall(WebSocketSession session, String message) {
+        RpcFrame request;
+        try {
+            request = RestHelper.readObject(message, RpcFrame.class);
+        } catch (IOException e) {
+            log.warn("Received malformed call: {}", e.getMessage());
+            return;
+        }
+        executor.execute(() -> {
+            var auth = session.getPrincipal() instanceof Authentication a ? a : null;
+            SecurityContextHolder.getContext().setAuthentication(auth);
+            try {
+                checkPermission(auth);
+                var headers = request.getHeaders() != null ? request.getHeaders() : Map.<String, String>of();
+                var containerId = request.getParams() != null ? text(request.getParams(), "containerId") : null;
+                var result = eventsFilter.withEvents(getRoute(request), headers.get(Event.HEADER_SENDER_ID), containerId,
+                        headers.get(TraceContext.HEADER),
+                        () -> implementation.withHeaders(request.getHeaders(), () -> execute(session, request)));
+                if (result != null) {
+                    send(session, RpcFrame.result(request.getId(), result));
+                }
+            } catch (Exception e) {
+                send(session, RpcFrame.error(request.getId(), PlatformImpl.makeErrorResponse(e)));
+            } finally {
+                SecurityContextHolder.clearContext();
+            }
+        });
+    }
+
+    /**
+     * Execute the call, returning the result, or null if the result frames have already been sent.
+     */
+    private JsonNode execute(WebSocketSession session, RpcFrame request) throws IOException {
+        var params = request.getParams() != null ? request.getParams() : Map.<String, JsonNode>of();
+        var containerId = text(params, "containerId");
+        var forward = params.containsKey("forward") && params.get("forward").asBoolean();
+        var timeout = params.containsKey("timeout") ? params.get("timeout").asInt() : -1;
+        return switch (request.getMethod()) {
+            case "ping" -> NullNode.getInstance();
+            case "invoke" -> {
+                Map<String, JsonNode> parameters = RestHelper.mapper.convertValue(params.get("parameters"), new TypeReference<>(){});
+                var result = implementation.invoke(text(params, "action"), parameters, text(params, "agentId"), timeout, containerId, forward);
+                yield result != null ? result : NullNode.getInstance();
+            }
+            case "invokeBatch" -> {
+                List<Invocation> invocations = RestHelper.mapper.convertValue(params.get("invocations"), new TypeReference<>(){});
+                yield RestHelper.mapper.valueToTree(implementation.invokeBatch(invocations, timeout, forward));
+            }
+            case "send" -> {
+                var message = RestHelper.mapper.treeToValue(params.get("message"), Message.class);
+                implementation.send(text(params, "agentId"), message, containerId, forward);
+                yield NullNode.getInstance();
+            }
+            case "broadcast" -> {
+                var message = RestHelper.mapper.treeToValue(params.get("message"), Message.class);
+                implementation.broadcast(text(params, "channel"), message, containerId, forward);
+                yield NullNode.getInstance();
+            }
+            case "getStream" -> {
+                try (var stream = implementation.getStream(text(params, "stream"), text(params, "agentId"), containerId, forward)) {
+                    sendChunks(session, request.getId(), stream);
+                }
+                yield null;
+            }
+            case "postStream" -> {
+                var data = params.containsKey("data") ? params.get("data").binaryValue() : new byte[0];
+                implementation.postStream(text(params, "stream"), data, text(params, "agentId"), containerId, forward);
+                yield NullNode.getInstance();
+            }
+            default -> throw new IllegalArgumentException("Unknown method: " + request.getMethod());
+        };
+    }
+
+    private void sendChunks(WebSocketSession session, String id, InputStream stream) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int read;
+        while ((read = stream.readNBytes(buffer, 0, buffer.length)) > 0) {
+            awaitQueued(session);
+            send(session, RpcFrame.chunk(id, Arrays.copyOf(buffer, read)));
+        }
+        send(session, RpcFrame.end(id));
+    }
+
+    /**
+     * Messages are sent asynchronously; wait for the client to keep up instead of queuing the entire stream.
+     */
+    private void awaitQueued(WebSocketSession session) throws IOException {
+        try {
+            webSocketConfig.awaitQueued(session, MAX_QUEUED_CHUNKS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending stream");
+        }
+        if (! session.isOpen()) {
+            throw new IOException("Websocket session closed while sending stream");
+        }
+    }
+
+    private void checkPermission(Authentication auth) {
+        if (! config.requireAuth) return;
+        var required = Role.USER.role();
+        var permitted = auth != null && roleHierarchy.getReachableGrantedAuthorities(auth.getAuthorities()).stream()
+                .anyMatch(a -> a.getAuthority().equals(required));
+        if (! permitted) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+        }
+    }
+
+    /**
+     * Get the route of the HTTP request equivalent to the call, for the events created for the call.
+     */
+    private String getRoute(RpcFrame request) {
+        var params = request.getParams() != null ? request.getParams() : Map.<String, JsonNode>of();
+        var agent = params.containsKey("agentId") ? "/" + text(params, "agentId") : "";
+        return switch (request.getMethod()) {
+            case "invoke" -> "POST /invoke/" + text(params, "action") + agent;
+            case "invokeBatch" -> "POST /invoke";
+            case "send" -> "POST /send" + agent;
+            case "broadcast" -> "POST /broadcast/" + text(params, "channel");
+            case "getStream" -> "GET /stream/" + text(params, "stream") + agent;
+            case "postStream" -> "POST /stream/" + text(params, "stream") + agent;
+            default -> null;
+        };
+    }
+
+    private String text(Map<String, JsonNode> params, String key) {
+        var node = params.get(key);
+        return node == null || node.isNull() ? null : node.asText();
+    }
+
+    private void send(WebSocketSession session, RpcFrame frame) {
+        try {
+            webSocketConfig.sendControl(session, new TextMessage(RestHelper.writeJson(frame)));
+        } catch (IOException e) {
+            log.warn("Failed to send response of call {}: {}", frame.getId(), e.getMessage());
+        }
+    }
+
+}
@@ -89,8 +89,8 @@ public class SecurityConfiguration {
                     // to access the route (see role hierarchy), and the optional REST method
                     // the route is requested with (if none given, all methods are concerned)
                     .requestMatchers(HttpMethod.GET, "/users").hasRole(Role.ADMIN.name())
-                    .requestMatchers(HttpMethod.GET, "/info", "/agents/**", "/containers/**", "/users/**").hasRole(Role.GUEST.name())
-                    .requestMatchers(HttpMethod.GET, "/history", "/connections", "/stream/**").hasRole(Role.USER.name())
+                    .requestMatchers(HttpMethod.GET, "/info", "/routes", "/agents/**", "/containers/**", "/users/**").hasRole(Role.GUEST.name())
+                    .requestMatchers(HttpMethod.GET, "/history", "/stats", "/connections", "/stream/**").hasRole(Role.USER.name())
                     .requestMatchers(HttpMethod.POST, "/containers/login/**", "/containers/logout/**").hasRole(Role.USER.name())
                     .requestMatchers(HttpMethod.POST, "/send/**", "/invoke/**", "/broadcast/**", "/stream/**").hasRole(Role.USER.name())
                     .requestMatchers(HttpMethod.POST, "/containers/**").hasRole(Role.CONTRIBUTOR.name())
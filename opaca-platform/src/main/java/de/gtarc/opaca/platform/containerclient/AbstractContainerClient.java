@@ -2,19 +2,24 @@ package de.gtarc.opaca.platform.containerclient;
 
 import com.google.common.base.Strings;
 import de.gtarc.opaca.api.AgentContainerApi;
+import de.gtarc.opaca.model.AgentContainer;
 import de.gtarc.opaca.model.AgentContainerImage;
+import de.gtarc.opaca.model.Event;
 import de.gtarc.opaca.platform.PlatformConfig;
 import de.gtarc.opaca.platform.session.SessionData;
+import de.gtarc.opaca.util.Tracer;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.extern.log4j.Log4j2;
 
-import java.io.IOException;
-import java.net.*;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -29,47 +34,115 @@ abstract public class AbstractContainerClient implements ContainerClient {
     /** Set of already used ports on target host */
     protected Set<Integer> usedPorts;
 
+    /** Allocator for host ports, including the used ports; also guards the used ports */
+    protected PortAllocator portAllocator;
+
+    private volatile ContainerStateListener stateListener = null;
+
+    private volatile Consumer<Event> eventListener = null;
+
     @Override
     public void initialize(PlatformConfig config, SessionData sessionData) {
         this.config = config;
         this.usedPorts = sessionData.usedPorts;
+        this.portAllocator = PortAllocator.fromRange(config.containerPortRange);
+        this.portAllocator.markReserved(List.of(config.serverPort));
+        this.portAllocator.markReserved(usedPorts);
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("ports", portAllocator.getStatistics());
+        return res;
+    }
+
+    @Override
+    public void setStateListener(ContainerStateListener listener) {
+        this.stateListener = listener;
+    }
+
+    @Override
+    public void setEventListener(Consumer<Event> listener) {
+        this.eventListener = listener;
     }
 
     /**
-     * Starting from the given preferred port, get and reserve the next free port.
+     * Pass the Event to the listener, if any.
      */
-    protected int reserveNextFreePort(int port, Set<Integer> newPorts) {
-        while (!isPortAvailable(port, newPorts)) ++port;
-        newPorts.add(port);
-        return port;
+    protected void publishEvent(Event event) {
+        var listener = this.eventListener;
+        if (listener != null) {
+            listener.accept(event);
+        }
+    }
+
+    /**
+     * Notify the listener, if any, that the state of the container changed.
+     */
+    protected void notifyStateChanged(String containerId, ContainerState state, String reason) {
+        log.info("Container {} is {}{}", containerId, state, reason != null ? " (" + reason + ")" : "");
+        var listener = this.stateListener;
+        if (listener != null) {
+            try {
+                listener.onStateChanged(containerId, state, reason);
+            } catch (RuntimeException e) {
+                log.warn("Error handling state change of container {}: {}", containerId, e.getMessage());
+            }
+        }
     }
 
-    private boolean isPortAvailable(int port, Set<Integer> newPorts) {
-        if (usedPorts.contains(port) || newPorts.contains(port)) return false;
-        var host = getContainerBaseUrl().replaceAll("^\\w+://", "");
-        return ! isTcpPortOpen(host, port) && ! isUdpPortOpen(host, port);
+    /**
+     * Starting from the given preferred port, get and reserve the next free port. The port is also added
+     * to the new ports, so it can be released if the container can not be started.
+     */
+    protected int reserveNextFreePort(int port, Set<Integer> newPorts) {
+        int reserved = portAllocator.reserve(port);
+        synchronized (portAllocator) {
+            usedPorts.add(reserved);
+        }
+        newPorts.add(reserved);
+        return reserved;
     }
 
-    private static boolean isTcpPortOpen(String host, int port) {
-        try (Socket socket = new Socket(host, port)) {
-            return true;
-        } catch (IOException e) {
-            return false;
+    /**
+     * Release the ports, e.g. of a stopped container, or reserved for a container that could not be started.
+     */
+    protected void releasePorts(Collection<Integer> ports) {
+        portAllocator.release(ports);
+        synchronized (portAllocator) {
+            usedPorts.removeAll(ports);
         }
     }
 
-    private static boolean isUdpPortOpen(String host, int port) {
-        try (DatagramSocket socket = new DatagramSocket()) {
-            socket.setSoTimeout(1000);
-            byte[] buffer = new byte[1];
-            socket.send(new DatagramPacket(buffer, buffer.length, InetAddress.getByName(host), port));
-            socket.receive(new DatagramPacket(buffer, buffer.length)); // assuming response by server
-            return true;
-        } catch (IOException e) {
-            return false;
+    /**
+     * Get all host ports used by the container, i.e. the mappings of the API port and the extra ports.
+     */
+    protected List<Integer> getPorts(AgentContainer.Connectivity connectivity) {
+        var ports = new ArrayList<Integer>(connectivity.getExtraPortMappings().keySet());
+        ports.add(connectivity.getApiPortMapping());
+        return ports;
+    }
+
+    /**
+     * Update the ports in use according to the container environment, e.g. bound by any Docker container.
+     * Should be called after initializing, and whenever a port might have been taken by someone else.
+     */
+    protected void reconcilePorts() {
+        try {
+            var ports = getPortsInUse();
+            portAllocator.setExternal(ports);
+            log.debug("Reconciled ports; {} ports in use", ports.size());
+        } catch (RuntimeException e) {
+            log.warn("Could not get ports in use: {}", e.getMessage());
         }
     }
 
+    /**
+     * Get the host ports currently in use in the container environment.
+     */
+    protected abstract Set<Integer> getPortsInUse();
+
     protected abstract String getContainerBaseUrl();
 
     /**
@@ -114,6 +187,11 @@ abstract public class AbstractContainerClient implements ContainerClient {
         env.put(AgentContainerApi.ENV_PORT_MAPPING, portMap.entrySet().stream()
                 .map(e -> String.format("%d:%d", e.getKey(), e.getValue()))
                 .collect(Collectors.joining(",")));
+        // spans of the container are sent to the same OTLP endpoint; a file would not be shared with the platform
+        if (config.traceExporter == Tracer.ExporterType.OTLP && config.traceExporterTarget != null) {
+            env.put(AgentContainerApi.ENV_TRACE_EXPORTER, config.traceExporter.name());
+            env.put(AgentContainerApi.ENV_TRACE_EXPORTER_TARGET, config.traceExporterTarget);
+        }
         // additional user-defined parameters
         for (AgentContainerImage.ImageParameter param : parameters) {
             if (arguments.containsKey(param.getName())) {
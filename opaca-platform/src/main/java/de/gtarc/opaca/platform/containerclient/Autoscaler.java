@@ -0,0 +1,295 @@
+package de.gtarc.opaca.platform.containerclient;
+
+import de.gtarc.opaca.model.PostAgentContainer;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Starts more instances of Agent Containers whose actions are under heavy load, and stops them again when the
+ * load decreases. Containers started from equal requests for the same owner form a group, and the number of
+ * invocations currently in flight and their mean latency are tracked per container, counting each invocation
+ * of a batch. If the in-flight invocations per container of a group, or their latency in the last interval,
+ * exceed the thresholds, another container is started from the same request, up to a maximum number of
+ * containers per group. Containers started this way are stopped again
+ * when the load of their group has been low enough for the cooldown period. The containers are started and
+ * stopped via the platform, so this works the same for any container client.
+ */
+@Log4j2
+public class Autoscaler {
+
+    /**
+     * Starts and stops containers on behalf of the autoscaler.
+     */
+    public interface Scaler {
+
+        /**
+         * Start another container from the same request and for the same owner as the given container and
+         * wait until it is up and running.
+         *
+         * @return the ID of the new container
+         */
+        String scaleUp(String containerId) throws Exception;
+
+        /**
+         * Stop and remove the container.
+         */
+        void scaleDown(String containerId) throws Exception;
+    }
+
+    /**
+     * Containers with equal group keys, i.e. started from equal requests for the same owner, are scaled together.
+     */
+    public record GroupKey(String owner, PostAgentContainer request) {}
+
+    private static final long INTERVAL_MS = 5000;
+
+    private final int maxInFlight;
+    private final long maxLatencyMs;
+    private final int maxReplicas;
+    private final long cooldownMs;
+    private final long intervalMs;
+    private final Supplier<Map<String, GroupKey>> groupKeys;
+    private final Scaler scaler;
+
+    /** load of each container, created with the first invocation */
+    private final Map<String, Load> loads = new ConcurrentHashMap<>();
+
+    /** containers started by the autoscaler, which may be stopped again */
+    private final Set<String> replicas = ConcurrentHashMap.newKeySet();
+
+    /** scaling state of each group, by owner and request; only used by the scheduler's tick */
+    private final Map<GroupKey, Group> groups = new ConcurrentHashMap<>();
+
+    /** only for checking the load, so that slow scaling actions do not delay checking other groups */
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "autoscaler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** for starting and stopping containers, which may take long, e.g. for pulling the image */
+    private final ExecutorService scaleExecutor = Executors.newCachedThreadPool(r -> {
+        var thread = new Thread(r, "autoscaler-scale");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder scaledUp = new LongAdder();
+    private final LongAdder scaledDown = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param maxInFlight in-flight invocations per container above which to scale up, or 0 to ignore
+     * @param maxLatencyMs mean latency of invocations above which to scale up, or 0 to ignore
+     * @param maxReplicas maximum number of containers per group, including those not started by the autoscaler
+     * @param cooldownMs how long the load has to be low before stopping a container again
+     * @param groupKeys supplier for the owners and requests of all running containers, by container ID
+     * @param scaler for starting and stopping containers
+     */
+    public Autoscaler(int maxInFlight, long maxLatencyMs, int maxReplicas, long cooldownMs,
+                      Supplier<Map<String, GroupKey>> groupKeys, Scaler scaler) {
+        this(maxInFlight, maxLatencyMs, maxReplicas, cooldownMs, INTERVAL_MS, groupKeys, scaler);
+    }
+
+    /**
+     * @param intervalMs how often to check the load of the containers, e.g. shorter for tests
+     */
+    public Autoscaler(int maxInFlight, long maxLatencyMs, int maxReplicas, long cooldownMs, long intervalMs,
+                      Supplier<Map<String, GroupKey>> groupKeys, Scaler scaler) {
+        this.maxInFlight = maxInFlight;
+        this.maxLatencyMs = maxLatencyMs;
+        this.maxReplicas = maxReplicas;
+        this.cooldownMs = cooldownMs;
+        this.intervalMs = intervalMs;
+        this.groupKeys = groupKeys;
+        this.scaler = scaler;
+    }
+
+    public boolean isEnabled() {
+        return (maxInFlight > 0 || maxLatencyMs > 0) && maxReplicas > 1;
+    }
+
+    public void start() {
+        if (isEnabled()) {
+            scheduler.scheduleWithFixedDelay(this::tick, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        scaleExecutor.shutdownNow();
+    }
+
+    /**
+     * Called before invoking one or more actions of the container, e.g. in a batch.
+     */
+    public void begin(String containerId, int invocations) {
+        if (isEnabled()) {
+            loads.computeIfAbsent(containerId, k -> new Load()).inFlight.addAndGet(invocations);
+        }
+    }
+
+    /**
+     * Called after invoking one or more actions of the container, whether successful or not.
+     */
+    public void end(String containerId, int invocations, long durationNanos) {
+        var load = loads.get(containerId);
+        if (load != null) {
+            load.inFlight.addAndGet(-invocations);
+            load.calls.add(invocations);
+            load.nanos.add(durationNanos * invocations);
+        }
+    }
+
+    /**
+     * Get the number of invocations of the container currently in flight, e.g. for choosing the container
+     * with the least load; always 0 if the autoscaler is not enabled.
+     */
+    public int getInFlight(String containerId) {
+        var load = loads.get(containerId);
+        return load != null ? load.inFlight.get() : 0;
+    }
+
+    /**
+     * Forget the container, e.g. because it was removed.
+     */
+    public void remove(String containerId) {
+        loads.remove(containerId);
+        replicas.remove(containerId);
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("enabled", isEnabled());
+        Map<String, Object> inFlight = new LinkedHashMap<>();
+        loads.forEach((containerId, load) -> inFlight.put(containerId, load.inFlight.get()));
+        res.put("inFlight", inFlight);
+        res.put("replicas", replicas.size());
+        res.put("scaledUp", scaledUp.sum());
+        res.put("scaledDown", scaledDown.sum());
+        res.put("failed", failed.sum());
+        return res;
+    }
+
+    // HELPER METHODS
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            Map<GroupKey, List<String>> byGroup = new LinkedHashMap<>();
+            var running = Map.copyOf(groupKeys.get());
+            running.forEach((containerId, key) -> byGroup.computeIfAbsent(key, k -> new ArrayList<>()).add(containerId));
+            loads.keySet().retainAll(running.keySet());
+            groups.keySet().retainAll(byGroup.keySet());
+
+            byGroup.forEach((key, containerIds) -> {
+                var group = groups.computeIfAbsent(key, k -> new Group(now));
+                if (! group.scaling) {
+                    check(group, containerIds, now);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.warn("Autoscaler check failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Check the load of the group, and start or stop a container if needed.
+     */
+    private void check(Group group, List<String> containerIds, long now) {
+        int n = containerIds.size();
+        int inFlight = 0;
+        long calls = 0;
+        long nanos = 0;
+        for (String containerId : containerIds) {
+            var load = loads.get(containerId);
+            if (load != null) {
+                inFlight += load.inFlight.get();
+                calls += load.calls.sumThenReset();
+                nanos += load.nanos.sumThenReset();
+            }
+        }
+        double latencyMs = calls > 0 ? nanos / 1e6 / calls : 0;
+        boolean overloaded = (maxInFlight > 0 && inFlight > (long) maxInFlight * n)
+                || (maxLatencyMs > 0 && latencyMs > maxLatencyMs);
+        // whether the load would still be below the thresholds with one container less
+        boolean low = n > 1 && (maxInFlight <= 0 || inFlight <= (long) maxInFlight * (n - 1))
+                && (maxLatencyMs <= 0 || latencyMs <= maxLatencyMs / 2.0);
+        if (! low) {
+            group.lastBusy = now;
+        }
+
+        if (overloaded && n < maxReplicas) {
+            log.info("Scaling up container {}: {} invocations in flight on {} containers, mean latency {} ms",
+                    containerIds.get(0), inFlight, n, (long) latencyMs);
+            scale(group, now, () -> replicas.add(scaler.scaleUp(containerIds.get(0))), scaledUp);
+        } else if (now - group.lastBusy > cooldownMs && now - group.lastScaled > cooldownMs) {
+            containerIds.stream()
+                    .filter(replicas::contains)
+                    .filter(id -> getInFlight(id) == 0)
+                    .findFirst()
+                    .ifPresent(containerId -> {
+                        log.info("Scaling down container {}: load was low for {} ms", containerId, cooldownMs);
+                        scale(group, now, () -> scaler.scaleDown(containerId), scaledDown);
+                    });
+        }
+    }
+
+    private void scale(Group group, long now, Action action, LongAdder counter) {
+        group.scaling = true;
+        group.lastScaled = now;
+        scaleExecutor.execute(() -> {
+            try {
+                action.run();
+                counter.increment();
+            } catch (Exception e) {
+                log.warn("Autoscaling failed: {}", e.getMessage());
+                failed.increment();
+            } finally {
+                group.lastScaled = System.currentTimeMillis();
+                group.scaling = false;
+            }
+        });
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    /**
+     * Invocations of one container: currently in flight, and completed since the last check.
+     */
+    private static class Load {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final LongAdder calls = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+    }
+
+    /**
+     * Scaling state of a group of containers started from equal requests.
+     */
+    private static class Group {
+        volatile long lastBusy;
+        volatile long lastScaled;
+        volatile boolean scaling = false;
+
+        Group(long now) {
+            this.lastBusy = now;
+            this.lastScaled = now;
+        }
+    }
+
+}
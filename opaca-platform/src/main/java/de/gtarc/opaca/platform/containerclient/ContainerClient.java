@@ -1,12 +1,15 @@
 package de.gtarc.opaca.platform.containerclient;
 
 import de.gtarc.opaca.model.AgentContainer;
+import de.gtarc.opaca.model.Event;
 import de.gtarc.opaca.model.PostAgentContainer;
 import de.gtarc.opaca.platform.PlatformConfig;
 import de.gtarc.opaca.platform.session.SessionData;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 
 /**
  * Abstract interface for different clients for starting Agent Containers, e.g. on Docker or Kubernetes.
@@ -47,9 +50,54 @@ public interface ContainerClient {
      */
     boolean isContainerAlive(String containerId);
 
+    /**
+     * Check if the container is ready to handle requests, as far as known to the client.
+     */
+    default boolean isContainerReady(String containerId) {
+        return isContainerAlive(containerId);
+    }
+
+    /**
+     * Set the listener to be notified about changes of the state of containers detected by the client, e.g.
+     * a container that becomes ready or dies, if the client supports this.
+     */
+    default void setStateListener(ContainerStateListener listener) {
+    }
+
+    /**
+     * Set the listener for Events of the client, e.g. on the progress of pulling an image, to be forwarded to
+     * subscribers of the /subscribe route.
+     */
+    default void setEventListener(Consumer<Event> listener) {
+    }
+
     /**
      * Get the URL where the container can be reached for forwarding requests.
      */
     String getUrl(String containerId);
 
+    /**
+     * Make sure the image is available for starting containers quickly, e.g. by pulling it if not present.
+     */
+    default void prepareImage(String imageName) {
+    }
+
+    /**
+     * Get statistics of the client, e.g. on allocated ports, for the /stats route.
+     */
+    default Map<String, Object> getStatistics() {
+        return Map.of();
+    }
+
+    enum ContainerState {
+        STARTING, READY, UNHEALTHY, FAILED
+    }
+
+    /**
+     * Listener for changes of the state of containers, called by the client's own threads.
+     */
+    interface ContainerStateListener {
+        void onStateChanged(String containerId, ContainerState state, String reason);
+    }
+
 }
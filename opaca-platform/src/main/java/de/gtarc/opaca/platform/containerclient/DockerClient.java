@@ -1,5 +1,6 @@
 package de.gtarc.opaca.platform.containerclient;
 
+import com.github.dockerjava.api.async.ResultCallback;
 import com.github.dockerjava.api.command.CreateContainerResponse;
 import com.github.dockerjava.api.command.PullImageResultCallback;
 import com.github.dockerjava.api.exception.DockerException;
@@ -16,6 +17,7 @@ import com.google.common.base.Strings;
 import de.gtarc.opaca.model.AgentContainer;
 import de.gtarc.opaca.model.AgentContainerImage;
 import de.gtarc.opaca.model.PostAgentContainer;
+import de.gtarc.opaca.model.ResourceRequirements;
 import de.gtarc.opaca.platform.PlatformConfig;
 import de.gtarc.opaca.platform.session.SessionData;
 import lombok.AllArgsConstructor;
@@ -26,11 +28,22 @@ import org.apache.commons.lang3.SystemUtils;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * Container Client for running Agent Containers in Docker, possibly on a remote host.
+ * Container Client for running Agent Containers in Docker, possibly on a remote host. The state of the
+ * Agent Containers is tracked by subscribing to the Docker events of containers with the OPACA label, so that
+ * checking whether a container is alive does not need any requests to Docker, and dying containers are
+ * reported right away. Images are pulled by an {@link ImagePuller}, so that concurrent pulls of the same image
+ * are done only once and their progress is published as Events, and images known to be present are cached
+ * until an image is removed, as reported by the Docker events of images.
  *
  * Some documentation:
  * - https://github.com/docker-java/docker-java/blob/master/docs/getting_started.md
@@ -48,6 +61,36 @@ public class DockerClient extends AbstractContainerClient {
     /** Available Docker Auth */
     private Map<String, AuthConfig> auth;
 
+    /** label of Docker containers started by the platform, with the Agent Container ID as value */
+    private static final String CONTAINER_LABEL = "de.gtarc.opaca.container-id";
+
+    private static final long RESUBSCRIBE_DELAY_SEC = 5;
+
+    private static final int MAX_PARALLEL_PULLS = 4;
+
+    /** how often to try starting a container with other ports if binding its ports failed */
+    private static final int MAX_BIND_ATTEMPTS = 3;
+
+    /** host ports in Docker's bind errors, e.g. "Bind for 0.0.0.0:8082 failed: port is already allocated" */
+    private static final Pattern BIND_ERROR_PORT = Pattern.compile(":(\\d{1,5})\\b");
+
+    /** current state of each Agent Container, updated from the Docker events */
+    private final Map<String, ContainerState> states = new ConcurrentHashMap<>();
+
+    /** time of the last Docker event received, in seconds, for resuming after the events stream broke */
+    private volatile long lastEventTime = 0;
+
+    /** images known to be present, cleared when any image is removed */
+    private final Set<String> presentImages = ConcurrentHashMap.newKeySet();
+
+    private ImagePuller imagePuller;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "docker-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
 
     @Data
     @AllArgsConstructor
@@ -79,6 +122,12 @@ public class DockerClient extends AbstractContainerClient {
         this.auth = loadDockerAuth();
         this.dockerClient = DockerClientImpl.getInstance(dockerConfig, dockerHttpClient);
         this.dockerContainers = sessionData.dockerContainers;
+        this.imagePuller = new ImagePuller(this::pullDockerImage, this::publishEvent, MAX_PARALLEL_PULLS);
+        this.lastEventTime = System.currentTimeMillis() / 1000;
+        // containers restored from the session are checked once, later changes come from the events
+        dockerContainers.forEach((containerId, info) -> states.put(containerId, inspectState(info.containerId)));
+        subscribeEvents();
+        subscribeImageEvents();
     }
 
     @Override
@@ -96,6 +145,8 @@ public class DockerClient extends AbstractContainerClient {
         var image = container.getImage();
         var imageName = image.getImageName();
         var extraPorts = image.getExtraPorts();
+        var newPorts = new HashSet<Integer>();
+        boolean started = false;
 
         try {
             if ((Boolean.TRUE.equals(container.getPull()) || config.alwaysPullImages || ! isImagePresent(imageName))
@@ -103,26 +154,46 @@ public class DockerClient extends AbstractContainerClient {
                 pullDockerImage(imageName);
             }
 
-            // port mappings for API- and Extra-Ports
-            var newPorts = new HashSet<Integer>();
-            Map<Integer, Integer> portMap = Stream.concat(Stream.of(image.getApiPort()), extraPorts.keySet().stream())
-                    .collect(Collectors.toMap(p -> p, p -> reserveNextFreePort(p, newPorts)));
-            // translate to Docker PortBindings (incl. ExposedPort descriptions)
-            List<PortBinding> portBindings = portMap.entrySet().stream()
-                    .map(e -> PortBinding.parse(e.getValue() + ":" + e.getKey() + "/" + getProtocol(e.getKey(), image)))
-                    .collect(Collectors.toList());
-
-            log.info("Creating Container...");
-            CreateContainerResponse res = dockerClient.createContainerCmd(imageName)
-                    .withEnv(toDockerEnv(buildContainerEnv(containerId, token, owner, image.getParameters(), container.getArguments(), portMap)))
-                    .withHostConfig(HostConfig.newHostConfig().withPortBindings(portBindings))
-                    .withExposedPorts(portBindings.stream().map(PortBinding::getExposedPort).collect(Collectors.toList()))
-                    .exec();
-
-            log.info("Result: {}", res);
-
-            log.info("Starting Container...");
-            dockerClient.startContainerCmd(res.getId()).exec();
+            // port mappings for API- and Extra-Ports, taking into account ports bound by any other containers
+            reconcilePorts();
+            Map<Integer, Integer> portMap;
+            CreateContainerResponse res;
+            for (int attempt = 1; ; attempt++) {
+                portMap = Stream.concat(Stream.of(image.getApiPort()), extraPorts.keySet().stream())
+                        .collect(Collectors.toMap(p -> p, p -> reserveNextFreePort(p, newPorts)));
+                // translate to Docker PortBindings (incl. ExposedPort descriptions)
+                List<PortBinding> portBindings = portMap.entrySet().stream()
+                        .map(e -> PortBinding.parse(e.getValue() + ":" + e.getKey() + "/" + getProtocol(e.getKey(), image)))
+                        .collect(Collectors.toList());
+
+                log.info("Creating Container...");
+                // events are tracked from now on, so that a container dying right away is noticed
+                states.put(containerId, ContainerState.STARTING);
+                res = dockerClient.createContainerCmd(imageName)
+                        .withLabels(Map.of(CONTAINER_LABEL, containerId))
+                        .withEnv(toDockerEnv(buildContainerEnv(containerId, token, owner, image.getParameters(), container.getArguments(), portMap)))
+                        .withHostConfig(withResources(HostConfig.newHostConfig().withPortBindings(portBindings), container.getEffectiveResources()))
+                        .withExposedPorts(portBindings.stream().map(PortBinding::getExposedPort).collect(Collectors.toList()))
+                        .exec();
+
+                log.info("Result: {}", res);
+
+                log.info("Starting Container...");
+                try {
+                    dockerClient.startContainerCmd(res.getId()).exec();
+                    break;
+                } catch (DockerException e) {
+                    // ports bound by processes other than Docker containers are only noticed when binding them
+                    if (attempt >= MAX_BIND_ATTEMPTS || ! isBindFailure(e)) throw e;
+                    log.warn("Failed to bind ports, retrying with other ports: {}", e.getMessage());
+                    removeCreatedContainer(res.getId());
+                    portAllocator.markBlocked(getFailedPorts(e, newPorts));
+                    releasePorts(newPorts);
+                    newPorts.clear();
+                }
+            }
+            // the container may already have been reported as started, or failed
+            states.replace(containerId, ContainerState.STARTING, ContainerState.READY);
 
             var connectivity = new AgentContainer.Connectivity(
                     getContainerBaseUrl(),
@@ -130,45 +201,71 @@ public class DockerClient extends AbstractContainerClient {
                     extraPorts.keySet().stream().collect(Collectors.toMap(portMap::get, extraPorts::get))
             );
             dockerContainers.put(containerId, new DockerContainerInfo(res.getId(), connectivity));
-            usedPorts.addAll(newPorts);
+            started = true;
 
             return connectivity;
 
         } catch (NotFoundException e) {
             // might theoretically happen if image is deleted between pull and run...
             log.warn("Image not found: {}", imageName);
+            presentImages.remove(imageName);
             throw new NoSuchElementException("Image not found: " + imageName);
         } catch (DockerException e) {
             throw new IOException("Failed to start Docker container.", e);
+        } finally {
+            if (! started) {
+                states.remove(containerId);
+                releasePorts(newPorts);
+            }
         }
     }
 
     @Override
     public void stopContainer(String containerId) {
+        var containerInfo = dockerContainers.remove(containerId);
+        states.remove(containerId);
+        if (containerInfo == null) {
+            // e.g. stopped concurrently by another caller
+            throw new NoSuchElementException("Unknown Container " + containerId);
+        }
         try {
-            var containerInfo = dockerContainers.remove(containerId);
-            usedPorts.remove(containerInfo.connectivity.getApiPortMapping());
-            usedPorts.removeAll(containerInfo.connectivity.getExtraPortMappings().keySet());
             dockerClient.stopContainerCmd(containerInfo.containerId).exec();
         } catch (NotModifiedException e) {
             var msg = "Could not stop Container " + containerId + "; already stopped?";
             log.warn(msg);
             throw new NoSuchElementException(msg);
+        } finally {
+            // only after stopping, so the ports are not given to another container while still bound
+            releasePorts(getPorts(containerInfo.connectivity));
         }
     }
 
     @Override
     public boolean isContainerAlive(String containerId) {
-        try {
-            var containerInfo = dockerContainers.get(containerId);
-            var res = dockerClient.inspectContainerCmd(containerInfo.containerId).exec();
-            return Boolean.TRUE.equals(res.getState().getRunning());
-        } catch (NotFoundException e) {
-            log.error("Container not found: {}", e.getMessage());
-            return false;
+        var state = states.get(containerId);
+        return state != null && state != ContainerState.FAILED;
+    }
+
+    @Override
+    public boolean isContainerReady(String containerId) {
+        return states.get(containerId) == ContainerState.READY;
+    }
+
+    @Override
+    public void prepareImage(String imageName) {
+        if (! isImagePresent(imageName)) {
+            pullDockerImage(imageName);
         }
     }
 
+    @Override
+    public Map<String, Object> getStatistics() {
+        var res = super.getStatistics();
+        res.put("imagePulls", imagePuller.getStatistics());
+        res.put("presentImages", presentImages.size());
+        return res;
+    }
+
     @Override
     public String getUrl(String containerId) {
         var conn = dockerContainers.get(containerId).connectivity;
@@ -186,35 +283,241 @@ public class DockerClient extends AbstractContainerClient {
      * HELPER METHODS
      */
 
+    /**
+     * Subscribe to the events of all containers started by the platform, starting from the last event
+     * received. If the stream breaks, e.g. because Docker was restarted, the state of all containers is
+     * checked again and the events are subscribed again after a short delay.
+     */
+    private void subscribeEvents() {
+        try {
+            dockerClient.eventsCmd()
+                    .withEventTypeFilter(EventType.CONTAINER)
+                    .withLabelFilter(CONTAINER_LABEL)
+                    .withSince(String.valueOf(lastEventTime))
+                    .exec(new ResultCallback.Adapter<>() {
+                        @Override
+                        public void onNext(Event event) {
+                            handleEvent(event);
+                        }
+                        @Override
+                        public void onError(Throwable throwable) {
+                            log.warn("Docker events stream failed: {}", throwable.getMessage());
+                            resubscribeEvents();
+                        }
+                        @Override
+                        public void onComplete() {
+                            resubscribeEvents();
+                        }
+                    });
+        } catch (RuntimeException e) {
+            log.warn("Could not subscribe to Docker events: {}", e.getMessage());
+            resubscribeEvents();
+        }
+    }
+
+    private void resubscribeEvents() {
+        scheduler.schedule(() -> {
+            dockerContainers.forEach((containerId, info) -> updateState(containerId, inspectState(info.containerId), null));
+            subscribeEvents();
+        }, RESUBSCRIBE_DELAY_SEC, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Subscribe to the events of removed images, for invalidating the images known to be present. If the
+     * stream breaks, those are cleared and the events are subscribed again after a short delay.
+     */
+    private void subscribeImageEvents() {
+        try {
+            dockerClient.eventsCmd()
+                    .withEventTypeFilter(EventType.IMAGE)
+                    .withEventFilter("delete", "untag")
+                    .exec(new ResultCallback.Adapter<>() {
+                        @Override
+                        public void onNext(Event event) {
+                            // the event may refer to the image by its ID only, so just clear all
+                            presentImages.clear();
+                        }
+                        @Override
+                        public void onError(Throwable throwable) {
+                            log.warn("Docker image events stream failed: {}", throwable.getMessage());
+                            resubscribeImageEvents();
+                        }
+                        @Override
+                        public void onComplete() {
+                            resubscribeImageEvents();
+                        }
+                    });
+        } catch (RuntimeException e) {
+            log.warn("Could not subscribe to Docker image events: {}", e.getMessage());
+            resubscribeImageEvents();
+        }
+    }
+
+    private void resubscribeImageEvents() {
+        presentImages.clear();
+        scheduler.schedule(this::subscribeImageEvents, RESUBSCRIBE_DELAY_SEC, TimeUnit.SECONDS);
+    }
+
+    private void handleEvent(Event event) {
+        if (event.getTime() != null) {
+            lastEventTime = Math.max(lastEventTime, event.getTime());
+        }
+        var attributes = event.getActor() != null ? event.getActor().getAttributes() : null;
+        var containerId = attributes != null ? attributes.get(CONTAINER_LABEL) : null;
+        var action = event.getAction();
+        if (containerId == null || action == null) return;
+
+        if (action.equals("start")) {
+            updateState(containerId, ContainerState.READY, null);
+        } else if (action.equals("health_status: healthy")) {
+            updateState(containerId, ContainerState.READY, null);
+        } else if (action.equals("health_status: unhealthy")) {
+            updateState(containerId, ContainerState.UNHEALTHY, "health check failed");
+        } else if (action.equals("oom")) {
+            updateState(containerId, ContainerState.FAILED, "out of memory");
+        } else if (action.equals("die")) {
+            updateState(containerId, ContainerState.FAILED, "exited with code " + attributes.get("exitCode"));
+        }
+    }
+
+    /**
+     * Set the new state of the container, if it is tracked, and notify the listener if it changed.
+     */
+    private void updateState(String containerId, ContainerState state, String reason) {
+        var previous = states.get(containerId);
+        if (previous == null || previous == state || ! states.replace(containerId, previous, state)) return;
+        notifyStateChanged(containerId, state, reason);
+    }
+
+    @Override
+    protected Set<Integer> getPortsInUse() {
+        return dockerClient.listContainersCmd().exec().stream()
+                .flatMap(c -> c.getPorts() != null ? Arrays.stream(c.getPorts()) : Stream.empty())
+                .map(ContainerPort::getPublicPort)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+    }
+
+    private ContainerState inspectState(String dockerId) {
+        try {
+            var state = dockerClient.inspectContainerCmd(dockerId).exec().getState();
+            if (! Boolean.TRUE.equals(state.getRunning())) return ContainerState.FAILED;
+            var health = state.getHealth() != null ? state.getHealth().getStatus() : null;
+            return "unhealthy".equals(health) ? ContainerState.UNHEALTHY
+                    : "starting".equals(health) ? ContainerState.STARTING
+                    : ContainerState.READY;
+        } catch (NotFoundException e) {
+            log.error("Container not found: {}", e.getMessage());
+            return ContainerState.FAILED;
+        } catch (RuntimeException e) {
+            // e.g. Docker not reachable at the moment; assume the container is still there
+            log.warn("Could not inspect container: {}", e.getMessage());
+            return ContainerState.STARTING;
+        }
+    }
+
     /**
      * Try to pull the Docker image from registry where it can be found (according to image name).
      * Raise NoSuchElementException if image can not be pulled for whatever reason.
      */
     private void pullDockerImage(String imageName) {
-        log.info("Pulling Image... {}", imageName);
+        try {
+            imagePuller.pull(imageName);
+            presentImages.add(imageName);
+        } catch (InterruptedException e) {
+            log.warn(e.getMessage());
+        }
+    }
+
+    /**
+     * Actually pull the image, called by the image puller, reporting the progress of each layer.
+     */
+    private void pullDockerImage(String imageName, Consumer<ImagePuller.Progress> progress) throws InterruptedException {
         try {
             var registry = imageName.split("/")[0];
             dockerClient.pullImageCmd(imageName)
                     .withAuthConfig(this.auth.get(registry))
-                    .exec(new PullImageResultCallback())
+                    .exec(new PullImageResultCallback() {
+                        @Override
+                        public void onNext(PullResponseItem item) {
+                            super.onNext(item);
+                            var detail = item.getProgressDetail();
+                            progress.accept(new ImagePuller.Progress(item.getId(), item.getStatus(),
+                                    detail != null ? detail.getCurrent() : null,
+                                    detail != null ? detail.getTotal() : null));
+                        }
+                    })
                     .awaitCompletion();
-        } catch (InterruptedException e) {
-            log.warn(e.getMessage());
         } catch (InternalServerErrorException e) {
-            log.error("Pull Image failed: {}", e.getMessage());
             throw new NoSuchElementException("Failed to Pull image: " + e.getMessage());
         }
     }
 
+    /**
+     * Apply the resources to the host config: the CPU request as relative weight, as Docker can not reserve
+     * CPUs, and the memory request as soft limit.
+     */
+    private HostConfig withResources(HostConfig hostConfig, ResourceRequirements resources) {
+        if (resources == null) return hostConfig;
+        if (resources.getCpuRequest() != null) {
+            hostConfig.withCpuShares((int) Math.round(resources.getCpuRequest() * 1024));
+        }
+        if (resources.getCpuLimit() != null) {
+            hostConfig.withNanoCPUs(Math.round(resources.getCpuLimit() * 1e9));
+        }
+        if (resources.getMemoryRequestMb() != null) {
+            hostConfig.withMemoryReservation(resources.getMemoryRequestMb() * 1024 * 1024);
+        }
+        if (resources.getMemoryLimitMb() != null) {
+            hostConfig.withMemory(resources.getMemoryLimitMb() * 1024 * 1024);
+        }
+        if (resources.getCpuSet() != null) {
+            hostConfig.withCpusetCpus(resources.getCpuSet());
+        }
+        return hostConfig;
+    }
+
     private boolean isImagePresent(String imageName) {
+        if (presentImages.contains(imageName)) return true;
         try {
             this.dockerClient.inspectImageCmd(imageName).exec();
+            presentImages.add(imageName);
             return true;
         } catch (NotFoundException e) {
             return false;
         }
     }
 
+    private static boolean isBindFailure(DockerException e) {
+        var message = String.valueOf(e.getMessage());
+        return message.contains("port is already allocated") || message.contains("address already in use");
+    }
+
+    /**
+     * Get the ports that could not be bound according to the error message, or all the given ports if the
+     * message does not tell which.
+     */
+    private static Set<Integer> getFailedPorts(DockerException e, Set<Integer> ports) {
+        var matcher = BIND_ERROR_PORT.matcher(String.valueOf(e.getMessage()));
+        var failed = new HashSet<Integer>();
+        while (matcher.find()) {
+            int port = Integer.parseInt(matcher.group(1));
+            if (ports.contains(port)) failed.add(port);
+        }
+        return failed.isEmpty() ? Set.copyOf(ports) : failed;
+    }
+
+    /**
+     * Remove a container that was created, but could not be started.
+     */
+    private void removeCreatedContainer(String dockerId) {
+        try {
+            dockerClient.removeContainerCmd(dockerId).withForce(true).exec();
+        } catch (DockerException e) {
+            log.warn("Failed to remove container {}: {}", dockerId, e.getMessage());
+        }
+    }
+
     private String getProtocol(int port, AgentContainerImage image) {
         if (image.getExtraPorts().containsKey(port)) {
             String protocol = image.getExtraPorts().get(port).getProtocol();
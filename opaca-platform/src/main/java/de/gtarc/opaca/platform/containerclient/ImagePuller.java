@@ -0,0 +1,162 @@
+package de.gtarc.opaca.platform.containerclient;
+
+import de.gtarc.opaca.model.Event;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Pulls images in a bounded pool of threads, so that different images can be pulled in parallel, while
+ * concurrent requests for the same image wait for the same pull instead of pulling it again. The progress of
+ * each pull is published as Events with the route "PULL /images/{image}": a CALL Event when starting, PROGRESS
+ * Events when a layer changes its status, or at most once per second while downloading, and a SUCCESS or ERROR
+ * Event when done.
+ */
+@Log4j2
+public class ImagePuller {
+
+    /**
+     * Pulls the image, reporting progress to the listener, and blocks until done.
+     */
+    public interface Puller {
+        void pull(String image, Consumer<Progress> progress) throws InterruptedException;
+    }
+
+    /**
+     * Progress of pulling one layer of an image, e.g. "Downloading" with current and total bytes.
+     */
+    public record Progress(String layer, String status, Long current, Long total) {}
+
+    private static final long PROGRESS_INTERVAL_MS = 1000;
+
+    private final Puller puller;
+    private final Consumer<Event> events;
+
+    /** pulls in progress, by image */
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+
+    private final LongAdder pulled = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param puller for actually pulling an image
+     * @param events for publishing Events on the progress
+     * @param maxParallel maximum number of images to pull in parallel
+     */
+    public ImagePuller(Puller puller, Consumer<Event> events, int maxParallel) {
+        this.puller = puller;
+        this.events = events;
+        this.executor = Executors.newFixedThreadPool(maxParallel, r -> {
+            var thread = new Thread(r, "image-puller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Pull the image, or wait for the pull of the same image already in progress, and block until done.
+     * Exceptions thrown by the puller are rethrown as they are.
+     */
+    public void pull(String image) throws InterruptedException {
+        var future = new CompletableFuture<Void>();
+        var existing = inFlight.putIfAbsent(image, future);
+        if (existing != null) {
+            log.info("Waiting for pull of image {} already in progress", image);
+            deduplicated.increment();
+            future = existing;
+        } else {
+            var started = future;
+            executor.execute(() -> doPull(image, started));
+        }
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            if (e.getCause() instanceof InterruptedException ie) throw ie;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("inProgress", inFlight.size());
+        res.put("pulled", pulled.sum());
+        res.put("deduplicated", deduplicated.sum());
+        res.put("failed", failed.sum());
+        return res;
+    }
+
+    // HELPER METHODS
+
+    private void doPull(String image, CompletableFuture<Void> future) {
+        var route = "PULL /images/" + image;
+        var call = Event.call(route, null, null, null);
+        publish(call);
+        log.info("Pulling Image... {}", image);
+        try {
+            puller.pull(image, new ProgressReporter(call));
+            pulled.increment();
+            publish(Event.success(call));
+            future.complete(null);
+        } catch (Exception e) {
+            log.error("Pull Image failed: {}", e.getMessage());
+            failed.increment();
+            publish(Event.error(call, 404, Map.of("message", String.valueOf(e.getMessage()))));
+            future.completeExceptionally(e);
+        } finally {
+            inFlight.remove(image, future);
+        }
+    }
+
+    private void publish(Event event) {
+        try {
+            events.accept(event);
+        } catch (RuntimeException e) {
+            log.warn("Failed to publish event: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Publishes the progress of one pull, throttled to status changes of the layers and one progress update
+     * per interval.
+     */
+    private class ProgressReporter implements Consumer<Progress> {
+
+        private final Event call;
+        private final Map<String, String> statusByLayer = new HashMap<>();
+        private long lastPublished = 0;
+
+        ProgressReporter(Event call) {
+            this.call = call;
+        }
+
+        @Override
+        public synchronized void accept(Progress progress) {
+            var layer = progress.layer() != null ? progress.layer() : "";
+            var statusChanged = ! String.valueOf(progress.status()).equals(statusByLayer.put(layer, String.valueOf(progress.status())));
+            long now = System.currentTimeMillis();
+            if (! statusChanged && now - lastPublished < PROGRESS_INTERVAL_MS) return;
+            lastPublished = now;
+
+            Map<String, Object> details = new LinkedHashMap<>(); // keep insertion order
+            details.put("layer", progress.layer());
+            details.put("status", progress.status());
+            if (progress.current() != null) details.put("current", progress.current());
+            if (progress.total() != null) details.put("total", progress.total());
+            publish(Event.progress(call, details));
+        }
+    }
+
+}
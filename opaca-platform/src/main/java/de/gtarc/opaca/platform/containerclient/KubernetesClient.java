@@ -4,6 +4,7 @@ import de.gtarc.opaca.api.AgentContainerApi;
 import de.gtarc.opaca.model.AgentContainer;
 import de.gtarc.opaca.model.AgentContainerImage;
 import de.gtarc.opaca.model.PostAgentContainer;
+import de.gtarc.opaca.model.ResourceRequirements;
 import de.gtarc.opaca.platform.PlatformConfig;
 import de.gtarc.opaca.platform.session.SessionData;
 import lombok.AllArgsConstructor;
@@ -16,21 +17,36 @@ import io.kubernetes.client.openapi.apis.CoreV1Api;
 import io.kubernetes.client.openapi.ApiException;
 import io.kubernetes.client.openapi.models.*;
 import io.kubernetes.client.custom.IntOrString;
+import io.kubernetes.client.custom.Quantity;
+import io.kubernetes.client.informer.ResourceEventHandler;
+import io.kubernetes.client.informer.SharedIndexInformer;
+import io.kubernetes.client.informer.SharedInformerFactory;
 import io.kubernetes.client.util.Config;
 import lombok.extern.log4j.Log4j2;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
- * Container Client for running Agent Containers in Kubernetes.
+ * Container Client for running Agent Containers in Kubernetes. The state of the pods of all Agent Containers
+ * is tracked by a shared informer, watching the pods with an "app" label, so that checking whether a container
+ * is alive or ready does not need any requests to the Kubernetes API, and failed pods are reported right away.
  */
 @Log4j2
 public class KubernetesClient extends AbstractContainerClient {
 
+    /** label of the pods of an Agent Container, with the container ID as value */
+    private static final String APP_LABEL = "app";
+
+    /** reasons for a pod's container waiting that will not resolve by themselves */
+    private static final Set<String> FAILED_REASONS = Set.of(
+            "CrashLoopBackOff", "ImagePullBackOff", "ErrImagePull", "InvalidImageName", "CreateContainerConfigError");
+
     private CoreV1Api coreApi;
     private AppsV1Api appsApi;
     private String namespace;
@@ -41,6 +57,12 @@ public class KubernetesClient extends AbstractContainerClient {
     /** Available Docker Auth */
     private Map<String, String> auth;
 
+    private SharedInformerFactory informerFactory;
+    private SharedIndexInformer<V1Pod> podInformer;
+
+    /** last state reported to the listener for each container, to report only changes */
+    private final Map<String, ContainerState> reportedStates = new ConcurrentHashMap<>();
+
 
     @Data
     @AllArgsConstructor
@@ -59,21 +81,15 @@ public class KubernetesClient extends AbstractContainerClient {
         super.initialize(config, sessionData);
 
         // Initialize the Kubernetes API client
+        ApiClient watchClient;
         try {
-            ApiClient client;
-            if (config.platformEnvironment == PlatformConfig.PlatformEnvironment.KUBERNETES) {
-                // If running inside a pod, it will use the default service account
-                client = Config.defaultClient();
-            } else if (config.platformEnvironment == PlatformConfig.PlatformEnvironment.NATIVE) {
-                // If running locally, it will use the default kubeconfig file location
-                var configPath = config.kubernetesConfig.replaceAll("^~", System.getProperty("user.home"));
-                client = Config.fromConfig(configPath);
-            } else {
-                throw new RuntimeException("Invalid platform environment: " + config.platformEnvironment);
-            }
+            ApiClient client = createApiClient();
             Configuration.setDefaultApiClient(client);
             this.coreApi = new CoreV1Api();
             this.appsApi = new AppsV1Api();
+            // separate client without read timeout for the long-running watch requests
+            watchClient = createApiClient();
+            watchClient.setHttpClient(watchClient.getHttpClient().newBuilder().readTimeout(Duration.ZERO).build());
         } catch (IOException e) {
             log.error("Could not initialize Kubernetes Client: {}", e.getMessage());
             throw new RuntimeException(e);
@@ -82,6 +98,7 @@ public class KubernetesClient extends AbstractContainerClient {
         this.namespace = config.kubernetesNamespace;
         this.auth = loadKubernetesSecrets();
         this.pods = sessionData.pods;
+        startPodInformer(watchClient);
     }
 
     @Override
@@ -102,9 +119,18 @@ public class KubernetesClient extends AbstractContainerClient {
         String registrySecret = this.auth.get(registry);
         var extraPorts = image.getExtraPorts();
 
+        // port mappings, taking into account node ports used by any other services
+        reconcilePorts();
         var newPorts = new HashSet<Integer>();
         Map<Integer, Integer> portMap = Stream.concat(Stream.of(image.getApiPort()), extraPorts.keySet().stream())
                 .collect(Collectors.toMap(p -> p, p -> reserveNextFreePort(p, newPorts)));
+        List<V1EnvVar> env;
+        try {
+            env = toK8sEnv(buildContainerEnv(containerId, token, owner, image.getParameters(), container.getArguments(), portMap));
+        } catch (RuntimeException e) {
+            releasePorts(newPorts);
+            throw e;
+        }
 
         var pullPolicy = Boolean.TRUE.equals(container.getPull()) || config.alwaysPullImages ? "Always" : "IfNotPresent";
 
@@ -117,7 +143,8 @@ public class KubernetesClient extends AbstractContainerClient {
                                         .ports(List.of(
                                                 new V1ContainerPort().containerPort(image.getApiPort())
                                         ))
-                                        .env(toK8sEnv(buildContainerEnv(containerId, token, owner, image.getParameters(), container.getArguments(), portMap)))
+                                        .env(env)
+                                        .resources(toK8sResources(container.getEffectiveResources()))
                         ))
                         .imagePullSecrets(registrySecret == null ? null : List.of(new V1LocalObjectReference().name(registrySecret)))
                 ;
@@ -126,6 +153,8 @@ public class KubernetesClient extends AbstractContainerClient {
             // the default seems to be null anyway, so no null-check needed?
             podSpec.hostNetwork(k8sConf.getHostNetwork());
             podSpec.nodeName(k8sConf.getNodeName());
+            podSpec.nodeSelector(k8sConf.getNodeSelector());
+            podSpec.affinity(toK8sAffinity(k8sConf.getPreferredNodeLabels()));
         }
         
         V1PodTemplateSpec podTemplateSpec = new V1PodTemplateSpec()
@@ -174,40 +203,44 @@ public class KubernetesClient extends AbstractContainerClient {
             );
 
             pods.put(containerId, new PodInfo(createdDeployment.getMetadata().getName(), serviceIP, connectivity));
-            usedPorts.addAll(newPorts);
 
             return connectivity;
         } catch (ApiException e) {
             log.error("Error creating pod: {}", e.getMessage());
+            releasePorts(newPorts);
             throw new IOException("Failed to create Pod: " + e.getMessage());
         }
     }
 
     @Override
     public void stopContainer(String containerId) {
+        var containerInfo = pods.remove(containerId);
+        reportedStates.remove(containerId);
+        if (containerInfo == null) {
+            // e.g. stopped concurrently by another caller
+            throw new NoSuchElementException("Unknown Container " + containerId);
+        }
         try {
-            var containerInfo = pods.remove(containerId);
-            usedPorts.remove(containerInfo.connectivity.getApiPortMapping());
-            usedPorts.removeAll(containerInfo.connectivity.getExtraPortMappings().keySet());
             appsApi.deleteNamespacedDeployment(containerId, namespace).execute();
             coreApi.deleteNamespacedService(serviceId(containerId), namespace).execute();
         } catch (ApiException e) {
             var msg = "Could not stop Container " + containerId + "; already stopped?";
             log.warn(msg);
             throw new NoSuchElementException(msg);
+        } finally {
+            releasePorts(getPorts(containerInfo.connectivity));
         }
     }
 
     @Override
     public boolean isContainerAlive(String containerId) {
-        try {
-            V1Pod container = coreApi.readNamespacedPod(containerId, namespace).execute();
-            String phase = container.getStatus().getPhase();
-            return List.of("Running", "Pending").contains(phase);
-        } catch (ApiException e) {
-            log.error("Error reading pod: {}", e.getMessage());
-            return false;
-        }
+        var state = getContainerState(containerId);
+        return state != null && state != ContainerState.FAILED;
+    }
+
+    @Override
+    public boolean isContainerReady(String containerId) {
+        return getContainerState(containerId) == ContainerState.READY;
     }
 
     @Override
@@ -225,6 +258,146 @@ public class KubernetesClient extends AbstractContainerClient {
      * HELPER METHODS
      */
 
+    @Override
+    protected Set<Integer> getPortsInUse() {
+        try {
+            return coreApi.listNamespacedService(namespace).execute().getItems().stream()
+                    .filter(s -> s.getSpec() != null && s.getSpec().getPorts() != null)
+                    .flatMap(s -> s.getSpec().getPorts().stream())
+                    .map(V1ServicePort::getNodePort)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toSet());
+        } catch (ApiException e) {
+            throw new RuntimeException("Could not list services: " + e.getMessage(), e);
+        }
+    }
+
+    private ApiClient createApiClient() throws IOException {
+        if (config.platformEnvironment == PlatformConfig.PlatformEnvironment.KUBERNETES) {
+            // If running inside a pod, it will use the default service account
+            return Config.defaultClient();
+        } else if (config.platformEnvironment == PlatformConfig.PlatformEnvironment.NATIVE) {
+            // If running locally, it will use the default kubeconfig file location
+            var configPath = config.kubernetesConfig.replaceAll("^~", System.getProperty("user.home"));
+            return Config.fromConfig(configPath);
+        } else {
+            throw new RuntimeException("Invalid platform environment: " + config.platformEnvironment);
+        }
+    }
+
+    /**
+     * Start watching all pods in the namespace with an "app" label, keeping them in a local cache indexed
+     * by that label, i.e. by container ID, and checking the state of the container on each change.
+     */
+    private void startPodInformer(ApiClient watchClient) {
+        var watchApi = new CoreV1Api(watchClient);
+        informerFactory = new SharedInformerFactory(watchClient);
+        podInformer = informerFactory.sharedIndexInformerFor(
+                params -> watchApi.listNamespacedPod(namespace)
+                        .labelSelector(APP_LABEL)
+                        .resourceVersion(params.resourceVersion)
+                        .timeoutSeconds(params.timeoutSeconds)
+                        .watch(params.watch)
+                        .buildCall(null),
+                V1Pod.class, V1PodList.class);
+        podInformer.addIndexers(Map.of(APP_LABEL, pod -> {
+            var app = appLabel(pod);
+            return app != null ? List.of(app) : List.of();
+        }));
+        podInformer.addEventHandler(new ResourceEventHandler<>() {
+            @Override
+            public void onAdd(V1Pod pod) {
+                checkState(appLabel(pod));
+            }
+            @Override
+            public void onUpdate(V1Pod oldPod, V1Pod newPod) {
+                checkState(appLabel(newPod));
+            }
+            @Override
+            public void onDelete(V1Pod pod, boolean deletedFinalStateUnknown) {
+                checkState(appLabel(pod));
+            }
+        });
+        informerFactory.startAllRegisteredInformers();
+    }
+
+    /**
+     * Get the pods of the container from the informer's cache, or, as long as that is not synced yet,
+     * directly from the Kubernetes API.
+     */
+    private List<V1Pod> getPods(String containerId) {
+        if (podInformer.hasSynced()) {
+            return podInformer.getIndexer().byIndex(APP_LABEL, containerId);
+        }
+        try {
+            return coreApi.listNamespacedPod(namespace).labelSelector(APP_LABEL + "=" + containerId).execute().getItems();
+        } catch (ApiException e) {
+            log.error("Error listing pods: {}", e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Get the combined state of the container's pods: ready if any pod is ready, otherwise starting if any pod
+     * is starting, or if there are no pods (yet) for a known container, otherwise failed. Returns null for
+     * unknown containers without pods.
+     */
+    private ContainerState getContainerState(String containerId) {
+        if (containerId == null) return null;
+        var states = getPods(containerId).stream().map(this::getPodState).collect(Collectors.toSet());
+        if (states.contains(ContainerState.READY)) return ContainerState.READY;
+        if (states.contains(ContainerState.STARTING)) return ContainerState.STARTING;
+        if (states.isEmpty()) return pods.containsKey(containerId) ? ContainerState.STARTING : null;
+        return ContainerState.FAILED;
+    }
+
+    private ContainerState getPodState(V1Pod pod) {
+        var status = pod.getStatus();
+        if (status == null) return ContainerState.STARTING;
+        if (getFailureReason(pod) != null) return ContainerState.FAILED;
+        var ready = Optional.ofNullable(status.getConditions()).orElse(List.of()).stream()
+                .anyMatch(c -> "Ready".equals(c.getType()) && "True".equals(c.getStatus()));
+        return ready ? ContainerState.READY : ContainerState.STARTING;
+    }
+
+    /**
+     * Get the reason why the pod failed, i.e. it terminated or one of its containers can not be (re)started,
+     * or null if it did not fail.
+     */
+    private String getFailureReason(V1Pod pod) {
+        var status = pod.getStatus();
+        if (status == null) return null;
+        if ("Failed".equals(status.getPhase()) || "Succeeded".equals(status.getPhase())) {
+            return "Pod " + status.getPhase() + (status.getReason() != null ? ": " + status.getReason() : "");
+        }
+        return Optional.ofNullable(status.getContainerStatuses()).orElse(List.of()).stream()
+                .map(V1ContainerStatus::getState)
+                .filter(s -> s != null && s.getWaiting() != null && FAILED_REASONS.contains(s.getWaiting().getReason()))
+                .map(s -> s.getWaiting().getReason() + (s.getWaiting().getMessage() != null ? ": " + s.getWaiting().getMessage() : ""))
+                .findFirst().orElse(null);
+    }
+
+    /**
+     * Check the current state of the container after a change of one of its pods, and notify the listener
+     * if it changed. Only containers started by this platform are considered.
+     */
+    private void checkState(String containerId) {
+        if (containerId == null || ! pods.containsKey(containerId)) return;
+        var state = getContainerState(containerId);
+        var previous = state != null ? reportedStates.put(containerId, state) : null;
+        if (state == null || state == previous) return;
+
+        var reason = state == ContainerState.FAILED
+                ? getPods(containerId).stream().map(this::getFailureReason).filter(Objects::nonNull).findFirst().orElse(null)
+                : null;
+        notifyStateChanged(containerId, state, reason);
+    }
+
+    private static String appLabel(V1Pod pod) {
+        var labels = pod.getMetadata() != null ? pod.getMetadata().getLabels() : null;
+        return labels != null ? labels.get(APP_LABEL) : null;
+    }
+
     private void createServicesForPorts(String containerId, AgentContainerImage image, Map<Integer, Integer> portMap) throws ApiException {
         for (Map.Entry<Integer, Integer> entry : portMap.entrySet()) {
             if (entry.getKey().equals(image.getApiPort())) continue; // Skip api port
@@ -259,6 +432,40 @@ public class KubernetesClient extends AbstractContainerClient {
         return "svc-" + containerId;
     }
 
+    /**
+     * Convert the resources to resource requests and limits; pinning to CPUs is not supported by the pod
+     * spec, but can be achieved with the static CPU manager policy of the nodes and integer CPU requests.
+     */
+    private V1ResourceRequirements toK8sResources(ResourceRequirements resources) {
+        if (resources == null) return null;
+        Map<String, Quantity> requests = new HashMap<>();
+        Map<String, Quantity> limits = new HashMap<>();
+        if (resources.getCpuRequest() != null) requests.put("cpu", new Quantity(String.valueOf(resources.getCpuRequest())));
+        if (resources.getCpuLimit() != null) limits.put("cpu", new Quantity(String.valueOf(resources.getCpuLimit())));
+        if (resources.getMemoryRequestMb() != null) requests.put("memory", new Quantity(resources.getMemoryRequestMb() + "Mi"));
+        if (resources.getMemoryLimitMb() != null) limits.put("memory", new Quantity(resources.getMemoryLimitMb() + "Mi"));
+        if (resources.getCpuSet() != null) {
+            log.warn("Pinning to CPUs {} is not supported on Kubernetes, ignoring", resources.getCpuSet());
+        }
+        return new V1ResourceRequirements()
+                .requests(requests.isEmpty() ? null : requests)
+                .limits(limits.isEmpty() ? null : limits);
+    }
+
+    /**
+     * Prefer nodes with all of the given labels, if any such node is available.
+     */
+    private V1Affinity toK8sAffinity(Map<String, String> preferredNodeLabels) {
+        if (preferredNodeLabels == null || preferredNodeLabels.isEmpty()) return null;
+        var expressions = preferredNodeLabels.entrySet().stream()
+                .map(e -> new V1NodeSelectorRequirement().key(e.getKey()).operator("In").values(List.of(e.getValue())))
+                .toList();
+        return new V1Affinity().nodeAffinity(new V1NodeAffinity()
+                .preferredDuringSchedulingIgnoredDuringExecution(List.of(new V1PreferredSchedulingTerm()
+                        .weight(100)
+                        .preference(new V1NodeSelectorTerm().matchExpressions(expressions)))));
+    }
+
     private List<V1EnvVar> toK8sEnv(Map<String, String> containerEnv) {
         return containerEnv.entrySet().stream()
                 .map(e -> new V1EnvVar().name(e.getKey()).value(e.getValue()))
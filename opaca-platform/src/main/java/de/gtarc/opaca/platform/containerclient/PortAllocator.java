@@ -0,0 +1,158 @@
+package de.gtarc.opaca.platform.containerclient;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Allocates host ports for Agent Containers from a range of ports, using bitmaps of the ports reserved by the
+ * platform and of the ports in use otherwise, e.g. bound by other Docker containers, as last reported by the
+ * container environment. Finding a free port does not need any requests to the host, so that ports for several
+ * containers starting in parallel can be allocated quickly. Ports bound by other processes on the host are not
+ * known to the container environment; they are marked as blocked when binding them fails, and only given out
+ * again when no other port is free.
+ */
+public class PortAllocator {
+
+    private final int minPort;
+    private final int maxPort;
+
+    /** ports reserved by the platform, with bit i for port minPort + i; guarded by synchronized(this) */
+    private final BitSet reserved;
+
+    /** ports in use otherwise, as last reported by the container environment */
+    private final BitSet external;
+
+    /** ports found to be bound by other processes on the host, e.g. when binding them failed */
+    private final BitSet blocked;
+
+    /** union of reserved, external and blocked ports, for finding the next free port */
+    private final BitSet used;
+
+    public PortAllocator(int minPort, int maxPort) {
+        if (minPort < 1 || maxPort > 65535 || minPort > maxPort) {
+            throw new IllegalArgumentException("Invalid port range: " + minPort + "-" + maxPort);
+        }
+        this.minPort = minPort;
+        this.maxPort = maxPort;
+        this.reserved = new BitSet(maxPort - minPort + 1);
+        this.external = new BitSet(maxPort - minPort + 1);
+        this.blocked = new BitSet(maxPort - minPort + 1);
+        this.used = new BitSet(maxPort - minPort + 1);
+    }
+
+    /**
+     * Parse a port range of the form "min-max".
+     */
+    public static PortAllocator fromRange(String range) {
+        var parts = range.trim().split("\\s*-\\s*");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid port range: " + range);
+        }
+        return new PortAllocator(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    /**
+     * Reserve the given port if it is free, otherwise the next free port after it, wrapping around
+     * at the end of the range. Ports outside the range are never reserved. If no port is free, the
+     * blocked ports are tried again, as the processes binding them may have terminated meanwhile.
+     *
+     * @param preferred the preferred port, usually the port used by the container itself
+     * @return the reserved port
+     * @throws IllegalStateException if all ports in the range are in use
+     */
+    public synchronized int reserve(int preferred) {
+        int start = preferred >= minPort && preferred <= maxPort ? preferred - minPort : 0;
+        int index = used.nextClearBit(start);
+        if (index > maxPort - minPort) {
+            index = used.nextClearBit(0);
+        }
+        if (index > maxPort - minPort && ! blocked.isEmpty()) {
+            blocked.clear();
+            updateUsed();
+            index = used.nextClearBit(0);
+        }
+        if (index > maxPort - minPort) {
+            throw new IllegalStateException("No free port in range " + minPort + "-" + maxPort);
+        }
+        reserved.set(index);
+        used.set(index);
+        return minPort + index;
+    }
+
+    /**
+     * Mark the given ports as reserved, e.g. when restoring the platform's session.
+     */
+    public synchronized void markReserved(Collection<Integer> ports) {
+        for (int port : ports) {
+            if (inRange(port)) {
+                reserved.set(port - minPort);
+                used.set(port - minPort);
+            }
+        }
+    }
+
+    /**
+     * Release ports reserved before, e.g. when the container using them was stopped.
+     */
+    public synchronized void release(Collection<Integer> ports) {
+        for (int port : ports) {
+            if (inRange(port)) {
+                reserved.clear(port - minPort);
+                if (! external.get(port - minPort) && ! blocked.get(port - minPort)) {
+                    used.clear(port - minPort);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the ports known to be in use otherwise with the given ports, e.g. all host ports currently
+     * bound by containers of the container environment, including those started by the platform.
+     */
+    public synchronized void setExternal(Collection<Integer> ports) {
+        external.clear();
+        for (int port : ports) {
+            if (inRange(port)) {
+                external.set(port - minPort);
+            }
+        }
+        updateUsed();
+    }
+
+    /**
+     * Mark the given ports as bound by other processes on the host, e.g. because binding them failed,
+     * so that they are not reserved again even if not reported as in use by the container environment.
+     */
+    public synchronized void markBlocked(Collection<Integer> ports) {
+        for (int port : ports) {
+            if (inRange(port)) {
+                blocked.set(port - minPort);
+                used.set(port - minPort);
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("range", minPort + "-" + maxPort);
+        res.put("reserved", reserved.cardinality());
+        res.put("external", external.cardinality());
+        res.put("blocked", blocked.cardinality());
+        res.put("free", maxPort - minPort + 1 - used.cardinality());
+        return res;
+    }
+
+    private void updateUsed() {
+        used.clear();
+        used.or(reserved);
+        used.or(external);
+        used.or(blocked);
+    }
+
+    private boolean inRange(int port) {
+        return port >= minPort && port <= maxPort;
+    }
+
+}
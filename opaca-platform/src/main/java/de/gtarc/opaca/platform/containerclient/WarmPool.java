@@ -0,0 +1,275 @@
+package de.gtarc.opaca.platform.containerclient;
+
+import de.gtarc.opaca.model.AgentContainer;
+import de.gtarc.opaca.model.PostAgentContainer;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Pool of idle, already started Agent Containers for some configured images, so that a request for a new
+ * container of one of those images can be served right away by claiming one of them, instead of pulling the
+ * image and waiting for a new container to boot. The images are pulled in the background on startup. The
+ * containers are started from the first regular request for the image, serving as template, and only requests
+ * equal to that template, i.e. with the same image description and without arguments or client config, can
+ * claim one. Claimed containers are replaced in the background.
+ */
+@Log4j2
+public class WarmPool {
+
+    /**
+     * Starts a new container from the request and waits until it is up and running.
+     */
+    public interface Launcher {
+        Instance launch(PostAgentContainer request) throws IOException;
+    }
+
+    /**
+     * An idle container: its ID, its description as returned by its /info route, the token it was started
+     * with, and when it was started.
+     */
+    public record Instance(String containerId, AgentContainer container, String token, long startedAt) {}
+
+    private final Set<String> images;
+    private final int size;
+    private final long maxIdleMs;
+    private final Launcher launcher;
+    private final Consumer<String> stopper;
+
+    /** template request for each image, from the first regular request */
+    private final Map<String, PostAgentContainer> templates = new ConcurrentHashMap<>();
+
+    /** idle containers and number of containers being started, per image; guarded by synchronized(this) */
+    private final Map<String, Deque<Instance>> idle = new HashMap<>();
+    private final Map<String, Integer> starting = new HashMap<>();
+    private volatile boolean stopped = false;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+        var thread = new Thread(r, "warm-pool");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder missed = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    /**
+     * @param images comma-separated names of the images to keep containers of
+     * @param size number of idle containers per image
+     * @param maxIdleMs how long a container may be idle before being replaced, e.g. because its token expires
+     * @param launcher for starting new containers
+     * @param stopper for stopping containers that are no longer needed
+     */
+    public WarmPool(String images, int size, long maxIdleMs, Launcher launcher, Consumer<String> stopper) {
+        this.images = images == null ? Set.of() : Arrays.stream(images.split(","))
+                .map(String::trim).filter(s -> ! s.isEmpty()).collect(Collectors.toSet());
+        this.size = size;
+        this.maxIdleMs = maxIdleMs;
+        this.launcher = launcher;
+        this.stopper = stopper;
+    }
+
+    public boolean isEnabled() {
+        return ! images.isEmpty() && size > 0;
+    }
+
+    /**
+     * Pull the images in the background.
+     */
+    public void prepareImages(Consumer<String> puller) {
+        for (String image : images) {
+            executor.execute(() -> {
+                try {
+                    puller.accept(image);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to pre-pull image {}: {}", image, e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Use the request as template for the pool of its image, if it is one of the images and it does not have
+     * a template yet, and start filling the pool.
+     */
+    public void register(PostAgentContainer request) {
+        var image = request.getImage().getImageName();
+        if (isEnabled() && images.contains(image) && isGeneric(request)
+                && templates.putIfAbsent(image, copyOf(request)) == null) {
+            log.info("Filling warm pool of image {}", image);
+            refill(image);
+        }
+    }
+
+    /**
+     * Claim an idle container for the request, if there is one and the request is equal to the template.
+     *
+     * @return the idle container, or null if none is available
+     */
+    public Instance claim(PostAgentContainer request) {
+        var image = request.getImage().getImageName();
+        var template = templates.get(image);
+        if (template == null) return null;
+        if (! isGeneric(request) || ! template.getImage().equals(request.getImage())) {
+            missed.increment();
+            return null;
+        }
+        List<Instance> outdated = new ArrayList<>();
+        Instance instance = null;
+        synchronized (this) {
+            var queue = idle.getOrDefault(image, new ArrayDeque<>());
+            while (instance == null && ! queue.isEmpty()) {
+                var next = queue.poll();
+                if (System.currentTimeMillis() - next.startedAt() > maxIdleMs) {
+                    outdated.add(next);
+                } else {
+                    instance = next;
+                }
+            }
+        }
+        outdated.forEach(i -> stop(i, true));
+        if (instance != null) {
+            claimed.increment();
+        } else {
+            missed.increment();
+        }
+        refill(image);
+        return instance;
+    }
+
+    /**
+     * Remove the container from the pool, e.g. because it failed, and start a new one instead.
+     *
+     * @return whether the container was in the pool
+     */
+    public boolean remove(String containerId) {
+        String image = null;
+        synchronized (this) {
+            for (var entry : idle.entrySet()) {
+                if (entry.getValue().removeIf(i -> i.containerId().equals(containerId))) {
+                    image = entry.getKey();
+                }
+            }
+        }
+        if (image == null) return false;
+        log.info("Removed failed container {} from warm pool", containerId);
+        refill(image);
+        return true;
+    }
+
+    /**
+     * Stop all idle containers; containers still starting are stopped once started.
+     */
+    public void shutdown() {
+        List<Instance> all = new ArrayList<>();
+        synchronized (this) {
+            stopped = true;
+            idle.values().forEach(all::addAll);
+            idle.clear();
+        }
+        all.forEach(i -> stop(i, false));
+        executor.shutdown();
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("enabled", isEnabled());
+        Map<String, Object> byImage = new LinkedHashMap<>();
+        for (String image : images) {
+            byImage.put(image, Map.of(
+                    "idle", idle.getOrDefault(image, new ArrayDeque<>()).size(),
+                    "starting", starting.getOrDefault(image, 0),
+                    "template", templates.containsKey(image)));
+        }
+        res.put("images", byImage);
+        res.put("claimed", claimed.sum());
+        res.put("missed", missed.sum());
+        res.put("started", started.sum());
+        res.put("failed", failed.sum());
+        res.put("expired", expired.sum());
+        return res;
+    }
+
+    // HELPER METHODS
+
+    /**
+     * Start as many containers as needed to fill the pool of the image, in the background.
+     */
+    private synchronized void refill(String image) {
+        var template = templates.get(image);
+        if (stopped || template == null) return;
+        int count = idle.getOrDefault(image, new ArrayDeque<>()).size() + starting.getOrDefault(image, 0);
+        for (int i = count; i < size; i++) {
+            starting.merge(image, 1, Integer::sum);
+            executor.execute(() -> warmUp(image, template));
+        }
+    }
+
+    private void warmUp(String image, PostAgentContainer template) {
+        Instance instance = null;
+        try {
+            if (stopped) return;
+            instance = launcher.launch(template);
+            started.increment();
+        } catch (Exception e) {
+            log.warn("Failed to start container for warm pool of image {}: {}", image, e.getMessage());
+            failed.increment();
+        }
+        boolean keep;
+        synchronized (this) {
+            starting.merge(image, -1, Integer::sum);
+            keep = instance != null && ! stopped;
+            if (keep) {
+                idle.computeIfAbsent(image, k -> new ArrayDeque<>()).add(instance);
+            }
+        }
+        if (instance != null && ! keep) {
+            stop(instance, false);
+        }
+    }
+
+    private void stop(Instance instance, boolean replace) {
+        var containerId = instance.containerId();
+        if (replace) {
+            log.info("Replacing idle container {} of warm pool", containerId);
+            expired.increment();
+        }
+        try {
+            stopper.accept(containerId);
+        } catch (RuntimeException e) {
+            log.warn("Failed to stop container {} of warm pool: {}", containerId, e.getMessage());
+        }
+    }
+
+    /**
+     * Whether the request can be served by any container of the image, i.e. it has no container-specific settings.
+     */
+    private boolean isGeneric(PostAgentContainer request) {
+        return (request.getArguments() == null || request.getArguments().isEmpty())
+                && request.getClientConfig() == null
+                && ! Boolean.TRUE.equals(request.getPull());
+    }
+
+    private PostAgentContainer copyOf(PostAgentContainer request) {
+        return new PostAgentContainer(request.getImage(), Map.of(), null, null);
+    }
+
+}
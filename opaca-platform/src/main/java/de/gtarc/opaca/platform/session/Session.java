@@ -71,12 +71,16 @@ public class Session {
 
     @PreDestroy
     private void teardownPolicy() throws IOException {
+        // do not start or stop any more containers while shutting down
+        implementation.stopAutoscaler();
         if (config.sessionPolicy != SessionPolicy.SHUTDOWN) {
             saveToFile();
         }
         if (config.sessionPolicy != SessionPolicy.RECONNECT) {
             stopRunningContainers();
         }
+        // idle containers are not part of the session, so they are stopped in any case
+        implementation.stopWarmPool();
         // TODO possible race condition: session could be saved again after containers are stopped
         //  check again if this method is ALWAYS called; if it is, remove the regular session save
         disconnectPlatforms();
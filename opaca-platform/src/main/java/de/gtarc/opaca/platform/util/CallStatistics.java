@@ -0,0 +1,204 @@
+package de.gtarc.opaca.platform.util;
+
+import de.gtarc.opaca.model.Event;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency and throughput of calls, per route, action, container and sender, computed from each CALL Event
+ * and the SUCCESS or ERROR Event completing it. Latencies are counted in histograms with logarithmic buckets,
+ * each divided into linear sub-buckets (as in HDR histograms), so that percentiles are accurate to within
+ * about 6%. Each series keeps one histogram per minute for the last 15 minutes, from which the statistics
+ * for the sliding windows of the last 1, 5 and 15 minutes are computed. The number of series per dimension
+ * is limited, further keys are counted as "other", and series without calls in the last 15 minutes are
+ * removed, so that the memory used is bounded regardless of the traffic.
+ */
+public class CallStatistics {
+
+    /** key for calls exceeding the maximum number of series per dimension */
+    public static final String OTHER = "other";
+
+    /** maximum number of series per dimension, e.g. different routes */
+    private static final int MAX_SERIES = 100;
+
+    private static final long SLOT_MS = 60_000;
+    private static final int SLOTS = 15;
+
+    /** sizes of the sliding windows, in slots */
+    private static final int[] WINDOWS = {1, 5, 15};
+
+    /** number of linear sub-buckets per power of two, as power of two */
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** values below this are counted exactly, i.e. one bucket per microsecond */
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+    /** buckets up to about 1 hour in microseconds; longer latencies are counted in the last bucket */
+    private static final int MAX_EXPONENT = 31;
+    private static final int BUCKETS = LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final String[] DIMENSIONS = {"routes", "actions", "containers", "senders"};
+
+    /** series by dimension and key; guarded by synchronized(this) */
+    private final Map<String, Map<String, Series>> series = new LinkedHashMap<>();
+
+    public CallStatistics() {
+        for (String dimension : DIMENSIONS) {
+            series.put(dimension, new HashMap<>());
+        }
+    }
+
+    /**
+     * Record a completed call.
+     *
+     * @param call the CALL Event
+     * @param result the SUCCESS or ERROR Event completing the call
+     * @param durationNanos time between receiving the call and completing it
+     */
+    public synchronized void record(Event call, Event result, long durationNanos) {
+        long now = System.currentTimeMillis();
+        long slot = now / SLOT_MS;
+        var target = EventMatcher.Target.of(call);
+        var micros = Math.max(0, durationNanos / 1000);
+        var error = result.getEventType() == Event.EventType.ERROR;
+        record("routes", call.getRoute(), slot, micros, error);
+        record("actions", target.action(), slot, micros, error);
+        record("containers", target.containerId(), slot, micros, error);
+        record("senders", call.getSenderId(), slot, micros, error);
+    }
+
+    /**
+     * Get the statistics for each dimension and key, for each sliding window.
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        long now = System.currentTimeMillis();
+        long slot = now / SLOT_MS;
+        double secondsInSlot = (now % SLOT_MS) / 1000.0;
+        removeExpired(slot);
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        series.forEach((dimension, byKey) -> {
+            Map<String, Object> stats = new TreeMap<>();
+            byKey.forEach((key, s) -> stats.put(key, s.getStatistics(slot, secondsInSlot)));
+            res.put(dimension, stats);
+        });
+        return res;
+    }
+
+    // HELPER METHODS
+
+    private void record(String dimension, String key, long slot, long micros, boolean error) {
+        if (key == null) return;
+        var byKey = series.get(dimension);
+        var s = byKey.get(key);
+        if (s == null) {
+            if (byKey.size() >= MAX_SERIES) {
+                removeExpired(slot);
+            }
+            s = byKey.computeIfAbsent(byKey.size() < MAX_SERIES ? key : OTHER, k -> new Series());
+        }
+        s.add(slot, micros, error);
+    }
+
+    private void removeExpired(long slot) {
+        series.values().forEach(byKey -> byKey.values().removeIf(s -> s.lastSlot <= slot - SLOTS));
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < LINEAR_LIMIT) return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Get the value in the middle of the bucket with the given index.
+     */
+    static double bucketValue(int index) {
+        if (index < LINEAR_LIMIT) return index;
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int sub = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + sub) * width + width / 2.0;
+    }
+
+    /**
+     * Histograms and counts of one key of one dimension, one per slot of the last minutes, in a ring buffer.
+     */
+    private static class Series {
+
+        final long[] slots = new long[SLOTS];
+        final int[][] buckets = new int[SLOTS][];
+        final long[] counts = new long[SLOTS];
+        final long[] errors = new long[SLOTS];
+        long lastSlot = -1;
+
+        Series() {
+            Arrays.fill(slots, -1);
+        }
+
+        void add(long slot, long micros, boolean error) {
+            int i = (int) (slot % SLOTS);
+            if (slots[i] != slot) {
+                // reuse the slot of the oldest minute
+                slots[i] = slot;
+                if (buckets[i] != null) Arrays.fill(buckets[i], 0);
+                counts[i] = 0;
+                errors[i] = 0;
+            }
+            if (buckets[i] == null) {
+                buckets[i] = new int[BUCKETS];
+            }
+            buckets[i][bucketIndex(micros)]++;
+            counts[i]++;
+            if (error) errors[i]++;
+            lastSlot = Math.max(lastSlot, slot);
+        }
+
+        Map<String, Object> getStatistics(long slot, double secondsInSlot) {
+            Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+            for (int window : WINDOWS) {
+                var merged = new long[BUCKETS];
+                long count = 0;
+                long errorCount = 0;
+                for (int i = 0; i < SLOTS; i++) {
+                    if (slots[i] > slot - window && slots[i] <= slot && buckets[i] != null) {
+                        for (int b = 0; b < BUCKETS; b++) {
+                            merged[b] += buckets[i][b];
+                        }
+                        count += counts[i];
+                        errorCount += errors[i];
+                    }
+                }
+                Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put("count", count);
+                stats.put("errors", errorCount);
+                stats.put("ratePerSec", count / Math.max(1.0, (window - 1) * SLOT_MS / 1000.0 + secondsInSlot));
+                stats.put("p50Ms", percentile(merged, count, 0.5));
+                stats.put("p90Ms", percentile(merged, count, 0.9));
+                stats.put("p99Ms", percentile(merged, count, 0.99));
+                res.put(window + "m", stats);
+            }
+            return res;
+        }
+
+        static Double percentile(long[] merged, long count, double p) {
+            if (count == 0) return null;
+            long rank = (long) Math.ceil(p * count);
+            long seen = 0;
+            for (int b = 0; b < merged.length; b++) {
+                seen += merged[b];
+                if (seen >= rank) {
+                    return bucketValue(b) / 1000.0;
+                }
+            }
+            return bucketValue(merged.length - 1) / 1000.0;
+        }
+    }
+
+}
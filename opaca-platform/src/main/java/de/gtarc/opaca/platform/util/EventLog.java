@@ -0,0 +1,347 @@
+package de.gtarc.opaca.platform.util;
+
+import de.gtarc.opaca.model.Event;
+import de.gtarc.opaca.util.RestHelper;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Persistent, append-only log of Events, for analysing them after the fact, beyond the small in-memory history.
+ * Events are appended as JSON lines to segment files of limited size, named by the sequence number of their
+ * first Event. For each segment, a sparse index holds the offset, time range and sequence range of each block
+ * of Events, so that queries only read the blocks in the requested time or sequence range, using memory-mapped
+ * files, starting with the latest Events. Segments with only Events older than the retention time are deleted.
+ */
+@Log4j2
+public class EventLog {
+
+    /** number of Events per block of the index */
+    private static final int BLOCK_SIZE = 64;
+
+    private static final String PREFIX = "events-";
+    private static final String SUFFIX = ".log";
+
+    /** maximum size of a segment, as memory-mapped files are indexed by int */
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long retentionMs;
+
+    /** all segments, oldest first; the last one is being written to; guarded by synchronized(this) */
+    private final List<Segment> segments = new ArrayList<>();
+
+    private FileChannel writer = null;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "event-log-retention");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder queried = new LongAdder();
+    private final LongAdder blocksRead = new LongAdder();
+    private final LongAdder deletedSegments = new LongAdder();
+
+    /**
+     * Open the event log in the given directory, reading the indexes of existing segments.
+     */
+    public EventLog(String directory, long segmentSize, long retentionMs) throws IOException {
+        this.directory = Path.of(directory);
+        this.segmentSize = Math.min(MAX_SEGMENT_SIZE, Math.max(1024, segmentSize));
+        if (segmentSize > MAX_SEGMENT_SIZE) {
+            log.warn("Event log segment size {} too large, using {} instead", segmentSize, MAX_SEGMENT_SIZE);
+        }
+        this.retentionMs = retentionMs;
+        Files.createDirectories(this.directory);
+        try (var files = Files.list(this.directory)) {
+            var paths = files.filter(p -> p.getFileName().toString().startsWith(PREFIX) && p.getFileName().toString().endsWith(SUFFIX)).toList();
+            for (Path path : paths) {
+                segments.add(Segment.load(path));
+            }
+        }
+        segments.sort(Comparator.comparingLong(s -> s.firstSequence));
+        deleteExpired();
+        scheduler.scheduleAtFixedRate(this::deleteExpired, 10, 10, TimeUnit.MINUTES);
+        log.info("Opened event log in {} with {} segments", directory, segments.size());
+    }
+
+    /**
+     * Get the sequence number of the last Event in the log, or 0 if the log is empty.
+     */
+    public synchronized long getLastSequence() {
+        return segments.isEmpty() ? 0 : segments.get(segments.size() - 1).lastSequence;
+    }
+
+    /**
+     * Append the Event to the current segment, starting a new segment if the current one is full.
+     */
+    public synchronized void append(Event event) {
+        try {
+            var bytes = (RestHelper.writeJson(event) + "\n").getBytes(StandardCharsets.UTF_8);
+            var segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || writer == null || segment.size + bytes.length > segmentSize && segment.count > 0) {
+                segment = roll(event.getSequence());
+            }
+            var buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                writer.write(buffer);
+            }
+            segment.add(event.getSequence(), event.getTimestamp(), bytes.length);
+            appended.increment();
+        } catch (IOException e) {
+            log.warn("Failed to append event to event log: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Get the latest Events in the given time range and after the given sequence number matching the matcher,
+     * in chronological order.
+     *
+     * @param from earliest timestamp of Events to include, or null
+     * @param to latest timestamp of Events to include, or null
+     * @param since sequence number after which to include Events, or null
+     * @param matcher for route and type of Events, or null
+     * @param limit maximum number of Events to return
+     */
+    public List<Event> query(Long from, Long to, Long since, EventMatcher matcher, int limit) {
+        queried.increment();
+        long min = from != null ? from : Long.MIN_VALUE;
+        long max = to != null ? to : Long.MAX_VALUE;
+        long after = since != null ? since : Long.MIN_VALUE;
+
+        // copy the relevant parts of the index, so that appending is not blocked while reading
+        List<Segment> candidates = new ArrayList<>();
+        List<List<Block>> candidateBlocks = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments) {
+                if (segment.count > 0 && segment.overlaps(min, max) && segment.lastSequence > after) {
+                    candidates.add(segment);
+                    candidateBlocks.add(segment.blocks.stream()
+                            .filter(b -> b.overlaps(min, max) && b.lastSequence > after)
+                            .map(Block::copy)
+                            .toList());
+                }
+            }
+        }
+
+        List<Event> res = new ArrayList<>();
+        for (int i = candidates.size() - 1; i >= 0 && res.size() < limit; i--) {
+            var segment = candidates.get(i);
+            var blocks = candidateBlocks.get(i);
+            if (blocks.isEmpty()) continue;
+            try {
+                var buffer = segment.map(blocks.get(blocks.size() - 1).end);
+                for (int j = blocks.size() - 1; j >= 0 && res.size() < limit; j--) {
+                    blocksRead.increment();
+                    var events = readBlock(buffer, blocks.get(j));
+                    for (int k = events.size() - 1; k >= 0 && res.size() < limit; k--) {
+                        var event = events.get(k);
+                        if (event.getTimestamp() >= min && event.getTimestamp() <= max && event.getSequence() > after
+                                && (matcher == null || matcher.matches(EventMatcher.Target.of(event)))) {
+                            res.add(event);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // segment may have been deleted in the meantime
+                log.warn("Failed to read event log segment {}: {}", segment.path, e.getMessage());
+            }
+        }
+        Collections.reverse(res);
+        return res;
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("enabled", true);
+        res.put("segments", segments.size());
+        res.put("sizeBytes", segments.stream().mapToLong(s -> s.size).sum());
+        res.put("appended", appended.sum());
+        res.put("queried", queried.sum());
+        res.put("blocksRead", blocksRead.sum());
+        res.put("deletedSegments", deletedSegments.sum());
+        return res;
+    }
+
+    // HELPER METHODS
+
+    private Segment roll(long firstSequence) throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+        var segment = new Segment(directory.resolve(PREFIX + String.format("%020d", firstSequence) + SUFFIX), firstSequence);
+        writer = FileChannel.open(segment.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segment.size = writer.size();
+        segments.add(segment);
+        return segment;
+    }
+
+    private synchronized void deleteExpired() {
+        long threshold = System.currentTimeMillis() - retentionMs;
+        // never delete the segment being written to
+        while (segments.size() > 1 && segments.get(0).maxTime < threshold) {
+            var segment = segments.remove(0);
+            try {
+                Files.deleteIfExists(segment.path);
+                deletedSegments.increment();
+                log.info("Deleted expired event log segment {}", segment.path);
+            } catch (IOException e) {
+                log.warn("Failed to delete event log segment {}: {}", segment.path, e.getMessage());
+            }
+        }
+    }
+
+    private List<Event> readBlock(MappedByteBuffer buffer, Block block) throws IOException {
+        var bytes = new byte[(int) (block.end - block.offset)];
+        buffer.get((int) block.offset, bytes);
+        List<Event> events = new ArrayList<>(block.count);
+        for (String line : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+            if (! line.isBlank()) {
+                events.add(RestHelper.readObject(line, Event.class));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * A single segment file and its index. Mutable fields are guarded by the EventLog.
+     */
+    private static class Segment {
+
+        final Path path;
+        final long firstSequence;
+        final List<Block> blocks = new ArrayList<>();
+
+        long lastSequence;
+        long size = 0;
+        int count = 0;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+
+        /** mapping of the file, if already mapped, and up to which offset */
+        private MappedByteBuffer mapped = null;
+        private long mappedSize = 0;
+
+        Segment(Path path, long firstSequence) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.lastSequence = firstSequence - 1;
+        }
+
+        /**
+         * Rebuild the index of an existing segment file, dropping an incomplete last line.
+         */
+        static Segment load(Path path) throws IOException {
+            var name = path.getFileName().toString();
+            var segment = new Segment(path, Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int start = 0;
+                for (int i = 0; i < buffer.limit(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        var line = new byte[i - start];
+                        buffer.get(start, line);
+                        var node = RestHelper.mapper.readTree(line);
+                        segment.add(node.get("sequence").asLong(), node.get("timestamp").asLong(), i + 1 - start);
+                        start = i + 1;
+                    }
+                }
+                if (start < channel.size()) {
+                    log.warn("Truncating incomplete event in {}", path);
+                    channel.truncate(start);
+                }
+            }
+            return segment;
+        }
+
+        void add(long sequence, long timestamp, int length) {
+            if (count % BLOCK_SIZE == 0) {
+                blocks.add(new Block(size, sequence));
+            }
+            var block = blocks.get(blocks.size() - 1);
+            block.end = size + length;
+            block.count++;
+            block.lastSequence = sequence;
+            block.minTime = Math.min(block.minTime, timestamp);
+            block.maxTime = Math.max(block.maxTime, timestamp);
+            size += length;
+            count++;
+            lastSequence = sequence;
+            minTime = Math.min(minTime, timestamp);
+            maxTime = Math.max(maxTime, timestamp);
+        }
+
+        boolean overlaps(long from, long to) {
+            return minTime <= to && maxTime >= from;
+        }
+
+        /**
+         * Get a read-only mapping of the file, covering at least the given size.
+         */
+        synchronized MappedByteBuffer map(long size) throws IOException {
+            if (mapped == null || mappedSize < size) {
+                try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    mappedSize = channel.size();
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, mappedSize);
+                }
+            }
+            return mapped;
+        }
+    }
+
+    /**
+     * Index entry for a block of consecutive Events in a segment.
+     */
+    private static class Block {
+
+        final long offset;
+        final long firstSequence;
+        long end;
+        long lastSequence;
+        int count = 0;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+
+        Block(long offset, long firstSequence) {
+            this.offset = offset;
+            this.firstSequence = firstSequence;
+            this.end = offset;
+            this.lastSequence = firstSequence - 1;
+        }
+
+        boolean overlaps(long from, long to) {
+            return minTime <= to && maxTime >= from;
+        }
+
+        Block copy() {
+            var copy = new Block(offset, firstSequence);
+            copy.end = end;
+            copy.lastSequence = lastSequence;
+            copy.count = count;
+            copy.minTime = minTime;
+            copy.maxTime = maxTime;
+            return copy;
+        }
+    }
+
+}
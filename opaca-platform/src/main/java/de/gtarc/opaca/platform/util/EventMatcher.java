@@ -0,0 +1,126 @@
+package de.gtarc.opaca.platform.util;
+
+import de.gtarc.opaca.model.Event;
+import de.gtarc.opaca.model.Event.EventType;
+import de.gtarc.opaca.model.EventSubscription;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Precompiled form of the Event subscriptions of a websocket client. Route patterns are compiled to regular
+ * expressions once when subscribing, and each Event is parsed only once into a {@link Target}, so that
+ * matching an Event against many subscribers is cheap.
+ */
+public class EventMatcher {
+
+    /** index key for subscriptions whose route pattern does not start with a fixed path segment */
+    public static final String ANY_SEGMENT = "*";
+
+    private final List<Filter> filters;
+
+    /** first path segments of the routes this matcher may match, for indexing subscribers */
+    private final Set<String> indexKeys = new HashSet<>();
+
+    public EventMatcher(List<EventSubscription> subscriptions) {
+        this.filters = subscriptions.stream().map(Filter::compile).toList();
+        this.filters.forEach(f -> indexKeys.add(f.indexKey));
+    }
+
+    /**
+     * Matcher for a plain topic, i.e. a route prefix, receiving only SUCCESS Events. As before filters were
+     * supported, a topic without a first path segment, e.g. "/", does not match any Events.
+     */
+    public static EventMatcher forTopic(String topic) {
+        var segments = topic.trim().split("/");
+        if (segments.length < 2 || segments[1].isEmpty()) {
+            return new EventMatcher(List.of());
+        }
+        return new EventMatcher(List.of(new EventSubscription(topic, List.of(EventType.SUCCESS), null, null, null)));
+    }
+
+    public Set<String> getIndexKeys() {
+        return indexKeys;
+    }
+
+    public boolean matches(Target target) {
+        for (Filter filter : filters) {
+            if (filter.matches(target)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Attributes of an Event relevant for matching, parsed from the Event's route.
+     */
+    public record Target(Event event, String method, String path, String indexKey, String action, String containerId) {
+
+        public static Target of(Event event) {
+            var route = event.getRoute() != null ? event.getRoute() : "";
+            int space = route.indexOf(' ');
+            var method = space >= 0 ? route.substring(0, space) : null;
+            var path = route.substring(space + 1).trim();
+            var segments = path.split("/");
+            var first = segments.length > 1 ? segments[1] : "";
+            var second = segments.length > 2 ? segments[2] : null;
+            var action = first.equals("invoke") ? second : null;
+            var containerId = event.getContainerId() != null ? event.getContainerId()
+                    : first.equals("containers") ? second : null;
+            return new Target(event, method, path, "/" + first, action, containerId);
+        }
+    }
+
+    private record Filter(String indexKey, String method, Pattern path, Set<EventType> eventTypes,
+                          String senderId, String containerId, String action) {
+
+        static Filter compile(EventSubscription subscription) {
+            var route = subscription.getRoute() != null ? subscription.getRoute().trim() : "";
+            String method = null;
+            int space = route.indexOf(' ');
+            if (space >= 0) {
+                method = route.substring(0, space);
+                route = route.substring(space + 1).trim();
+            }
+            var segments = route.split("/");
+            var first = segments.length > 1 ? segments[1] : "";
+            var indexKey = first.isEmpty() || first.contains("*") ? ANY_SEGMENT : "/" + first;
+            var types = subscription.getEventTypes() == null || subscription.getEventTypes().isEmpty() ? null
+                    : EnumSet.copyOf(subscription.getEventTypes());
+            return new Filter(indexKey, method, compilePattern(route), types,
+                    subscription.getSenderId(), subscription.getContainerId(), subscription.getAction());
+        }
+
+        boolean matches(Target target) {
+            return (eventTypes == null || eventTypes.contains(target.event().getEventType()))
+                    && (method == null || method.equalsIgnoreCase(target.method()))
+                    && (senderId == null || senderId.equals(target.event().getSenderId()))
+                    && (containerId == null || containerId.equals(target.containerId()))
+                    && (action == null || action.equals(target.action()))
+                    && path.matcher(target.path()).matches();
+        }
+
+        /**
+         * Compile route pattern to regular expression, also matching any routes below it.
+         */
+        static Pattern compilePattern(String route) {
+            var regex = new StringBuilder();
+            var pattern = route.endsWith("/") ? route.substring(0, route.length() - 1) : route;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '*' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return Pattern.compile(regex + "(/.*)?");
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package de.gtarc.opaca.platform.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import de.gtarc.opaca.model.Action;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent identical invocations of actions without side effects, so that only the first of those
+ * is actually forwarded to the container, while the others wait for and share its result (or exception).
+ * Unlike the {@link ResultCache}, nothing is retained after the call has completed.
+ */
+public class InvokeCoalescer {
+
+    /** invocations currently in progress, mapping invocation key to eventual result */
+    private final Map<String, CompletableFuture<JsonNode>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Whether concurrent invocations of the given action may be coalesced at all.
+     */
+    public static boolean isCoalescable(Action action) {
+        return action != null && (Boolean.TRUE.equals(action.getIdempotent()) || ResultCache.isCacheable(action));
+    }
+
+    /**
+     * Execute the given invocation, unless an invocation with the same key is already in progress,
+     * in which case the result of that invocation is awaited and returned instead.
+     */
+    public JsonNode invoke(String key, Invocation invocation) throws IOException {
+        var future = new CompletableFuture<JsonNode>();
+        var existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            return await(existing);
+        }
+        calls.increment();
+        try {
+            var result = invocation.call();
+            future.complete(result);
+            return result;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("inFlight", inFlight.size());
+        res.put("calls", calls.sum());
+        res.put("coalesced", coalesced.sum());
+        return res;
+    }
+
+    private JsonNode await(CompletableFuture<JsonNode> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for coalesced invocation", e);
+        } catch (ExecutionException e) {
+            // re-throw original exception so it is handled the same as for the first caller
+            var cause = e.getCause();
+            if (cause instanceof IOException ioe) throw ioe;
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * The actual invocation to be executed, e.g. forwarding the call to the container.
+     */
+    public interface Invocation {
+        JsonNode call() throws IOException;
+    }
+
+}
@@ -0,0 +1,187 @@
+package de.gtarc.opaca.platform.util;
+
+import de.gtarc.opaca.model.AgentContainer;
+import de.gtarc.opaca.model.PlatformRoute;
+import de.gtarc.opaca.model.RuntimePlatform;
+import de.gtarc.opaca.util.ApiProxy;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Routing table for reaching platforms more than one hop away, using a simple distance-vector approach:
+ * each platform regularly fetches the routes of its directly connected platforms, measuring the latency
+ * of that request, and keeps the cheapest route to each destination within the hop limit. Routes leading
+ * back to this platform are ignored. Only platforms with a hop limit greater than 1 exchange routes.
+ *
+ * Routes only carry the revision of the destination platform, so exchanging them is cheap. The containers
+ * of platforms more than one hop away are fetched from the next hop as a delta, and only when the revision
+ * in the route changed; those of directly connected platforms are known anyway.
+ */
+@Log4j2
+public class MeshRouter {
+
+    /** routes ordered by total latency, then by number of hops */
+    public static final Comparator<PlatformRoute> COST = Comparator
+            .comparingLong(PlatformRoute::getLatency)
+            .thenComparingInt(PlatformRoute::getHops);
+
+    private final String ownUrl;
+
+    @Getter
+    private final int maxHops;
+
+    /** cheapest known route to each reachable platform, including directly connected ones */
+    @Getter
+    private volatile List<PlatformRoute> routes = List.of();
+
+    /** last measured latency in milliseconds of each directly connected platform */
+    private final Map<String, Long> latencies = new ConcurrentHashMap<>();
+
+    /** containers of each platform more than one hop away, as of the revision last fetched */
+    private final Map<String, RemotePlatform> remotePlatforms = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "mesh-router");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder infoFetches = new LongAdder();
+
+    public MeshRouter(String ownUrl, int maxHops) {
+        this.ownUrl = ownUrl;
+        this.maxHops = Math.max(1, maxHops);
+    }
+
+    /**
+     * Whether routes to platforms more than one hop away are used at all.
+     */
+    public boolean isEnabled() {
+        return maxHops > 1;
+    }
+
+    /**
+     * Regularly run the given update, e.g. calling {@link #update}, if routing is enabled.
+     */
+    public void start(Runnable update, long intervalSec) {
+        if (isEnabled()) {
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    update.run();
+                } catch (Exception e) {
+                    log.warn("Failed to update routes: {}", e.getMessage());
+                }
+            }, 0, Math.max(1, intervalSec), TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Get the last measured latency of the directly connected platform, or 0 if not known.
+     */
+    public long getLatency(String platformUrl) {
+        return latencies.getOrDefault(platformUrl, 0L);
+    }
+
+    /**
+     * Get the containers of the platform more than one hop away, as of the last update, or an empty
+     * list if not known.
+     */
+    public List<AgentContainer> getContainers(String platformUrl) {
+        var remote = remotePlatforms.get(platformUrl);
+        return remote != null ? remote.containers() : List.of();
+    }
+
+    /**
+     * Update the routing table by fetching the routes of all directly connected platforms, then fetch the
+     * changes to the containers of platforms more than one hop away whose revision changed.
+     *
+     * @param connected the directly connected platforms, mapping URL to platform info
+     * @param clients function providing the client for the connected platform with the given URL
+     */
+    public void update(Map<String, RuntimePlatform> connected, Function<String, ApiProxy> clients) {
+        Map<String, PlatformRoute> best = new HashMap<>();
+        for (var entry : connected.entrySet()) {
+            var url = entry.getKey();
+            List<PlatformRoute> peerRoutes = List.of();
+            long start = System.nanoTime();
+            try {
+                peerRoutes = clients.apply(url).getRoutes();
+            } catch (IOException e) {
+                // platform may not support routing; can still be reached directly
+                log.debug("Failed to get routes from {}: {}", url, e.getMessage());
+            }
+            long latency = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            latencies.put(url, latency);
+
+            consider(best, new PlatformRoute(url, url, 1, latency, entry.getValue().getRevision()));
+            for (var route : peerRoutes) {
+                if (route.getPlatformUrl().equals(ownUrl) || route.getVia().equals(ownUrl) || route.getHops() + 1 > maxHops) {
+                    continue;
+                }
+                consider(best, new PlatformRoute(route.getPlatformUrl(), url, route.getHops() + 1,
+                        latency + route.getLatency(), route.getRevision()));
+            }
+        }
+        latencies.keySet().retainAll(connected.keySet());
+
+        // update containers of remote platforms before publishing the routes, so they are never used without
+        var remoteRoutes = best.values().stream().filter(r -> r.getHops() > 1).toList();
+        remotePlatforms.keySet().retainAll(remoteRoutes.stream().map(PlatformRoute::getPlatformUrl).toList());
+        for (var route : remoteRoutes) {
+            updateRemotePlatform(route, clients.apply(route.getVia()));
+        }
+        routes = List.copyOf(best.values());
+        updates.increment();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("maxHops", maxHops);
+        res.put("routes", routes.size());
+        res.put("updates", updates.sum());
+        res.put("infoFetches", infoFetches.sum());
+        res.put("latencies", Map.copyOf(latencies));
+        return res;
+    }
+
+    /**
+     * Fetch the changes to the containers of the platform at the end of the route from the next hop, if the
+     * revision in the route differs from the one last fetched. If the platform was restarted in the meantime,
+     * its revisions are not comparable, so all its containers are fetched again.
+     */
+    private void updateRemotePlatform(PlatformRoute route, ApiProxy client) {
+        var url = route.getPlatformUrl();
+        var remote = remotePlatforms.get(url);
+        if (remote != null && remote.revision() == route.getRevision()) return;
+        try {
+            var delta = client.getPlatformInfoDelta(remote != null ? remote.revision() : -1, url);
+            infoFetches.increment();
+            if (remote != null && ! delta.getPlatformId().equals(remote.platformId())) {
+                delta = client.getPlatformInfoDelta(-1, url);
+                infoFetches.increment();
+            }
+            var previous = remote != null ? remote.containers() : List.<AgentContainer>of();
+            remotePlatforms.put(url, new RemotePlatform(delta.getPlatformId(), delta.getRevision(), delta.applyTo(previous)));
+        } catch (IOException e) {
+            // keep the containers last fetched, if any, and try again with the next update
+            log.debug("Failed to get containers of {} from {}: {}", url, route.getVia(), e.getMessage());
+        }
+    }
+
+    private static void consider(Map<String, PlatformRoute> best, PlatformRoute route) {
+        best.merge(route.getPlatformUrl(), route, (old, other) -> COST.compare(other, old) < 0 ? other : old);
+    }
+
+    private record RemotePlatform(String platformId, long revision, List<AgentContainer> containers) {}
+
+}
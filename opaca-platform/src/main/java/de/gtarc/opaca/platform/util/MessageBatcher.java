@@ -0,0 +1,183 @@
+package de.gtarc.opaca.platform.util;
+
+import de.gtarc.opaca.model.AddressedMessage;
+import de.gtarc.opaca.util.ApiProxy;
+import de.gtarc.opaca.util.RestHelper.RequestException;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects outgoing messages and broadcasts per destination container and delivers them as a single request
+ * to the container's batch route once the batch window has passed or the maximum batch size is reached.
+ * Messages to the same container are always delivered in the order they were added. Delivery is asynchronous,
+ * so errors can only be logged, not reported to the original sender.
+ */
+@Log4j2
+public class MessageBatcher {
+
+    private final long windowMs;
+    private final int maxSize;
+
+    /** pending messages per destination, mapping container ID to destination */
+    private final Map<String, Destination> destinations = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "message-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public MessageBatcher(long windowMs, int maxSize) {
+        this.windowMs = windowMs;
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Whether batching is enabled at all; if not, messages should be sent directly.
+     */
+    public boolean isEnabled() {
+        return windowMs > 0;
+    }
+
+    /**
+     * Add message to the batch for the given container, to be delivered using the given client.
+     * If the maximum batch size is reached, the batch is delivered immediately in the calling thread.
+     */
+    public void add(String containerId, ApiProxy client, AddressedMessage message) {
+        var destination = destinations.computeIfAbsent(containerId, Destination::new);
+        boolean flushNow = false;
+        synchronized (destination) {
+            if (destination.discarded) {
+                // discarded in the meantime, e.g. container removed and started again with the same ID
+                add(containerId, client, message);
+                return;
+            }
+            destination.client = client;
+            destination.pending.add(message);
+            if (destination.pending.size() >= maxSize) {
+                flushNow = true;
+            } else if (! destination.scheduled) {
+                destination.scheduled = true;
+                scheduler.schedule(() -> flush(destination), windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            flush(destination);
+        }
+    }
+
+    /**
+     * Discard pending messages for the given container, e.g. because it was removed. A batch already being
+     * delivered is not sent, or, if delivered individually, not sent any further.
+     */
+    public void discard(String containerId) {
+        var destination = destinations.remove(containerId);
+        if (destination != null) {
+            synchronized (destination) {
+                destination.discarded = true;
+                destination.pending.clear();
+            }
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("windowMs", windowMs);
+        res.put("maxSize", maxSize);
+        res.put("batches", batches.sum());
+        res.put("messages", messages.sum());
+        res.put("failed", failed.sum());
+        return res;
+    }
+
+    private void flush(Destination destination) {
+        // hold the send-lock while taking the batch, so that batches are delivered in order
+        destination.sendLock.lock();
+        try {
+            List<AddressedMessage> batch;
+            ApiProxy client;
+            synchronized (destination) {
+                batch = destination.pending;
+                client = destination.client;
+                destination.pending = new ArrayList<>();
+                destination.scheduled = false;
+            }
+            if (batch.isEmpty()) return;
+            deliver(destination, client, batch);
+        } finally {
+            destination.sendLock.unlock();
+        }
+    }
+
+    private void deliver(Destination destination, ApiProxy client, List<AddressedMessage> batch) {
+        var containerId = destination.containerId;
+        if (destination.isDiscarded()) return;
+        batches.increment();
+        messages.add(batch.size());
+        try {
+            client.sendBatch(batch);
+        } catch (RequestException e) {
+            // container may not support batches yet, fall back to sending messages individually
+            var status = e.getNestedError() != null ? e.getNestedError().getStatusCode() : null;
+            if (status != null && (status == 404 || status == 405)) {
+                deliverIndividually(destination, client, batch);
+            } else {
+                log.warn("Failed to deliver batch of {} messages to container {}: {}", batch.size(), containerId, e.getMessage());
+                failed.add(batch.size());
+            }
+        } catch (IOException e) {
+            log.warn("Failed to deliver batch of {} messages to container {}: {}", batch.size(), containerId, e.getMessage());
+            failed.add(batch.size());
+        }
+    }
+
+    private void deliverIndividually(Destination destination, ApiProxy client, List<AddressedMessage> batch) {
+        var containerId = destination.containerId;
+        for (var msg : batch) {
+            if (destination.isDiscarded()) return;
+            try {
+                if (msg.getAgentId() != null) {
+                    client.send(msg.getAgentId(), msg.getMessage(), containerId, false);
+                } else {
+                    client.broadcast(msg.getChannel(), msg.getMessage(), containerId, false);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to deliver message to container {}: {}", containerId, e.getMessage());
+                failed.increment();
+            }
+        }
+    }
+
+    private static class Destination {
+
+        final String containerId;
+        final ReentrantLock sendLock = new ReentrantLock();
+
+        // guarded by synchronized(this)
+        ApiProxy client;
+        List<AddressedMessage> pending = new ArrayList<>();
+        boolean scheduled = false;
+        boolean discarded = false;
+
+        Destination(String containerId) {
+            this.containerId = containerId;
+        }
+
+        synchronized boolean isDiscarded() {
+            return discarded;
+        }
+    }
+
+}
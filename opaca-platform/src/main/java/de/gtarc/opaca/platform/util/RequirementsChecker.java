@@ -1,25 +1,36 @@
 package de.gtarc.opaca.platform.util;
 
 import de.gtarc.opaca.model.*;
+import de.gtarc.opaca.platform.PlatformConfig;
 import de.gtarc.opaca.platform.PlatformImpl;
 import lombok.extern.log4j.Log4j2;
 
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Class for checking Container Requirements against what the platform or other containers on the platform
  * provide, e.g. in terms of available agents, actions, or infrastructure features. Provisions can be
  * explicitly specified in an environment variable when the platform starts, or inferred from parts
- * of the platform's configuration, deployed containers, etc.
+ * of the platform's configuration, deployed containers, etc. Also checks the resources requested by
+ * containers against the capacity of the platform, if configured.
  */
 @Log4j2
 public class RequirementsChecker {
 
     private final PlatformImpl platform;
 
-    public RequirementsChecker(PlatformImpl platform) {
+    private final PlatformConfig config;
+
+    /** requests of containers being started, which are not yet included in the platform's containers, by reservation */
+    private final Map<Long, PostAgentContainer> pending = new HashMap<>();
+
+    private long lastReservation = 0;
+
+    public RequirementsChecker(PlatformImpl platform, PlatformConfig config) {
         this.platform = platform;
+        this.config = config;
     }
 
     /**
@@ -67,4 +78,68 @@ public class RequirementsChecker {
         return image.getRequires().stream().filter(x -> ! provisions.contains(x)).collect(Collectors.toSet());
     }
 
+    /**
+     * Check whether the resources requested by the container, i.e. its CPU and memory requests, or limits if
+     * no requests are given, fit into the remaining capacity of the platform, and reserve them until released.
+     *
+     * @param request The container to be started
+     * @return The reservation, to be released when done, also if the same request is started several times
+     * @throws IllegalArgumentException if the remaining capacity is not sufficient
+     */
+    public synchronized long reserveResources(PostAgentContainer request) {
+        var resources = request.getEffectiveResources();
+        double cpuCapacity = config.containerCpuCapacity;
+        long memoryCapacity = config.containerMemoryCapacityMb;
+        double cpus = getCpus(resources);
+        long memory = getMemoryMb(resources);
+        if (cpuCapacity > 0 && getUsedCpus() + cpus > cpuCapacity) {
+            throw new IllegalArgumentException(String.format("Requested %s CPUs exceed remaining capacity of %s CPUs",
+                    cpus, cpuCapacity - getUsedCpus()));
+        }
+        if (memoryCapacity > 0 && getUsedMemoryMb() + memory > memoryCapacity) {
+            throw new IllegalArgumentException(String.format("Requested %s MB memory exceed remaining capacity of %s MB",
+                    memory, memoryCapacity - getUsedMemoryMb()));
+        }
+        pending.put(++lastReservation, request);
+        return lastReservation;
+    }
+
+    /**
+     * Release the resources reserved for starting the container, after it was started or failed to start.
+     */
+    public synchronized void releaseResources(long reservation) {
+        pending.remove(reservation);
+    }
+
+    public synchronized Map<String, Object> getResourceStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("cpuCapacity", config.containerCpuCapacity);
+        res.put("cpuUsed", getUsedCpus());
+        res.put("memoryCapacityMb", config.containerMemoryCapacityMb);
+        res.put("memoryUsedMb", getUsedMemoryMb());
+        return res;
+    }
+
+    private double getUsedCpus() {
+        return Stream.concat(this.platform.getContainerRequests().stream(), pending.values().stream())
+                .mapToDouble(r -> getCpus(r.getEffectiveResources())).sum();
+    }
+
+    private long getUsedMemoryMb() {
+        return Stream.concat(this.platform.getContainerRequests().stream(), pending.values().stream())
+                .mapToLong(r -> getMemoryMb(r.getEffectiveResources())).sum();
+    }
+
+    private static double getCpus(ResourceRequirements resources) {
+        if (resources == null) return 0;
+        return resources.getCpuRequest() != null ? resources.getCpuRequest()
+                : resources.getCpuLimit() != null ? resources.getCpuLimit() : 0;
+    }
+
+    private static long getMemoryMb(ResourceRequirements resources) {
+        if (resources == null) return 0;
+        return resources.getMemoryRequestMb() != null ? resources.getMemoryRequestMb()
+                : resources.getMemoryLimitMb() != null ? resources.getMemoryLimitMb() : 0;
+    }
+
 }
@@ -0,0 +1,196 @@
+package de.gtarc.opaca.platform.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.gtarc.opaca.model.Action;
+import de.gtarc.opaca.util.RestHelper;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache for the results of actions that declare a cache TTL in their description, i.e. actions without
+ * side effects. Results are cached separately for each container and action, keyed by the agent, the
+ * (canonicalized) parameters and the container-login token used for the invocation, if any. All results
+ * of a container are invalidated when that container is updated, and removed together with all other state
+ * of the container when it is removed. Each invalidation increments the container's generation, and results of
+ * invocations started in an earlier generation, or before the container was removed, are not stored.
+ */
+@Log4j2
+public class ResultCache {
+
+    /** number of results cached per action and container if not specified by the action itself */
+    public static final int DEFAULT_CACHE_SIZE = 100;
+
+    /** cached results, mapping container ID to action name to cached results for that action */
+    private final Map<String, Map<String, Segment>> segments = new ConcurrentHashMap<>();
+
+    /** number of invalidations of each container, from the first invocation until the container is removed */
+    private final Map<String, Long> generations = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Whether results of the given action may be cached at all.
+     */
+    public static boolean isCacheable(Action action) {
+        return action != null && action.getCacheTtl() != null && action.getCacheTtl() > 0;
+    }
+
+    /**
+     * Create key for the cache entry from the non-container-specific attributes of the invocation.
+     * The parameters are canonicalized, i.e. the order of keys in JSON objects does not matter.
+     */
+    public static String makeKey(String agentId, Map<String, JsonNode> parameters, String loginToken) {
+        ObjectNode key = RestHelper.mapper.createObjectNode();
+        key.put("agentId", agentId);
+        key.put("loginToken", loginToken);
+        ObjectNode params = key.putObject("parameters");
+        for (var name : new TreeSet<>(parameters.keySet())) {
+            params.set(name, canonicalize(parameters.get(name)));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Get cached result for the given action of the given container, or null if nothing is cached or expired.
+     */
+    public JsonNode get(String containerId, Action action, String key) {
+        var segment = segments.getOrDefault(containerId, Map.of()).get(action.getName());
+        var result = segment != null ? segment.get(key) : null;
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Get the current generation of the given container, to be passed to {@link #put} after invoking the action.
+     */
+    public long getGeneration(String containerId) {
+        return generations.computeIfAbsent(containerId, id -> 0L);
+    }
+
+    /**
+     * Store the result for the given action of the given container, using the TTL and size declared by the action,
+     * unless the container's cached results have been invalidated since the given generation.
+     */
+    public void put(String containerId, Action action, String key, JsonNode result, long generation) {
+        if (! isCacheable(action) || result == null) return;
+        var size = action.getCacheSize() != null ? action.getCacheSize() : DEFAULT_CACHE_SIZE;
+        segments.compute(containerId, (id, actions) -> {
+            var current = generations.get(id);
+            if (current == null || current != generation) return actions;
+            if (actions == null) actions = new ConcurrentHashMap<>();
+            actions.computeIfAbsent(action.getName(), name -> new Segment(size))
+                    .put(key, result, System.currentTimeMillis() + action.getCacheTtl() * 1000L);
+            return actions;
+        });
+    }
+
+    /**
+     * Remove all cached results of the given container, e.g. because it was updated or removed.
+     */
+    public void invalidate(String containerId) {
+        // increment first, so that results stored concurrently are either removed or not stored at all
+        generations.merge(containerId, 1L, Long::sum);
+        var removed = segments.remove(containerId);
+        if (removed != null) {
+            log.debug("Invalidated cached results of container {}", containerId);
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * Remove all cached results and the generation of the given container, because it was removed; container
+     * IDs are never reused. Results of invocations still running are not stored anymore.
+     */
+    public void remove(String containerId) {
+        // remove generation first, so that results stored concurrently are either removed or not stored at all
+        generations.remove(containerId);
+        segments.remove(containerId);
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("entries", segments.values().stream()
+                .flatMap(m -> m.values().stream())
+                .mapToInt(Segment::size).sum());
+        res.put("hits", hits.sum());
+        res.put("misses", misses.sum());
+        res.put("expirations", expirations.sum());
+        res.put("evictions", evictions.sum());
+        res.put("invalidations", invalidations.sum());
+        return res;
+    }
+
+    private static JsonNode canonicalize(JsonNode node) {
+        if (node != null && node.isObject()) {
+            ObjectNode sorted = RestHelper.mapper.createObjectNode();
+            var names = new TreeSet<String>();
+            node.fieldNames().forEachRemaining(names::add);
+            for (var name : names) {
+                sorted.set(name, canonicalize(node.get(name)));
+            }
+            return sorted;
+        }
+        if (node != null && node.isArray()) {
+            var array = RestHelper.mapper.createArrayNode();
+            node.forEach(item -> array.add(canonicalize(item)));
+            return array;
+        }
+        return node;
+    }
+
+    private record Entry(JsonNode result, long expiresAt) {}
+
+    /**
+     * Cached results of a single action of a single container, removing the least recently used
+     * entries if the maximum size is exceeded.
+     */
+    private class Segment {
+
+        private final Map<String, Entry> entries;
+
+        Segment(int maxSize) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > maxSize) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized JsonNode get(String key) {
+            var entry = entries.get(key);
+            if (entry == null) return null;
+            if (entry.expiresAt() < System.currentTimeMillis()) {
+                entries.remove(key);
+                expirations.increment();
+                return null;
+            }
+            return entry.result();
+        }
+
+        synchronized void put(String key, JsonNode result, long expiresAt) {
+            entries.put(key, new Entry(result, expiresAt));
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package de.gtarc.opaca.platform.util;
+
+import de.gtarc.opaca.model.AgentContainer;
+import de.gtarc.opaca.model.PlatformDelta;
+
+import java.util.*;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+/**
+ * Keeps track of a monotonically increasing revision of the Runtime Platform's state and of the revisions
+ * in which individual containers were added, changed, or removed, so that connected platforms can request
+ * only the changes since the last revision they know of. Removed containers are remembered up to a maximum
+ * number; changes older than the oldest forgotten removal can not be provided as a delta anymore.
+ *
+ * Changes to the platform's state are applied while holding the tracker's lock, together with increasing the
+ * revision, and snapshots of the state are taken under the same lock, so that each snapshot contains exactly
+ * the changes up to the revision reported with it.
+ */
+public class RevisionTracker {
+
+    /** number of removed containers to remember for computing deltas */
+    public static final int MAX_REMOVED = 1000;
+
+    private long revision = 0;
+
+    /** oldest revision for which a complete delta can still be computed */
+    private long oldestRevision = 0;
+
+    /** revisions of containers currently running, mapping container ID to revisions */
+    private final Map<String, Revisions> containers = new HashMap<>();
+
+    /** revisions in which containers were removed, mapping container ID to revision, in order of removal */
+    private final LinkedHashMap<String, Long> removed = new LinkedHashMap<>();
+
+    public synchronized long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Get a snapshot of the platform's state, e.g. the platform info, taken together with the current revision.
+     */
+    public synchronized <T> T snapshot(LongFunction<T> snapshot) {
+        return snapshot.apply(revision);
+    }
+
+    public void containerAdded(String containerId) {
+        containerAdded(containerId, () -> {});
+    }
+
+    /**
+     * Apply the change adding the container, e.g. putting it into the running containers, and record it.
+     */
+    public synchronized void containerAdded(String containerId, Runnable change) {
+        change.run();
+        revision++;
+        removed.remove(containerId);
+        containers.put(containerId, new Revisions(revision, revision));
+    }
+
+    /**
+     * Apply the change to the container and record it.
+     */
+    public synchronized void containerChanged(String containerId, Runnable change) {
+        change.run();
+        revision++;
+        var old = containers.get(containerId);
+        containers.put(containerId, new Revisions(old != null ? old.added() : revision, revision));
+    }
+
+    /**
+     * Apply the change removing the container and record it.
+     *
+     * @return the result of the change, e.g. the removed container
+     */
+    public synchronized <T> T containerRemoved(String containerId, Supplier<T> change) {
+        var result = change.get();
+        if (containers.remove(containerId) == null) return result;
+        revision++;
+        removed.put(containerId, revision);
+        if (removed.size() > MAX_REMOVED) {
+            var eldest = removed.entrySet().iterator().next();
+            oldestRevision = eldest.getValue();
+            removed.remove(eldest.getKey());
+        }
+        return result;
+    }
+
+    /**
+     * Apply the change to other parts of the platform's state, e.g. its connections, that are always part
+     * of the delta, and record it.
+     */
+    public synchronized void otherChanged(Runnable change) {
+        change.run();
+        revision++;
+    }
+
+    /**
+     * Get changes to the running containers since the given revision. If that revision is not known, e.g.
+     * because it is too old or from before a restart of the platform, all containers are reported as added
+     * and the delta is flagged as reset. The running containers and connections are taken under the lock.
+     */
+    public synchronized PlatformDelta getDelta(String platformId, long sinceRevision, Supplier<Collection<AgentContainer>> runningContainers,
+                                               List<String> provides, Supplier<List<String>> connections) {
+        var running = List.copyOf(runningContainers.get());
+        var delta = new PlatformDelta(platformId, sinceRevision, revision, false,
+                new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), provides, List.copyOf(connections.get()));
+        if (sinceRevision < oldestRevision || sinceRevision > revision) {
+            delta.setReset(true);
+            delta.getAdded().addAll(running);
+            return delta;
+        }
+        for (var container : running) {
+            var revisions = containers.get(container.getContainerId());
+            if (revisions == null || revisions.added() > sinceRevision) {
+                delta.getAdded().add(container);
+            } else if (revisions.changed() > sinceRevision) {
+                delta.getChanged().add(container);
+            }
+        }
+        removed.forEach((id, rev) -> {
+            if (rev > sinceRevision) delta.getRemoved().add(id);
+        });
+        return delta;
+    }
+
+    private record Revisions(long added, long changed) {}
+
+}
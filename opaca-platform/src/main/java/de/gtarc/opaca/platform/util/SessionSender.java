@@ -0,0 +1,285 @@
+package de.gtarc.opaca.platform.util;
+
+import de.gtarc.opaca.platform.PlatformConfig.OverflowPolicy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Outbound queue of a single websocket session. Messages are sent by a dedicated (virtual) thread, in the
+ * order they were queued, so that callers, e.g. the thread handling an API call and creating an event, never
+ * block on a slow client's socket. Events are held in a bounded queue, and if a client does not keep up with
+ * them, the overflow policy decides whether to drop the oldest or newest events, or to close the session.
+ * Control messages, i.e. pings and responses to calls, are never dropped and sent before any queued events.
+ * The sender also keeps track of pings sent to the client and the pongs received in response.
+ *
+ * When a client resumes from an earlier Event, the Events from the history are replayed first, while new
+ * Events are held back and only queued after the replay, skipping those that have already been replayed.
+ */
+@Log4j2
+public class SessionSender {
+
+    private final WebSocketSession session;
+    private final int maxQueued;
+    private final OverflowPolicy policy;
+
+    private final BlockingDeque<WebSocketMessage<?>> events = new LinkedBlockingDeque<>();
+    private final Queue<WebSocketMessage<?>> control = new ConcurrentLinkedQueue<>();
+
+    /** number of messages queued, i.e. signal for the sending thread; may be higher after dropping events */
+    private final Semaphore available = new Semaphore(0);
+
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    /** for callers waiting for the queue to drain; only signalled by the sending thread if anyone is waiting */
+    private final ReentrantLock drainLock = new ReentrantLock();
+    private final Condition drained = drainLock.newCondition();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /** number of pings sent since the last pong was received */
+    private final AtomicInteger missedPongs = new AtomicInteger();
+
+    /** round-trip time of the last ping, in microseconds, or -1 if none was answered yet */
+    private volatile long pingLatencyMicros = -1;
+
+    /** live events held back during a replay, or null if not replaying; guarded by synchronized(this) */
+    private List<HeldEvent> heldBack = null;
+
+    /** sequence number of the last replayed event; live events up to that have been replayed already */
+    private long replayedUpTo = -1;
+
+    public SessionSender(WebSocketSession session, int maxQueued, OverflowPolicy policy) {
+        this.session = session;
+        this.maxQueued = Math.max(1, maxQueued);
+        this.policy = policy;
+        this.thread = Thread.ofVirtual().name("websocket-sender-" + session.getId()).start(this::run);
+    }
+
+    /**
+     * Queue an event for sending, unless it has been replayed already, or hold it back while replaying.
+     *
+     * @param sequence the sequence number of the event in the history, if any
+     * @return whether the event was queued
+     */
+    public boolean sendEvent(WebSocketMessage<?> message, Long sequence) {
+        synchronized (this) {
+            if (heldBack != null) {
+                heldBack.add(new HeldEvent(message, sequence));
+                return true;
+            }
+            if (sequence != null && sequence <= replayedUpTo) {
+                return false;
+            }
+        }
+        return queueEvent(message);
+    }
+
+    /**
+     * Start replaying events; until the replay is finished, live events are held back.
+     */
+    public synchronized void beginReplay() {
+        heldBack = new ArrayList<>();
+    }
+
+    /**
+     * Queue an event from the history, regardless of any held back events.
+     */
+    public boolean replayEvent(WebSocketMessage<?> message) {
+        return queueEvent(message);
+    }
+
+    /**
+     * Finish replaying and queue the held back live events that have not been replayed.
+     *
+     * @param sequence the sequence number of the last event in the history when the replay started
+     */
+    public synchronized void endReplay(long sequence) {
+        replayedUpTo = sequence;
+        var events = heldBack;
+        heldBack = null;
+        for (HeldEvent event : events) {
+            if (event.sequence() == null || event.sequence() > replayedUpTo) {
+                queueEvent(event.message());
+            }
+        }
+    }
+
+    /**
+     * Queue an event, applying the overflow policy if too many events are queued already. Checking the size
+     * and queueing are done under the same lock, so that concurrent callers cannot exceed the limit; the
+     * sending thread only ever takes events from the queue.
+     */
+    private boolean queueEvent(WebSocketMessage<?> message) {
+        synchronized (this) {
+            if (closed) return false;
+            if (events.size() < maxQueued || policy == OverflowPolicy.DROP_OLDEST) {
+                if (events.size() >= maxQueued) {
+                    dropped.increment();
+                    events.pollFirst();
+                }
+                events.offerLast(message);
+                available.release();
+                return true;
+            }
+            dropped.increment();
+        }
+        if (policy == OverflowPolicy.CLOSE) {
+            log.warn("Closing websocket session {}: client does not keep up with events", session.getId());
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+        }
+        return false;
+    }
+
+    /**
+     * Queue a control message, e.g. a ping or the response to a call, which is never dropped.
+     */
+    public void sendControl(WebSocketMessage<?> message) {
+        if (closed) return;
+        control.add(message);
+        available.release();
+    }
+
+    /**
+     * Send a ping holding the current time, to be returned in the client's pong.
+     *
+     * @return the number of previous pings not answered yet
+     */
+    public int ping() {
+        var payload = ByteBuffer.allocate(Long.BYTES).putLong(0, System.nanoTime());
+        sendControl(new PingMessage(payload));
+        return missedPongs.getAndIncrement();
+    }
+
+    /**
+     * Handle the client's response to a ping.
+     *
+     * @return the round-trip time in microseconds, or -1 if the pong did not contain a valid timestamp
+     */
+    public long onPong(PongMessage pong) {
+        missedPongs.set(0);
+        var payload = pong.getPayload();
+        if (payload.remaining() != Long.BYTES) return -1;
+        var latency = (System.nanoTime() - payload.getLong(payload.position())) / 1000;
+        pingLatencyMicros = latency;
+        return latency;
+    }
+
+    public long getPingLatencyMicros() {
+        return pingLatencyMicros;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getQueued() {
+        return events.size() + control.size();
+    }
+
+    /**
+     * Block until at most the given number of messages are queued, e.g. for sending a stream only as fast as
+     * the client receives it, instead of queuing all of it.
+     *
+     * @return whether the sender is still open
+     */
+    public boolean awaitQueued(int maxQueued) throws InterruptedException {
+        waiting.incrementAndGet();
+        drainLock.lock();
+        try {
+            while (! closed && getQueued() > maxQueued) {
+                drained.await();
+            }
+            return ! closed;
+        } finally {
+            drainLock.unlock();
+            waiting.decrementAndGet();
+        }
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stop the sending thread, discarding any messages not yet sent, and close the session if still open.
+     */
+    public void close(CloseStatus status) {
+        closed = true;
+        thread.interrupt();
+        events.clear();
+        control.clear();
+        signalDrained();
+        if (session.isOpen()) {
+            try {
+                session.close(status);
+            } catch (IOException e) {
+                log.warn("Error closing websocket session: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Wake up callers waiting for the queue to drain, after taking a message from the queue or closing.
+     */
+    private void signalDrained() {
+        if (waiting.get() > 0) {
+            drainLock.lock();
+            try {
+                drained.signalAll();
+            } finally {
+                drainLock.unlock();
+            }
+        }
+    }
+
+    private record HeldEvent(WebSocketMessage<?> message, Long sequence) {}
+
+    private void run() {
+        while (! closed) {
+            try {
+                available.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            var message = control.poll();
+            if (message == null) message = events.pollFirst();
+            if (message == null) continue;
+            signalDrained();
+            try {
+                session.sendMessage(message);
+                sent.increment();
+            } catch (IOException | IllegalStateException e) {
+                log.warn("Error sending message: {}", e.getMessage());
+                if (! session.isOpen()) {
+                    close(CloseStatus.SESSION_NOT_RELIABLE);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package de.gtarc.opaca.platform.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Debounces and coalesces update requests, e.g. for refreshing the information on a connected platform after
+ * being notified about changes. For each key, at most one update is running at any time, and any number of
+ * requests arriving in the meantime result in just one more update afterwards. Updates are delayed by the
+ * debounce time, so that bursts of requests are handled by a single update. The state for a key is removed
+ * when its last update has finished, so that keys no longer used, e.g. disconnected platforms, are forgotten.
+ */
+public class UpdateCoalescer {
+
+    private final long debounceMs;
+
+    /** state of updates per key, e.g. per connected platform, while an update is scheduled or running */
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "update-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder requested = new LongAdder();
+    private final LongAdder performed = new LongAdder();
+
+    public UpdateCoalescer(long debounceMs) {
+        this.debounceMs = Math.max(0, debounceMs);
+    }
+
+    /**
+     * Request the update for the given key. If no update for that key is running, it is scheduled after
+     * the debounce time, otherwise another update will be performed after the running one has finished.
+     */
+    public void request(String key, Runnable update) {
+        requested.increment();
+        while (true) {
+            var state = states.computeIfAbsent(key, State::new);
+            synchronized (state) {
+                // removed after its last update in the meantime, try again with a new state
+                if (state.removed) continue;
+                state.update = update;
+                if (state.running) {
+                    state.pending = true;
+                    return;
+                }
+                state.running = true;
+            }
+            schedule(state);
+            return;
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> res = new LinkedHashMap<>(); // keep insertion order
+        res.put("debounceMs", debounceMs);
+        res.put("keys", states.size());
+        res.put("requested", requested.sum());
+        res.put("performed", performed.sum());
+        return res;
+    }
+
+    private void schedule(State state) {
+        scheduler.schedule(() -> Thread.ofVirtual().start(() -> run(state)), debounceMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void run(State state) {
+        Runnable update;
+        synchronized (state) {
+            update = state.update;
+            state.pending = false;
+        }
+        try {
+            performed.increment();
+            update.run();
+        } finally {
+            synchronized (state) {
+                if (state.pending) {
+                    schedule(state);
+                } else {
+                    state.running = false;
+                    state.removed = true;
+                    states.remove(state.key, state);
+                }
+            }
+        }
+    }
+
+    private static class State {
+
+        final String key;
+
+        // guarded by synchronized(this)
+        Runnable update;
+        boolean running = false;
+        boolean pending = false;
+        boolean removed = false;
+
+        State(String key) {
+            this.key = key;
+        }
+    }
+
+}
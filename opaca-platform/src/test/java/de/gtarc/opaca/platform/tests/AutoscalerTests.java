@@ -0,0 +1,132 @@
+package de.gtarc.opaca.platform.tests;
+
+import de.gtarc.opaca.model.AgentContainerImage;
+import de.gtarc.opaca.model.PostAgentContainer;
+import de.gtarc.opaca.platform.containerclient.Autoscaler;
+import org.junit.*;
+import org.junit.rules.TestName;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tests for the autoscaler alone, without a runtime platform, starting and stopping "containers" via a stub
+ * scaler that only keeps track of the running containers. The load is checked every 100 ms, with a cooldown
+ * of one second.
+ */
+public class AutoscalerTests {
+
+    private static final long INTERVAL_MS = 100;
+    private static final long COOLDOWN_MS = 1000;
+
+    private final Autoscaler.GroupKey group = new Autoscaler.GroupKey("owner", new PostAgentContainer(
+            new AgentContainerImage(), Map.of(), null, null));
+
+    /** running containers, as reported to the autoscaler */
+    private final Map<String, Autoscaler.GroupKey> running = new ConcurrentHashMap<>();
+
+    private final List<String> scaledUp = new CopyOnWriteArrayList<>();
+    private final List<String> scaledDown = new CopyOnWriteArrayList<>();
+
+    private Autoscaler autoscaler = null;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Before
+    public void setupAutoscaler() {
+        System.out.println(">>> RUNNING TEST AutoscalerTests." + testName.getMethodName());
+        running.put("container", group);
+        // at most 2 invocations in flight per container, at most 3 containers
+        autoscaler = new Autoscaler(2, 0, 3, COOLDOWN_MS, INTERVAL_MS, () -> running, new Autoscaler.Scaler() {
+            @Override
+            public String scaleUp(String containerId) {
+                var newContainerId = "replica-" + (scaledUp.size() + 1);
+                running.put(newContainerId, running.get(containerId));
+                scaledUp.add(newContainerId);
+                return newContainerId;
+            }
+            @Override
+            public void scaleDown(String containerId) {
+                running.remove(containerId);
+                scaledDown.add(containerId);
+            }
+        });
+        autoscaler.start();
+    }
+
+    @After
+    public void stopAutoscaler() {
+        autoscaler.shutdown();
+    }
+
+    /**
+     * scale up only when the invocations in flight per container exceed the threshold
+     */
+    @Test
+    public void testScaleUpAtThreshold() throws Exception {
+        autoscaler.begin("container", 2);
+        Thread.sleep(5 * INTERVAL_MS);
+        Assert.assertTrue(scaledUp.isEmpty());
+
+        autoscaler.begin("container", 1);
+        waitFor(() -> scaledUp.size() == 1);
+        Assert.assertEquals(List.of("replica-1"), scaledUp);
+
+        // 3 invocations on 2 containers are below the threshold
+        Thread.sleep(5 * INTERVAL_MS);
+        Assert.assertEquals(1, scaledUp.size());
+        Assert.assertEquals(2, running.size());
+    }
+
+    /**
+     * do not start more containers than the maximum number of replicas, however high the load
+     */
+    @Test
+    public void testMaxReplicas() throws Exception {
+        autoscaler.begin("container", 100);
+        waitFor(() -> scaledUp.size() == 2);
+        Thread.sleep(5 * INTERVAL_MS);
+        Assert.assertEquals(List.of("replica-1", "replica-2"), scaledUp);
+        Assert.assertEquals(3, running.size());
+        Assert.assertEquals(2, autoscaler.getStatistics().get("replicas"));
+    }
+
+    /**
+     * stop only containers started by the autoscaler, only if they are idle, and only after the cooldown
+     */
+    @Test
+    public void testScaleDownIdleReplicasAfterCooldown() throws Exception {
+        autoscaler.begin("container", 100);
+        waitFor(() -> scaledUp.size() == 2);
+
+        // load is low, but one replica is still busy
+        autoscaler.end("container", 100, 0);
+        autoscaler.begin("replica-1", 1);
+        Thread.sleep(COOLDOWN_MS / 2);
+        Assert.assertTrue(scaledDown.isEmpty());
+
+        waitFor(() -> scaledDown.size() == 1);
+        Assert.assertEquals(List.of("replica-2"), scaledDown);
+
+        // the busy replica is not stopped, however long the load is low
+        Thread.sleep(2 * COOLDOWN_MS);
+        Assert.assertEquals(1, scaledDown.size());
+
+        autoscaler.end("replica-1", 1, 0);
+        waitFor(() -> scaledDown.size() == 2);
+        Assert.assertEquals(List.of("replica-2", "replica-1"), scaledDown);
+        Assert.assertEquals(Map.of("container", group), running);
+    }
+
+    private void waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 50 && ! condition.getAsBoolean(); i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+
+}
@@ -1,5 +1,8 @@
 package de.gtarc.opaca.platform.tests;
 
+import com.github.dockerjava.core.DefaultDockerClientConfig;
+import com.github.dockerjava.core.DockerClientImpl;
+import com.github.dockerjava.httpclient5.ApacheDockerHttpClient;
 import de.gtarc.opaca.api.AgentContainerApi;
 import de.gtarc.opaca.model.*;
 import de.gtarc.opaca.platform.Application;
@@ -20,7 +23,12 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static de.gtarc.opaca.platform.tests.TestUtils.*;
@@ -124,6 +132,27 @@ public class ContainerTests {
         Assert.assertEquals(65L, res.longValue());
     }
 
+    /**
+     * invoke batch of actions, check that results are in order and failure of one does not affect the others
+     */
+    @Test
+    public void testInvokeBatch() throws Exception {
+        var invocations = List.of(
+                Map.of("action", "Add", "parameters", Map.of("x", 23, "y", 42)),
+                Map.of("action", "UnknownAction", "parameters", Map.of()),
+                Map.of("action", "GetInfo", "parameters", Map.of(), "agentId", "sample2"),
+                Map.of("action", "Add", "parameters", Map.of("x", 1, "y", "not a number"))
+        );
+        var con = request(PLATFORM_URL, "POST", "/invoke", invocations);
+        Assert.assertEquals(200, con.getResponseCode());
+        var res = result(con, InvocationResult[].class);
+        Assert.assertEquals(4, res.length);
+        Assert.assertEquals(65, res[0].getResult().asInt());
+        Assert.assertEquals(404, res[1].getError().getStatusCode().intValue());
+        Assert.assertEquals("sample2", res[2].getResult().get("name").asText());
+        Assert.assertEquals(400, res[3].getError().getStatusCode().intValue());
+    }
+
     @Test
     public void testInvokeActionOutbound() throws Exception {
         var con = request(PLATFORM_URL, "POST", "/invoke/OutboundInvokeTest/sample1", Map.of("agentId", "sample2"));
@@ -354,6 +383,32 @@ public class ContainerTests {
         Assert.assertEquals("testMessage", res.get("lastMessage"));
     }
 
+    /**
+     * send batch of messages directly to the container's batch route (as used by the platform if message
+     * batching is enabled); messages are delivered in order, unknown agents are skipped
+     */
+    @Test
+    public void testSendBatchToContainer() throws Exception {
+        var con = request(PLATFORM_URL, "GET", "/containers/" + containerId, null);
+        var res = result(con, AgentContainer.class).getConnectivity();
+        var url = String.format("%s:%s", res.getPublicUrl(), res.getApiPortMapping());
+
+        var batch = List.of(
+                Map.of("agentId", "sample1", "message", Map.of("payload", "first", "replyTo", "")),
+                Map.of("agentId", "unknownagent", "message", Map.of("payload", "unknown", "replyTo", "")),
+                Map.of("channel", "topic", "message", Map.of("payload", "broadcast", "replyTo", "")),
+                Map.of("agentId", "sample1", "message", Map.of("payload", "second", "replyTo", ""))
+        );
+        con = request(url, "POST", "/send", batch);
+        Assert.assertEquals(200, con.getResponseCode());
+        Thread.sleep(500);
+
+        con = request(PLATFORM_URL, "POST", "/invoke/GetInfo/sample1", Map.of());
+        var info = result(con, Map.class);
+        Assert.assertEquals("second", info.get("lastMessage"));
+        Assert.assertEquals("broadcast", info.get("lastBroadcast"));
+    }
+
     /**
      * try to send message to unknown agent
      * -> 404 (not found)
@@ -437,6 +492,28 @@ public class ContainerTests {
         Assert.assertEquals(200, con1.getResponseCode());
     }
 
+    /**
+     * invoke action with cache TTL repeatedly, check that the result is cached for the same parameters,
+     * but not for different parameters, and that the cache is invalidated when the container is updated
+     */
+    @Test
+    public void testInvokeCachedAction() throws Exception {
+        var first = result(request(PLATFORM_URL, "POST", "/invoke/GetCachedTime/sample1", Map.of("key", "a")), Long.class);
+        var second = result(request(PLATFORM_URL, "POST", "/invoke/GetCachedTime/sample1", Map.of("key", "a")), Long.class);
+        var other = result(request(PLATFORM_URL, "POST", "/invoke/GetCachedTime/sample1", Map.of("key", "b")), Long.class);
+        Assert.assertEquals(first, second);
+        Assert.assertNotEquals(first, other);
+
+        var con = request(PLATFORM_URL, "GET", "/stats", null);
+        Assert.assertEquals(200, con.getResponseCode());
+        var stats = (Map<?, ?>) result(con, Map.class).get("resultCache");
+        Assert.assertTrue(((Number) stats.get("hits")).longValue() >= 1);
+
+        request(PLATFORM_URL, "POST", "/containers/notify", containerId);
+        var third = result(request(PLATFORM_URL, "POST", "/invoke/GetCachedTime/sample1", Map.of("key", "a")), Long.class);
+        Assert.assertNotEquals(first, third);
+    }
+
     /**
      * tries to notify about non-existing container
      */
@@ -542,6 +619,34 @@ public class ContainerTests {
         Assert.assertTrue(result(con).contains("AnotherTemporaryTestAction"));
     }
 
+    /**
+     * kill the Docker container of an additional sample container, which should be noticed from the Docker
+     * events and the container removed right away, without any request to it failing first
+     */
+    @Test
+    public void testRemoveDeadContainer() throws Exception {
+        var image = getSampleContainerImage();
+        var con = request(PLATFORM_URL, "POST", "/containers", image);
+        var newContainerId = result(con);
+
+        var dockerConfig = DefaultDockerClientConfig.createDefaultConfigBuilder().build();
+        var httpClient = new ApacheDockerHttpClient.Builder().dockerHost(dockerConfig.getDockerHost()).build();
+        try (var docker = DockerClientImpl.getInstance(dockerConfig, httpClient)) {
+            var containers = docker.listContainersCmd()
+                    .withLabelFilter(Map.of("de.gtarc.opaca.container-id", newContainerId)).exec();
+            Assert.assertEquals(1, containers.size());
+            docker.killContainerCmd(containers.get(0).getId()).exec();
+        }
+
+        int count = 2;
+        for (int i = 0; i < 20 && count > 1; i++) {
+            Thread.sleep(250);
+            con = request(PLATFORM_URL, "GET", "/containers", null);
+            count = result(con, List.class).size();
+        }
+        Assert.assertEquals(1, count);
+    }
+
     /**
      * now combines the tests "SpawnThenInvoke", "Deregister" and "InvokeAfterKill"
      */
@@ -623,6 +728,36 @@ public class ContainerTests {
         Assert.assertTrue(System.currentTimeMillis() - start < 8 * 1000);
     }
 
+    /**
+     * invoke slow idempotent action several times in parallel; the invocations should be coalesced into a single
+     * call to the container, i.e. all return the same result
+     */
+    @Test
+    public void testInvokeCoalesced() throws Exception {
+        // start all invocations at once, so that they overlap with the one-second call to the container
+        var start = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(3);
+        var futures = Stream.of(1, 2, 3)
+                .map(i -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        start.await();
+                        var con = request(PLATFORM_URL, "POST", "/invoke/GetSlowTime/sample1", Map.of());
+                        Assert.assertEquals(200, con.getResponseCode());
+                        return result(con, Long.class);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor)).toList();
+
+        start.countDown();
+        try {
+            var results = futures.stream().map(CompletableFuture::join).collect(Collectors.toSet());
+            Assert.assertEquals(1, results.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     /**
      * Even without platform-auth, container auth should still be possible (and associated with the default admin user)
      */
@@ -1,5 +1,6 @@
 package de.gtarc.opaca.platform.tests;
 
+import de.gtarc.opaca.model.PlatformDelta;
 import de.gtarc.opaca.model.RuntimePlatform;
 import de.gtarc.opaca.platform.Application;
 import org.junit.*;
@@ -209,6 +210,45 @@ public class InterPlatformTests {
         Assert.assertEquals(200, con.getResponseCode());
     }
 
+    /**
+     * get platform info delta since the current revision, before and after notifying about a container change,
+     * and for revisions that are not known to the platform
+     */
+    @Test
+    public void testPlatformInfoDelta() throws Exception {
+        var con = request(PLATFORM_A_URL, "GET", "/info", null);
+        var revision = result(con, RuntimePlatform.class).getRevision();
+
+        con = request(PLATFORM_A_URL, "GET", "/info?sinceRevision=" + revision, null);
+        Assert.assertEquals(200, con.getResponseCode());
+        var delta = result(con, PlatformDelta.class);
+        Assert.assertEquals(revision, delta.getRevision());
+        Assert.assertFalse(delta.isReset());
+        Assert.assertTrue(delta.getAdded().isEmpty());
+        Assert.assertTrue(delta.getChanged().isEmpty());
+        Assert.assertTrue(delta.getRemoved().isEmpty());
+
+        con = request(PLATFORM_A_URL, "POST", "/containers/notify", containerId);
+        Assert.assertEquals(200, con.getResponseCode());
+        con = request(PLATFORM_A_URL, "GET", "/info?sinceRevision=" + revision, null);
+        delta = result(con, PlatformDelta.class);
+        Assert.assertTrue(delta.getRevision() > revision);
+        Assert.assertEquals(1, delta.getChanged().size());
+        Assert.assertEquals(containerId, delta.getChanged().get(0).getContainerId());
+        Assert.assertTrue(delta.getAdded().isEmpty());
+
+        con = request(PLATFORM_A_URL, "GET", "/info?sinceRevision=" + (delta.getRevision() + 1000), null);
+        delta = result(con, PlatformDelta.class);
+        Assert.assertTrue(delta.isReset());
+        Assert.assertEquals(1, delta.getAdded().size());
+
+        // platform B still knows about the container after applying the deltas
+        con = request(PLATFORM_B_URL, "POST", "/connections/notify", PLATFORM_A_URL);
+        Assert.assertEquals(200, con.getResponseCode());
+        con = request(PLATFORM_B_URL, "GET", "/agents?includeConnected=true", null);
+        Assert.assertEquals(2, result(con, List.class).size());
+    }
+
     @Test
     public void testInvalidPlatformNotify() throws Exception {
         // unknown platform
@@ -0,0 +1,16 @@
+package de.gtarc.opaca.platform.tests;
+
+import org.junit.BeforeClass;
+
+/**
+ * Same tests as {@link MeshRoutingTests}, but with calls forwarded via the websockets between the platforms
+ * instead of HTTP.
+ */
+public class MeshRoutingRpcTests extends MeshRoutingTests {
+
+    @BeforeClass
+    public static void setupPlatforms() throws Exception {
+        startPlatforms(true);
+    }
+
+}
@@ -0,0 +1,198 @@
+package de.gtarc.opaca.platform.tests;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import de.gtarc.opaca.model.PlatformDelta;
+import de.gtarc.opaca.model.PlatformRoute;
+import de.gtarc.opaca.model.RuntimePlatform;
+import de.gtarc.opaca.platform.Application;
+import de.gtarc.opaca.util.RestHelper;
+import org.junit.*;
+import org.junit.rules.TestName;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static de.gtarc.opaca.platform.tests.TestUtils.*;
+
+/**
+ * Tests for forwarding calls over more than one hop. During setup, three runtime platforms are started and
+ * connected in a chain A - B - C, and a sample-agent-container is deployed on platform A, so that it can be
+ * reached from platform C only via platform B. Calls are forwarded via HTTP; see {@link MeshRoutingRpcTests}
+ * for the same tests with calls forwarded via the websockets between the platforms.
+ */
+public class MeshRoutingTests {
+
+    private static final int PLATFORM_A_PORT = 8008;
+    private static final int PLATFORM_B_PORT = 8009;
+    private static final int PLATFORM_C_PORT = 8010;
+
+    private static final String PLATFORM_A_URL = "http://localhost:" + PLATFORM_A_PORT;
+    private static final String PLATFORM_B_URL = "http://localhost:" + PLATFORM_B_PORT;
+    private static final String PLATFORM_C_URL = "http://localhost:" + PLATFORM_C_PORT;
+
+    private static ConfigurableApplicationContext platformA = null;
+    private static ConfigurableApplicationContext platformB = null;
+    private static ConfigurableApplicationContext platformC = null;
+
+    /** whether calls are forwarded via the websockets between the platforms */
+    private static boolean platformRpc = false;
+
+    @BeforeClass
+    public static void setupPlatforms() throws Exception {
+        startPlatforms(false);
+    }
+
+    protected static void startPlatforms(boolean rpc) throws Exception {
+        platformRpc = rpc;
+        platformA = startPlatform(PLATFORM_A_PORT);
+        platformB = startPlatform(PLATFORM_B_PORT);
+        platformC = startPlatform(PLATFORM_C_PORT);
+        postSampleContainer(PLATFORM_A_URL);
+        connectPlatforms(PLATFORM_B_URL, PLATFORM_A_URL);
+        connectPlatforms(PLATFORM_C_URL, PLATFORM_B_URL);
+        // wait for routes to be exchanged: first B learns about A, then C learns about A via B
+        var urlA = getBaseUrl(PLATFORM_A_URL);
+        for (int i = 0; i < 100 && getRoutes(PLATFORM_C_URL).stream().noneMatch(r -> r.getPlatformUrl().equals(urlA)); i++) {
+            Thread.sleep(100);
+        }
+    }
+
+    private static ConfigurableApplicationContext startPlatform(int port) {
+        return SpringApplication.run(Application.class, "--server.port=" + port,
+                "--mesh_max_hops=2", "--mesh_update_interval_sec=1", "--platform_rpc=" + platformRpc);
+    }
+
+    private static List<PlatformRoute> getRoutes(String platformUrl) throws Exception {
+        var con = request(platformUrl, "GET", "/routes", null);
+        Assert.assertEquals(200, con.getResponseCode());
+        return RestHelper.readObject(result(con), new TypeReference<>(){});
+    }
+
+    @AfterClass
+    public static void stopPlatforms() {
+        platformA.close();
+        platformB.close();
+        platformC.close();
+    }
+
+    @Rule
+    public TestName testName = new TestName();
+
+    @Before
+    public void printTest() {
+        System.out.println(">>> RUNNING TEST " + getClass().getSimpleName() + "." + testName.getMethodName());
+    }
+
+    /**
+     * platform C knows route to platform A via platform B, but not to itself
+     */
+    @Test
+    public void testGetRoutes() throws Exception {
+        var routes = getRoutes(PLATFORM_C_URL);
+        Assert.assertEquals(2, routes.size());
+        var urlA = getBaseUrl(PLATFORM_A_URL);
+        var urlB = getBaseUrl(PLATFORM_B_URL);
+        var routeA = routes.stream().filter(r -> r.getPlatformUrl().equals(urlA)).findFirst().orElseThrow();
+        Assert.assertEquals(urlB, routeA.getVia());
+        Assert.assertEquals(2, routeA.getHops());
+        var con = request(PLATFORM_A_URL, "GET", "/info", null);
+        Assert.assertEquals(result(con, RuntimePlatform.class).getRevision(), routeA.getRevision());
+    }
+
+    /**
+     * platform C gets the containers of platform A from platform B, which passes the request on to A
+     */
+    @Test
+    public void testGetInfoDeltaTwoHops() throws Exception {
+        var urlA = getBaseUrl(PLATFORM_A_URL);
+        var con = request(PLATFORM_C_URL, "GET", "/info?sinceRevision=-1&platformUrl=" + urlA, null);
+        Assert.assertEquals(200, con.getResponseCode());
+        var delta = result(con, PlatformDelta.class);
+        Assert.assertTrue(delta.isReset());
+        Assert.assertEquals(1, delta.getAdded().size());
+
+        con = request(PLATFORM_C_URL, "GET", "/info?sinceRevision=" + delta.getRevision() + "&platformUrl=" + urlA, null);
+        Assert.assertEquals(200, con.getResponseCode());
+        delta = result(con, PlatformDelta.class);
+        Assert.assertFalse(delta.isReset());
+        Assert.assertTrue(delta.getAdded().isEmpty());
+
+        con = request(PLATFORM_C_URL, "GET", "/info?sinceRevision=-1&platformUrl=http://unknown-platform:8000", null);
+        Assert.assertEquals(404, con.getResponseCode());
+    }
+
+    /**
+     * call invoke on platform C, forwarded via platform B to platform A
+     */
+    @Test
+    public void testInvokeTwoHops() throws Exception {
+        var params = Map.of("x", 23, "y", 42);
+        var con = request(PLATFORM_C_URL, "POST", "/invoke/Add", params);
+        Assert.assertEquals(200, con.getResponseCode());
+        var res = result(con, Integer.class);
+        Assert.assertEquals(65L, res.longValue());
+    }
+
+    /**
+     * send message from platform C to agent on platform A, check that it arrived
+     */
+    @Test
+    public void testSendTwoHops() throws Exception {
+        var message = Map.of("payload", "testMeshMessage", "replyTo", "doesnotmatter");
+        var con = request(PLATFORM_C_URL, "POST", "/send/sample1", message);
+        Assert.assertEquals(200, con.getResponseCode());
+
+        con = request(PLATFORM_A_URL, "POST", "/invoke/GetInfo/sample1", Map.of());
+        var res = result(con, Map.class);
+        Assert.assertEquals("testMeshMessage", res.get("lastMessage"));
+    }
+
+    /**
+     * with platform RPC, platform B has websocket channels to both platform A and C, which both support calls
+     */
+    @Test
+    public void testWebsocketChannels() throws Exception {
+        var con = request(PLATFORM_B_URL, "GET", "/stats", null);
+        Assert.assertEquals(200, con.getResponseCode());
+        var stats = result(con, Map.class);
+        var rpc = (Map<?, ?>) stats.get("platformRpc");
+        Assert.assertEquals(platformRpc ? 2 : 0, rpc.get("channels"));
+        Assert.assertEquals(platformRpc ? 2 : 0, rpc.get("ready"));
+    }
+
+    /**
+     * post stream on platform C, forwarded via platform B to platform A
+     */
+    @Test
+    public void testPostStreamTwoHops() throws Exception {
+        byte[] data = "{\"key\": \"value\"}".getBytes(StandardCharsets.UTF_8);
+        var responseCode = streamRequest(PLATFORM_C_URL, "POST", "/stream/PostStream/sample1", data);
+        Assert.assertEquals(200, responseCode);
+    }
+
+    /**
+     * calls that already passed as many platforms as the hop limit allows are not forwarded further
+     */
+    @Test
+    public void testHopLimit() throws Exception {
+        var params = Map.of("x", 23, "y", 42);
+        var con = requestWithHeaders(PLATFORM_C_URL, "POST", "/invoke/Add", params,
+                Map.of("visited-platforms", "http://some-platform:8000,http://other-platform:8000"));
+        Assert.assertEquals(404, con.getResponseCode());
+    }
+
+    /**
+     * calls are not forwarded to platforms they already passed
+     */
+    @Test
+    public void testNoLoop() throws Exception {
+        var params = Map.of("x", 23, "y", 42);
+        var con = requestWithHeaders(PLATFORM_C_URL, "POST", "/invoke/Add", params,
+                Map.of("visited-platforms", getBaseUrl(PLATFORM_B_URL)));
+        Assert.assertEquals(404, con.getResponseCode());
+    }
+
+}
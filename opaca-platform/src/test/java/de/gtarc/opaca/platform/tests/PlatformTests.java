@@ -5,6 +5,9 @@ import de.gtarc.opaca.platform.Application;
 import static de.gtarc.opaca.platform.tests.TestUtils.*;
 
 import de.gtarc.opaca.platform.session.Session;
+import de.gtarc.opaca.util.EventSubscriber;
+import de.gtarc.opaca.util.TraceContext;
+import de.gtarc.opaca.util.Tracer;
 import de.gtarc.opaca.util.WebSocketConnector;
 import io.swagger.v3.parser.OpenAPIV3Parser;
 import io.swagger.v3.parser.core.models.ParseOptions;
@@ -16,9 +19,17 @@ import org.springframework.context.ConfigurableApplicationContext;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.net.http.WebSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
 
 /**
  * Different tests testing especially stuff related to the Runtime Platform, such as deploying and removing
@@ -35,17 +46,27 @@ public class PlatformTests {
     private static final String PLATFORM_A_URL = "http://localhost:" + PLATFORM_A_PORT;
     private static final String PLATFORM_B_URL = "http://localhost:" + PLATFORM_B_PORT;
 
+    /** for tests needing a dedicated platform with special settings, started and stopped by the test itself */
+    private static final int PLATFORM_C_PORT = 8011;
+    private static final String PLATFORM_C_URL = "http://localhost:" + PLATFORM_C_PORT;
+
     private static ConfigurableApplicationContext platformA = null;
     private static ConfigurableApplicationContext platformB = null;
 
+    private static Path spansFile = null;
+
     @BeforeClass
-    public static void setupPlatform() {
+    public static void setupPlatform() throws Exception {
+        spansFile = Files.createTempFile("opaca-spans", ".jsonl");
         platformA = SpringApplication.run(Application.class,
                 "--server.port=" + PLATFORM_A_PORT,
-                "--default_image_directory=./default-test-images"
+                "--default_image_directory=./default-test-images",
+                "--container_cpu_capacity=4"
         );
         platformB = SpringApplication.run(Application.class,
-                "--server.port=" + PLATFORM_B_PORT);
+                "--server.port=" + PLATFORM_B_PORT,
+                "--event_log_directory=" + Files.createTempDirectory("opaca-event-log"),
+                "--trace_exporter=file", "--trace_exporter_target=" + spansFile);
     }
 
     @AfterClass
@@ -94,8 +115,10 @@ public class PlatformTests {
         // create web socket listener and collect messages
         var invokeMsg = new ArrayList<String>();
         var containerMsg = new ArrayList<String>();
+        var rootMsg = new ArrayList<String>();
         WebSocketConnector.subscribe(PLATFORM_A_URL, null, "/invoke", invokeMsg::add);
         WebSocketConnector.subscribe(PLATFORM_A_URL, null, "/containers", containerMsg::add);
+        WebSocketConnector.subscribe(PLATFORM_A_URL, null, "/", rootMsg::add);
 
         // make sure connection is established first
         Thread.sleep(200);
@@ -115,6 +138,98 @@ public class PlatformTests {
         Thread.sleep(200);
         Assert.assertEquals(3, invokeMsg.size());
         Assert.assertEquals(2, containerMsg.size());
+        Assert.assertEquals(0, rootMsg.size());
+    }
+
+    /**
+     * test that subscribers only get the events matching their route patterns and filters, including
+     * other event types than SUCCESS if requested
+     */
+    @Test
+    public void testWebSocketFilteredEvents() throws Exception {
+        var filteredMsg = Collections.synchronizedList(new ArrayList<String>());
+        var actionMsg = Collections.synchronizedList(new ArrayList<String>());
+        WebSocketConnector.subscribe(PLATFORM_A_URL, null, List.of(
+                new EventSubscription("/invoke/GetI*", List.of(Event.EventType.CALL, Event.EventType.SUCCESS), null, null, null),
+                new EventSubscription("POST /containers", null, null, null, null)
+        ), filteredMsg::add);
+        WebSocketConnector.subscribe(PLATFORM_A_URL, null, List.of(
+                new EventSubscription(null, List.of(Event.EventType.SUCCESS), null, null, "Add")
+        ), actionMsg::add);
+        Thread.sleep(200);
+
+        var containerId = result(request(PLATFORM_A_URL, "POST", "/containers", getSampleContainerImage()));
+        request(PLATFORM_A_URL, "POST", "/invoke/GetInfo", Map.of()).getResponseCode();
+        request(PLATFORM_A_URL, "POST", "/invoke/Add", Map.of("x", 1, "y", 2)).getResponseCode();
+        request(PLATFORM_A_URL, "POST", "/invoke/Add/sample1", Map.of("x", 1, "y", 2)).getResponseCode();
+        result(request(PLATFORM_A_URL, "DELETE", "/containers/" + containerId, null));
+
+        Thread.sleep(200);
+        // CALL and SUCCESS for POST /containers and for GetInfo
+        Assert.assertEquals(4, filteredMsg.size());
+        // SUCCESS for both Add invocations
+        Assert.assertEquals(2, actionMsg.size());
+    }
+
+    /**
+     * test that a subscriber resuming from an earlier event first gets the events it missed, then new ones
+     */
+    @Test
+    public void testWebSocketResume() throws Exception {
+        var containerId = result(request(PLATFORM_A_URL, "POST", "/containers", getSampleContainerImage()));
+        var history = result(request(PLATFORM_A_URL, "GET", "/history", null), List.class);
+        var lastSequence = ((Number) ((Map<?, ?>) history.get(history.size() - 1)).get("sequence")).longValue();
+
+        // events missed by the subscriber
+        request(PLATFORM_A_URL, "POST", "/invoke/GetInfo", Map.of()).getResponseCode();
+        request(PLATFORM_A_URL, "POST", "/invoke/GetInfo", Map.of()).getResponseCode();
+
+        var invokeMsg = Collections.synchronizedList(new ArrayList<String>());
+        var subscriber = new EventSubscriber(PLATFORM_A_URL, null, "/invoke", invokeMsg::add).resumeFrom(lastSequence);
+        subscriber.connect().get();
+        Thread.sleep(200);
+        Assert.assertEquals(2, invokeMsg.size());
+
+        // new event
+        request(PLATFORM_A_URL, "POST", "/invoke/GetInfo", Map.of()).getResponseCode();
+        Thread.sleep(200);
+        Assert.assertEquals(3, invokeMsg.size());
+        Assert.assertTrue(subscriber.getLastSequence() > lastSequence + 4);
+
+        subscriber.close();
+        result(request(PLATFORM_A_URL, "DELETE", "/containers/" + containerId, null));
+    }
+
+    /**
+     * open and close many websocket connections, checking that all sessions are cleaned up afterwards
+     */
+    @Test
+    public void testWebSocketConnectDisconnect() throws Exception {
+        var connectionsBefore = getWebSocketStatistic("connections");
+        var closedBefore = getWebSocketStatistic("closed");
+        var cycles = 300;
+        var pending = new ArrayList<CompletableFuture<?>>();
+        for (int i = 0; i < cycles; i++) {
+            pending.add(WebSocketConnector.subscribe(PLATFORM_A_URL, null, "/invoke", message -> {})
+                    .thenCompose(ws -> ws.sendClose(WebSocket.NORMAL_CLOSURE, "done")));
+            if (pending.size() == 100) {
+                CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+                pending.clear();
+            }
+        }
+        CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+
+        // closed connections are handled asynchronously by the platform
+        for (int i = 0; i < 50 && getWebSocketStatistic("closed") < closedBefore + cycles; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(closedBefore + cycles, getWebSocketStatistic("closed"));
+        Assert.assertEquals(connectionsBefore, getWebSocketStatistic("connections"));
+    }
+
+    private long getWebSocketStatistic(String key) throws Exception {
+        var stats = result(request(PLATFORM_A_URL, "GET", "/stats", null), Map.class);
+        return ((Number) ((Map<?, ?>) stats.get("websockets")).get(key)).longValue();
     }
 
     /**
@@ -277,6 +392,30 @@ public class PlatformTests {
         result(request(PLATFORM_A_URL, "DELETE", "/containers/" + id2, null));
     }
 
+    /**
+     * deploy sample container with resources, and check that exceeding the platform's capacity is rejected
+     */
+    @Test
+    public void testDeployResources() throws Exception {
+        var image = getSampleContainerImage();
+        image.getImage().setResources(new ResourceRequirements(1.0, 2.0, 128L, 1024L, null));
+        var con = request(PLATFORM_A_URL, "POST", "/containers", image);
+        Assert.assertEquals(200, con.getResponseCode());
+        var containerId = result(con);
+
+        var stats = result(request(PLATFORM_A_URL, "GET", "/stats", null), Map.class);
+        Assert.assertEquals(1.0, ((Map<?, ?>) stats.get("resources")).get("cpuUsed"));
+
+        // request of the client config overrides that of the image
+        image.setClientConfig(new PostAgentContainer.DockerConfig(PostAgentContainer.ContainerEnvironment.DOCKER,
+                new ResourceRequirements(3.5, null, null, null, null)));
+        con = request(PLATFORM_A_URL, "POST", "/containers", image);
+        Assert.assertEquals(400, con.getResponseCode());
+        Assert.assertTrue(error(con).message.contains("capacity"));
+
+        result(request(PLATFORM_A_URL, "DELETE", "/containers/" + containerId, null));
+    }
+
     @Test
     public void testPlatformProvisions() throws Exception {
         // deploy sample container
@@ -323,6 +462,54 @@ public class PlatformTests {
         Assert.assertEquals(0, lst.size());
     }
 
+    /**
+     * start two containers of the same image in parallel, forcing a pull; the image is pulled only once,
+     * and both requests wait for that pull, as recorded in the history
+     */
+    @SuppressWarnings({"unchecked"})
+    @Test
+    public void testParallelPullDeduplicated() throws Exception {
+        var since = System.currentTimeMillis();
+        var container = getSampleContainerImage();
+        container.getImage().setImageName("hello-world");
+        container.setPull(true);
+
+        var start = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var futures = new ArrayList<CompletableFuture<Integer>>();
+            for (int i = 0; i < 2; i++) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        start.await();
+                        return request(PLATFORM_A_URL, "POST", "/containers", container).getResponseCode();
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+            start.countDown();
+            // the image is pulled, but is not a valid agent container
+            for (var future : futures) {
+                Assert.assertEquals(502, (int) future.join());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        var route = "PULL /images/hello-world";
+        List<Map<String, Object>> pulls = List.of();
+        for (int i = 0; i < 50 && pulls.size() < 2; i++) {
+            Thread.sleep(100);
+            List<Map<String, Object>> history = result(request(PLATFORM_A_URL, "GET", "/history?from=" + since, null), List.class);
+            pulls = history.stream().filter(e -> route.equals(e.get("route"))).toList();
+        }
+        Assert.assertEquals(2, pulls.size());
+        Assert.assertEquals("CALL", pulls.get(0).get("eventType"));
+        Assert.assertEquals("SUCCESS", pulls.get(1).get("eventType"));
+        Assert.assertEquals(pulls.get(0).get("id"), pulls.get(1).get("relatedId"));
+    }
+
     /**
      * try to undeploy unknown container
      * -> false (not really an error, afterward the container _is_ gone...)
@@ -377,6 +564,206 @@ public class PlatformTests {
         Assert.assertEquals("ERROR", res.get(res.size() - 1).get("eventType"));
     }
 
+    /**
+     * test querying the history with filters, answered from the persistent event log on platform B
+     */
+    @SuppressWarnings({"unchecked"})
+    @Test
+    public void testHistoryQuery() throws Exception {
+        var start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            request(PLATFORM_B_URL, "POST", "/invoke/UnknownAction" + i, Map.of()).getResponseCode();
+        }
+        // events are recorded asynchronously
+        var query = "/history?from=" + start + "&route=/invoke/*&eventType=ERROR&limit=2";
+        List<Map<String, Object>> res = result(request(PLATFORM_B_URL, "GET", query, null), List.class);
+        for (int i = 0; i < 50 && (res.isEmpty() || ! "POST /invoke/UnknownAction2".equals(res.get(res.size() - 1).get("route"))); i++) {
+            Thread.sleep(100);
+            res = result(request(PLATFORM_B_URL, "GET", query, null), List.class);
+        }
+        Assert.assertEquals(2, res.size());
+        Assert.assertEquals("POST /invoke/UnknownAction1", res.get(0).get("route"));
+        Assert.assertEquals("POST /invoke/UnknownAction2", res.get(1).get("route"));
+        res.forEach(e -> Assert.assertEquals("ERROR", e.get("eventType")));
+
+        // only events after the given sequence number
+        var since = ((Number) res.get(0).get("sequence")).longValue();
+        res = result(request(PLATFORM_B_URL, "GET", query + "&since=" + since, null), List.class);
+        Assert.assertEquals(1, res.size());
+        Assert.assertEquals("POST /invoke/UnknownAction2", res.get(0).get("route"));
+
+        var stats = result(request(PLATFORM_B_URL, "GET", "/stats", null), Map.class);
+        Assert.assertEquals(true, ((Map<?, ?>) stats.get("eventLog")).get("enabled"));
+    }
+
+    /**
+     * test that a call continues the trace given in the traceparent header, that the trace is returned
+     * in the response and added to the events, and that the spans are exported
+     */
+    @Test
+    public void testTracePropagation() throws Exception {
+        var traceId = "4bf92f3577b34da6a3ce929d0e0e4736";
+        var con = requestWithHeaders(PLATFORM_B_URL, "POST", "/invoke/UnknownAction", Map.of(),
+                Map.of(TraceContext.HEADER, "00-" + traceId + "-00f067aa0ba902b7-01"));
+        Assert.assertEquals(404, con.getResponseCode());
+        var trace = TraceContext.parse(con.getHeaderField(TraceContext.HEADER));
+        Assert.assertNotNull(trace);
+        Assert.assertEquals(traceId, trace.getTraceId());
+        Assert.assertNotEquals("00f067aa0ba902b7", trace.getSpanId());
+        Thread.sleep(200); // events are recorded asynchronously
+
+        List<Map<String, Object>> events = result(request(PLATFORM_B_URL, "GET", "/history", null), List.class);
+        var types = events.stream().filter(e -> traceId.equals(e.get("traceId"))).map(e -> e.get("eventType")).toList();
+        Assert.assertEquals(List.of("CALL", "ERROR"), types);
+
+        Tracer.getInstance().flush();
+        var spans = Files.readString(spansFile);
+        Assert.assertTrue(spans.contains(trace.getSpanId()));
+        Assert.assertTrue(spans.contains("\"routing\""));
+    }
+
+    /**
+     * test that latency and throughput of calls are recorded per action
+     */
+    @Test
+    public void testCallStatistics() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            request(PLATFORM_A_URL, "POST", "/invoke/StatisticsTestAction", Map.of()).getResponseCode();
+        }
+        Thread.sleep(200); // calls are recorded asynchronously
+
+        var stats = result(request(PLATFORM_A_URL, "GET", "/stats", null), Map.class);
+        var actions = (Map<?, ?>) ((Map<?, ?>) stats.get("calls")).get("actions");
+        var lastMinute = (Map<?, ?>) ((Map<?, ?>) actions.get("StatisticsTestAction")).get("1m");
+        Assert.assertEquals(3, lastMinute.get("count"));
+        Assert.assertEquals(3, lastMinute.get("errors"));
+        Assert.assertNotNull(lastMinute.get("p99Ms"));
+    }
+
+    /**
+     * test that another container is started from the same request when too many invocations are in flight,
+     * and stopped again after the cooldown; uses a dedicated platform with autoscaling enabled
+     */
+    @Test
+    public void testAutoscaling() throws Exception {
+        var platform = SpringApplication.run(Application.class, "--server.port=" + PLATFORM_C_PORT,
+                "--autoscale_max_in_flight=1", "--autoscale_max_replicas=2", "--autoscale_cooldown_sec=1");
+        try {
+            var image = getSampleContainerImage();
+            var con = request(PLATFORM_C_URL, "POST", "/containers", image);
+            Assert.assertEquals(200, con.getResponseCode());
+            var containerId = result(con);
+
+            var pending = new ArrayList<CompletableFuture<String>>();
+            for (int i = 0; i < 4; i++) {
+                pending.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        var invoke = request(PLATFORM_C_URL, "POST", "/invoke/DoThis", Map.of("message", "load", "sleep_seconds", 10));
+                        Assert.assertEquals(200, invoke.getResponseCode());
+                        return result(invoke, String.class);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }));
+            }
+            // scaling is checked every 5 seconds, then the new container has to start
+            List<?> containers = List.of();
+            for (int i = 0; i < 60 && containers.size() < 2; i++) {
+                Thread.sleep(1000);
+                containers = result(request(PLATFORM_C_URL, "GET", "/containers", null), List.class);
+            }
+            Assert.assertEquals(2, containers.size());
+
+            for (var future : pending) {
+                Assert.assertTrue(future.join().contains("message=load"));
+            }
+            var stats = result(request(PLATFORM_C_URL, "GET", "/stats", null), Map.class);
+            Assert.assertEquals(1, ((Map<?, ?>) stats.get("autoscaler")).get("scaledUp"));
+
+            // without load, the new container is stopped again after the cooldown, but not the original one
+            for (int i = 0; i < 30 && containers.size() > 1; i++) {
+                Thread.sleep(1000);
+                containers = result(request(PLATFORM_C_URL, "GET", "/containers", null), List.class);
+            }
+            Assert.assertEquals(1, containers.size());
+            Assert.assertEquals(containerId, ((Map<?, ?>) containers.get(0)).get("containerId"));
+            stats = result(request(PLATFORM_C_URL, "GET", "/stats", null), Map.class);
+            Assert.assertEquals(1, ((Map<?, ?>) stats.get("autoscaler")).get("scaledDown"));
+
+            Assert.assertEquals(200, request(PLATFORM_C_URL, "DELETE", "/containers/" + containerId, null).getResponseCode());
+        } finally {
+            platform.close();
+        }
+    }
+
+    /**
+     * test that a container claimed from the warm pool belongs to the user requesting it, also after an update,
+     * and that the pool is refilled; uses a dedicated platform with auth and the warm pool enabled
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWarmPoolClaim() throws Exception {
+        var platform = SpringApplication.run(Application.class, "--server.port=" + PLATFORM_C_PORT,
+                "--security.requireAuth=true",
+                "--security.secret=topSecretPseudoKeyForUnitTestingAlsoHasToHaveSomeMinLength",
+                "--platform_admin_user=testUser", "--platform_admin_pwd=testPwd", "--db_embed=true",
+                "--warm_pool_images=" + TEST_IMAGE, "--warm_pool_size=1");
+        try {
+            var token = result(request(PLATFORM_C_URL, "POST", "/login", new Login("testUser", "testPwd")));
+
+            // the first container is started regularly, then serves as template for the pool
+            var image = getSampleContainerImage();
+            var con = requestWithToken(PLATFORM_C_URL, "POST", "/containers", image, token);
+            Assert.assertEquals(200, con.getResponseCode());
+            var templateId = result(con);
+            Map<String, Object> pool = Map.of();
+            for (int i = 0; i < 60 && ! Integer.valueOf(1).equals(idleInPool(pool)); i++) {
+                Thread.sleep(1000);
+                pool = (Map<String, Object>) result(requestWithToken(PLATFORM_C_URL, "GET", "/stats", null, token), Map.class).get("warmPool");
+            }
+            Assert.assertEquals(1, idleInPool(pool));
+
+            // the second container is claimed from the pool
+            con = requestWithToken(PLATFORM_C_URL, "POST", "/containers", image, token);
+            Assert.assertEquals(200, con.getResponseCode());
+            var containerId = result(con);
+            pool = (Map<String, Object>) result(requestWithToken(PLATFORM_C_URL, "GET", "/stats", null, token), Map.class).get("warmPool");
+            Assert.assertEquals(1, pool.get("claimed"));
+
+            var container = result(requestWithToken(PLATFORM_C_URL, "GET", "/containers/" + containerId, null, token), AgentContainer.class);
+            Assert.assertEquals("testUser", container.getOwner());
+
+            // the owner is kept when updating the container's description
+            con = requestWithToken(PLATFORM_C_URL, "POST", "/containers/notify", containerId, token);
+            Assert.assertEquals(200, con.getResponseCode());
+            Assert.assertTrue(result(con, Boolean.class));
+            container = result(requestWithToken(PLATFORM_C_URL, "GET", "/containers/" + containerId, null, token), AgentContainer.class);
+            Assert.assertEquals("testUser", container.getOwner());
+
+            con = requestWithToken(PLATFORM_C_URL, "DELETE", "/containers/" + containerId, null, token);
+            Assert.assertEquals(200, con.getResponseCode());
+            Assert.assertTrue(result(con, Boolean.class));
+
+            // meanwhile, a new idle container has been started for the pool
+            for (int i = 0; i < 60 && ! Integer.valueOf(1).equals(idleInPool(pool)); i++) {
+                Thread.sleep(1000);
+                pool = (Map<String, Object>) result(requestWithToken(PLATFORM_C_URL, "GET", "/stats", null, token), Map.class).get("warmPool");
+            }
+            Assert.assertEquals(1, idleInPool(pool));
+            Assert.assertEquals(2, pool.get("started"));
+
+            requestWithToken(PLATFORM_C_URL, "DELETE", "/containers/" + templateId, null, token).getResponseCode();
+        } finally {
+            platform.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object idleInPool(Map<String, Object> pool) {
+        var images = (Map<String, Map<String, Object>>) pool.getOrDefault("images", Map.of());
+        return images.getOrDefault(TEST_IMAGE, Map.of()).get("idle");
+    }
+
     /**
      * test that two containers get a different API port
      */
@@ -97,12 +97,14 @@ public class TestUtils {
 
     // this is NOT using RestHelper since we are also interested in the exact HTTP Return Code
     public static HttpURLConnection requestWithToken(String host, String method, String path, Object payload, String token) throws Exception {
+        return requestWithHeaders(host, method, path, payload,
+                token != null ? Map.of("Authorization", "Bearer " + token) : Map.of());
+    }
+
+    public static HttpURLConnection requestWithHeaders(String host, String method, String path, Object payload, Map<String, String> headers) throws Exception {
         HttpURLConnection connection = (HttpURLConnection) new URI(host + path).toURL().openConnection();
         connection.setRequestMethod(method);
-
-        if (token != null) {
-            connection.setRequestProperty("Authorization", "Bearer " + token);
-        }
+        headers.forEach(connection::setRequestProperty);
 
         if (payload != null) {
             String json = RestHelper.mapper.writeValueAsString(payload);